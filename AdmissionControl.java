@@ -0,0 +1,122 @@
+/*
+ * AdmissionControl.java - Cross-process limit on concurrent heavy operations
+ *
+ * When Control-M releases many HfmCli jobs at once they all submit together
+ * and the HFM cluster time-slices them. With --admitLimits each job first
+ * takes a slot for its operation class on its cluster/application and holds
+ * it until its tasks finish; jobs beyond the limit wait on the batch server.
+ *
+ * A class with limit N is a file <dir>/<cluster>_<application>_<class>.slots;
+ * slot i is an exclusive FileLock on byte i. The OS releases the lock when
+ * the JVM dies, so a killed job never leaks a slot. Slots held by other
+ * threads of this JVM show up as OverlappingFileLockException and are
+ * treated as busy. Each slots file is opened once per JVM and kept open
+ * (see LockFiles).
+ *
+ * Operation classes: consolidate (Consolidate, Translate), load (LoadData),
+ * extract (ExtractData). A class without a limit is not restricted.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+class AdmissionControl {
+
+    static final long MIN_BACKOFF_MS = 200;
+    static final long MAX_BACKOFF_MS = 5000;
+
+    private final File dir;
+    private final Map<String, Integer> limits;
+    private final Random random = new Random();
+
+    AdmissionControl(File dir, Map<String, Integer> limits) {
+        this.dir = dir;
+        this.limits = limits;
+    }
+
+    /** Parses "consolidate=2,load=4,extract=4". */
+    static Map<String, Integer> parseLimits(String spec) {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        for (String part : spec.split(",")) {
+            if (part.trim().isEmpty()) continue;
+            String[] kv = part.split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("Bad --admitLimits entry: " + part);
+            limits.put(kv[0].trim().toLowerCase(Locale.ROOT), Integer.parseInt(kv[1].trim()));
+        }
+        return limits;
+    }
+
+    /** A held slot; release() when the operation's tasks are done. */
+    static final class Slot {
+        final String operationClass;
+        final int index;
+        final int limit;
+        private final FileLock lock;
+
+        private Slot(String operationClass, int index, int limit, FileLock lock) {
+            this.operationClass = operationClass;
+            this.index = index;
+            this.limit = limit;
+            this.lock = lock;
+        }
+
+        void release() {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // The lock goes with the process at the latest
+            }
+        }
+    }
+
+    /**
+     * Blocks until a slot of the class is free on this cluster/application.
+     * Returns null when the class has no limit.
+     */
+    Slot acquire(String operationClass, String cluster, String application)
+            throws IOException, InterruptedException {
+        Integer limit = limits.get(operationClass);
+        if (limit == null || limit <= 0) return null;
+        if (!dir.exists()) dir.mkdirs();
+        File file = new File(dir, name(cluster) + "_" + name(application) + "_" + operationClass + ".slots");
+
+        long backoff = MIN_BACKOFF_MS;
+        while (true) {
+            Slot slot = tryAcquire(file, operationClass, limit);
+            if (slot != null) return slot;
+            // Jittered so jobs released together do not retry together
+            Thread.sleep(backoff / 2 + (long) (random.nextDouble() * backoff));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private Slot tryAcquire(File file, String operationClass, int limit) throws IOException {
+        FileChannel channel = LockFiles.channel(file);
+        // Start at a random slot so waiting jobs do not all probe slot 0 first
+        int first = random.nextInt(limit);
+        for (int n = 0; n < limit; n++) {
+            int i = (first + n) % limit;
+            try {
+                FileLock lock = channel.tryLock(i, 1, false);
+                if (lock != null) return new Slot(operationClass, i, limit, lock);
+            } catch (OverlappingFileLockException e) {
+                // Held by another thread of this JVM
+            }
+        }
+        return null;
+    }
+
+    private static String name(String s) {
+        if (s == null) return "";
+        return s.trim().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * CalcStatusPlan.java - Consolidation pre-check based on calculation status
+ *
+ * Splits a consolidation POV into one slice per entity and period, looks at
+ * each slice's calc status and keeps only the slices that need work:
+ *
+ *   OK, NODATA             already clean - skipped
+ *   CN, CH, TR, CN ND ...  impacted data only - Impacted consolidation
+ *   OK SC, anything else   system/metadata change - AllWithData
+ *
+ * With type Auto each slice gets the cheapest type that brings it back to
+ * OK; with an explicit type the dirty slices keep that type. Slices are then
+ * submitted grouped by type, one executeServerTask call per type.
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+class CalcStatusPlan {
+
+    static final WEBOMDATAGRIDTASKMASKENUM IMPACTED = WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_CONSOLIDATE;
+    static final WEBOMDATAGRIDTASKMASKENUM ALL_WITH_DATA =
+            WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_CONSOLIDATEALLWITHDATA;
+
+    final Map<WEBOMDATAGRIDTASKMASKENUM, List<String>> submissions =
+            new LinkedHashMap<WEBOMDATAGRIDTASKMASKENUM, List<String>>();
+    int subcubes;
+    int skipped;
+    int impacted;
+    int allWithData;
+
+    /** One POV per (entity, period) of the given POV; other members are kept as given. */
+    static List<String> slices(String pov) {
+        HFMpovInfo.PovTokens t = HFMpovInfo.parsePov(pov);
+        List<String> entities = t.entity != null ? Arrays.asList(t.entity.split(";")) : Arrays.asList((String) null);
+        List<String> periods = t.periods.isEmpty() ? Arrays.asList((String) null) : new ArrayList<String>(t.periods);
+        List<String> slices = new ArrayList<String>();
+        for (String entity : entities) {
+            for (String period : periods) {
+                t.entity = entity;
+                t.periods = period != null ? Arrays.asList(period) : new ArrayList<String>();
+                slices.add(t.format());
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * @param requested the consolidation type to use for dirty slices, or null
+     *                  to pick Impacted or AllWithData per slice
+     */
+    static CalcStatusPlan build(List<String> slices, List<String> statuses, WEBOMDATAGRIDTASKMASKENUM requested) {
+        CalcStatusPlan plan = new CalcStatusPlan();
+        for (int i = 0; i < slices.size(); i++) {
+            plan.subcubes++;
+            String status = i < statuses.size() && statuses.get(i) != null
+                    ? statuses.get(i).trim().toUpperCase(Locale.ROOT) : "";
+            WEBOMDATAGRIDTASKMASKENUM type;
+            if (isClean(status)) {
+                plan.skipped++;
+                continue;
+            } else if (needsImpactedOnly(status)) {
+                plan.impacted++;
+                type = IMPACTED;
+            } else {
+                plan.allWithData++;
+                type = ALL_WITH_DATA;
+            }
+            if (requested != null) type = requested;
+            List<String> povs = plan.submissions.get(type);
+            if (povs == null) {
+                povs = new ArrayList<String>();
+                plan.submissions.put(type, povs);
+            }
+            povs.add(slices.get(i));
+        }
+        return plan;
+    }
+
+    /** True for a calc status label HFM reports (OK, OK SC, CN, CN ND, CH, TR, NODATA, LOCKED, ...). */
+    static boolean isLabel(String status) {
+        return status.matches("(OK|CN|CH|TR)( SC| ND)?|NO ?DATA|LOCKED");
+    }
+
+    static boolean isClean(String status) {
+        return status.equals("OK") || status.equals("NODATA") || status.equals("NO DATA");
+    }
+
+    // CN = calculation needed, CH = needs chart logic, TR = translation needed
+    static boolean needsImpactedOnly(String status) {
+        return status.startsWith("CN") || status.startsWith("CH") || status.startsWith("TR");
+    }
+
+    /** JSON fragment for the result line. */
+    String toJson() {
+        return "\"calc_status\":{\"subcubes\":" + subcubes + ",\"skipped\":" + skipped
+                + ",\"impacted\":" + impacted + ",\"all_with_data\":" + allWithData + "}";
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * EntityPlanner.java - Plans consolidations over an entity hierarchy
+ *
+ * Reads the Entity hierarchy from an extracted metadata file (.app format:
+ * "parent;child" lines in the !HIERARCHIES=Entity section; a file with only
+ * such lines also works) and turns a set of target entities into levels of
+ * consolidation units:
+ *
+ *   1. Targets below another target (parents or base entities) are
+ *      dropped; consolidating the ancestor already covers them.
+ *   2. The topmost parent entities shared by two targets' subtrees become
+ *      units of their own, so the shared subtree is consolidated once.
+ *   3. While the bottom level has fewer than `width` units, the largest
+ *      splittable unit is split: its parent children become units that run
+ *      before it, side by side.
+ *   4. Every parent child of a unit above the bottom level becomes a unit
+ *      too, so everything below such a unit is done by the time it runs.
+ *
+ * Each unit runs after all units below it (bottom-up); units of one level
+ * are independent and are submitted together. Only the bottom level runs
+ * the requested consolidation type; the levels above run Impacted, which
+ * rolls up the finished units without consolidating their subtrees again.
+ */
+
+package project1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+class EntityPlanner {
+
+    // Children per entity, keyed by upper-cased label (HFM labels ignore case)
+    private final Map<String, List<String>> children = new HashMap<String, List<String>>();
+    private final Map<String, List<String>> parents = new HashMap<String, List<String>>();
+    private final Map<String, String> labels = new HashMap<String, String>();
+    private final Map<String, Integer> sizes = new HashMap<String, Integer>();
+
+    // ==================== Hierarchy ====================
+
+    /** Loads the Entity hierarchy from a metadata extract. */
+    static EntityPlanner load(File file) throws IOException {
+        EntityPlanner planner = new EntityPlanner();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            boolean sawSection = false;
+            boolean inEntity = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("'")) continue;
+                if (line.startsWith("!")) {
+                    String header = line.toUpperCase(Locale.ROOT).replace(" ", "");
+                    if (header.startsWith("!HIERARCHIES=")) {
+                        sawSection = true;
+                        inEntity = header.equals("!HIERARCHIES=ENTITY");
+                    } else {
+                        inEntity = false;
+                        sawSection = sawSection || header.startsWith("!MEMBERS=");
+                    }
+                    continue;
+                }
+                if (sawSection && !inEntity) continue;
+                String[] f = line.split(";", -1);
+                if (f.length < 2) continue;
+                planner.add(f[0].trim(), f[1].trim());
+            }
+        } finally {
+            reader.close();
+        }
+        if (planner.labels.isEmpty()) {
+            throw new IOException("No Entity hierarchy found in " + file);
+        }
+        return planner;
+    }
+
+    void add(String parent, String child) {
+        if (child.isEmpty()) return;
+        label(child);
+        if (parent.isEmpty()) return;
+        List<String> list = children.get(label(parent));
+        if (list == null) {
+            list = new ArrayList<String>();
+            children.put(key(parent), list);
+        }
+        if (!list.contains(key(child))) {
+            list.add(key(child));
+            List<String> up = parents.get(key(child));
+            if (up == null) parents.put(key(child), up = new ArrayList<String>());
+            up.add(key(parent));
+        }
+    }
+
+    private String label(String entity) {
+        String k = key(entity);
+        if (!labels.containsKey(k)) labels.put(k, entity);
+        return k;
+    }
+
+    private static String key(String entity) {
+        return entity.toUpperCase(Locale.ROOT);
+    }
+
+    boolean contains(String entity) {
+        return labels.containsKey(key(entity));
+    }
+
+    private List<String> childrenOf(String k) {
+        List<String> list = children.get(k);
+        return list != null ? list : new ArrayList<String>();
+    }
+
+    private boolean isParent(String k) {
+        return !childrenOf(k).isEmpty();
+    }
+
+    // All descendants of k that are parents themselves
+    private Set<String> parentDescendants(String k) {
+        Set<String> out = new LinkedHashSet<String>();
+        List<String> stack = new ArrayList<String>(childrenOf(k));
+        while (!stack.isEmpty()) {
+            String c = stack.remove(stack.size() - 1);
+            if (isParent(c) && out.add(c)) stack.addAll(childrenOf(c));
+        }
+        return out;
+    }
+
+    // All descendants of k, base entities included
+    private Set<String> descendants(String k) {
+        Set<String> out = new LinkedHashSet<String>();
+        List<String> stack = new ArrayList<String>(childrenOf(k));
+        while (!stack.isEmpty()) {
+            String c = stack.remove(stack.size() - 1);
+            if (out.add(c)) stack.addAll(childrenOf(c));
+        }
+        return out;
+    }
+
+    private List<String> parentsOf(String k) {
+        List<String> list = parents.get(k);
+        return list != null ? list : new ArrayList<String>();
+    }
+
+    // Number of entities in the subtree, used to pick which unit to split
+    private int size(String k) {
+        Integer cached = sizes.get(k);
+        if (cached != null) return cached;
+        Set<String> seen = new HashSet<String>();
+        List<String> stack = new ArrayList<String>(childrenOf(k));
+        while (!stack.isEmpty()) {
+            String c = stack.remove(stack.size() - 1);
+            if (seen.add(c)) stack.addAll(childrenOf(c));
+        }
+        sizes.put(k, seen.size() + 1);
+        return seen.size() + 1;
+    }
+
+    // ==================== Planning ====================
+
+    static final class Plan {
+        final List<List<String>> levels = new ArrayList<List<String>>();
+        final List<String> dropped = new ArrayList<String>();
+
+        int units() {
+            int n = 0;
+            for (List<String> level : levels) n += level.size();
+            return n;
+        }
+
+        /** JSON fragment for the result line. */
+        String toJson() {
+            StringBuilder sb = new StringBuilder("\"plan\":{\"units\":").append(units());
+            sb.append(",\"dropped\":");
+            appendArray(sb, dropped);
+            sb.append(",\"levels\":[");
+            for (int i = 0; i < levels.size(); i++) {
+                if (i > 0) sb.append(",");
+                appendArray(sb, levels.get(i));
+            }
+            return sb.append("]}").toString();
+        }
+
+        private static void appendArray(StringBuilder sb, List<String> values) {
+            sb.append("[");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) sb.append(",");
+                sb.append("\"");
+                JsonEventWriter.escape(values.get(i), sb);
+                sb.append("\"");
+            }
+            sb.append("]");
+        }
+    }
+
+    /** Plans the targets; width is the number of units wanted in the bottom level. */
+    Plan plan(List<String> targets, int width) {
+        Plan plan = new Plan();
+
+        // 1. Minimal target set
+        Set<String> wanted = new LinkedHashSet<String>();
+        for (String t : targets) {
+            if (!contains(t)) throw new IllegalArgumentException("Entity not in hierarchy: " + t);
+            wanted.add(key(t));
+        }
+        Map<String, Set<String>> covers = new HashMap<String, Set<String>>();
+        for (String t : wanted) covers.put(t, descendants(t));
+        List<String> roots = new ArrayList<String>();
+        for (String t : wanted) {
+            boolean covered = false;
+            for (String other : wanted) {
+                if (!other.equals(t) && covers.get(other).contains(t)) covered = true;
+            }
+            if (covered) plan.dropped.add(labels.get(t));
+            else roots.add(t);
+        }
+
+        // Units and the units that must finish before each one
+        Map<String, Set<String>> deps = new LinkedHashMap<String, Set<String>>();
+        for (String r : roots) deps.put(r, new LinkedHashSet<String>());
+
+        // 2. Subtrees shared by several roots are consolidated once, first; only the
+        //    topmost shared parent becomes a unit, the shared nodes below it are covered by it
+        Map<String, Integer> owners = new HashMap<String, Integer>();
+        for (String r : roots) {
+            for (String d : parentDescendants(r)) {
+                Integer n = owners.get(d);
+                owners.put(d, n == null ? 1 : n + 1);
+            }
+        }
+        for (Map.Entry<String, Integer> e : owners.entrySet()) {
+            if (e.getValue() < 2) continue;
+            boolean topmost = false;
+            for (String p : parentsOf(e.getKey())) {
+                // Reached through a parent in the roots' subtrees that is not shared itself
+                boolean inScope = roots.contains(p) || owners.containsKey(p);
+                Integer n = owners.get(p);
+                if (inScope && (n == null || n < 2)) topmost = true;
+            }
+            if (topmost) deps.put(e.getKey(), new LinkedHashSet<String>());
+        }
+
+        // 3. Split the largest unit until the bottom level is wide enough
+        while (true) {
+            linkDependencies(deps);
+            List<String> bottom = new ArrayList<String>();
+            for (Map.Entry<String, Set<String>> e : deps.entrySet()) {
+                if (e.getValue().isEmpty()) bottom.add(e.getKey());
+            }
+            if (bottom.size() >= width) break;
+            String largest = null;
+            for (String u : deps.keySet()) {
+                boolean splittable = false;
+                for (String c : childrenOf(u)) {
+                    if (isParent(c) && !deps.containsKey(c)) splittable = true;
+                }
+                if (splittable && (largest == null || size(u) > size(largest))) largest = u;
+            }
+            if (largest == null) break;
+            for (String c : childrenOf(largest)) {
+                if (isParent(c) && !deps.containsKey(c)) deps.put(c, new LinkedHashSet<String>());
+            }
+        }
+
+        // 4. Close the levels above the bottom: their units only get an Impacted consolidation
+        boolean added = true;
+        while (added) {
+            added = false;
+            linkDependencies(deps);
+            for (String u : new ArrayList<String>(deps.keySet())) {
+                if (deps.get(u).isEmpty()) continue;
+                for (String c : childrenOf(u)) {
+                    if (isParent(c) && !deps.containsKey(c)) {
+                        deps.put(c, new LinkedHashSet<String>());
+                        added = true;
+                    }
+                }
+            }
+        }
+
+        // Levels: a unit runs one level above the highest unit it depends on
+        Map<String, Integer> level = new HashMap<String, Integer>();
+        for (String u : deps.keySet()) levelOf(u, deps, level);
+        for (String u : deps.keySet()) {
+            int l = level.get(u);
+            while (plan.levels.size() <= l) plan.levels.add(new ArrayList<String>());
+            plan.levels.get(l).add(labels.get(u));
+        }
+        return plan;
+    }
+
+    // A unit depends on the nearest units inside its subtree
+    private void linkDependencies(Map<String, Set<String>> deps) {
+        for (Map.Entry<String, Set<String>> e : deps.entrySet()) {
+            e.getValue().clear();
+            List<String> stack = new ArrayList<String>(childrenOf(e.getKey()));
+            Set<String> seen = new HashSet<String>();
+            while (!stack.isEmpty()) {
+                String c = stack.remove(stack.size() - 1);
+                if (!seen.add(c)) continue;
+                if (deps.containsKey(c)) e.getValue().add(c);
+                else stack.addAll(childrenOf(c));
+            }
+        }
+    }
+
+    private int levelOf(String u, Map<String, Set<String>> deps, Map<String, Integer> level) {
+        Integer known = level.get(u);
+        if (known != null) return known;
+        int l = 0;
+        for (String d : deps.get(u)) l = Math.max(l, levelOf(d, deps, level) + 1);
+        level.put(u, l);
+        return l;
+    }
+}
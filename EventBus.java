@@ -0,0 +1,435 @@
+/*
+ * EventBus.java - Asynchronous fan-out of result and progress events to sinks
+ *
+ * Operation threads publish rendered events; every sink has its own bounded
+ * ring buffer (ArrayBlockingQueue) and its own daemon writer thread, so a
+ * slow sink (a FIFO nobody reads, a file on a busy disk) only ever delays
+ * itself. Publishing never blocks: when a sink's buffer is full a progress
+ * event is dropped for that sink and counted, while a result event for a
+ * durable sink goes to that sink's overflow list, which its writer drains
+ * once the buffer is empty. Results are never dropped, since Control-M reads
+ * the result line; while a sink has overflow, progress events for it are
+ * dropped so the sink still sees events in seq order.
+ *
+ * The bus numbers events: publish() appends the "seq" field and hands the
+ * event to every sink under one lock, so each sink sees seq in order.
+ *
+ * Each writer thread drains its buffer in batches and flushes once per
+ * batch, which also means concurrent operations no longer contend on
+ * PrintStream.println and their lines are never interleaved.
+ *
+ * flush() waits until the durable sinks have handled everything published so
+ * far; HfmCli calls it before returning so the result line is out before the
+ * JVM exits. Best-effort sinks (the FIFO) never hold up a publisher or exit.
+ */
+
+package project1;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class EventBus {
+
+    static final int DEFAULT_CAPACITY = 1024;
+    private static final int BATCH = 256;
+
+    // ==================== Events and Sinks ====================
+
+    static final class Event {
+        final boolean result;
+        final String body;          // rendered JSON object without its closing brace
+        String line;                // body with "seq" and the brace; set by publish()
+        final String operation;
+        final String status;
+        final long elapsedMs;
+        final PhaseTimer phases;
+        final boolean aggregated;   // a fan-out target's result; stdout shows it inside the aggregate
+
+        private Event(boolean result, String body, String operation, String status,
+                long elapsedMs, PhaseTimer phases, boolean aggregated) {
+            this.result = result;
+            this.body = body;
+            this.operation = operation;
+            this.status = status;
+            this.elapsedMs = elapsedMs;
+            this.phases = phases;
+            this.aggregated = aggregated;
+        }
+
+        static Event result(String body, String operation, String status, long elapsedMs, PhaseTimer phases) {
+            return result(body, operation, status, elapsedMs, phases, false);
+        }
+
+        static Event result(String body, String operation, String status, long elapsedMs, PhaseTimer phases,
+                boolean aggregated) {
+            return new Event(true, body, operation, status, elapsedMs, phases, aggregated);
+        }
+
+        static Event progress(String body) {
+            return new Event(false, body, null, null, 0, null, false);
+        }
+    }
+
+    /** A destination for events. Called from that sink's writer thread only. */
+    interface Sink {
+        void write(Event e) throws IOException;
+
+        /** Called after each drained batch. */
+        void flush() throws IOException;
+
+        void close();
+    }
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private long sequence;                // guarded by publishLock
+    private final int capacity;
+    private final HfmMetrics metrics;
+
+    EventBus(int capacity, HfmMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers a sink under a name; a second sink with the same name is
+     * ignored. A durable sink never loses a result (one that finds its
+     * buffer full goes to the overflow list) and flush() waits for it to
+     * drain; a best-effort sink (durable=false) drops what does not fit and
+     * never delays the exit.
+     */
+    boolean addSink(String name, Sink sink, boolean durable) {
+        Channel c = new Channel(name, sink, capacity, durable);
+        if (channels.putIfAbsent(name, c) != null) {
+            sink.close();
+            return false;
+        }
+        c.start();
+        return true;
+    }
+
+    boolean hasSink(String name) {
+        return channels.containsKey(name);
+    }
+
+    // ==================== Publishing ====================
+
+    /** Numbers the event, queues it to every sink and returns the line as written. */
+    String publish(Event e) {
+        publishLock.lock();
+        try {
+            e.line = e.body + ",\"seq\":" + (++sequence) + "}";
+            for (Channel c : channels.values()) {
+                if (!c.offer(e, e.result && c.durable) && metrics != null) {
+                    metrics.counter("hfmcli_events_dropped_total", "Events dropped because a sink's buffer was full.",
+                            "sink", c.name).increment();
+                }
+            }
+            return e.line;
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /** Waits up to timeoutMs until every durable sink has handled everything published so far. */
+    void flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Channel c : channels.values()) {
+            if (c.durable && !c.awaitHandled(deadline)) {
+                System.err.println("WARN: event sink " + c.name + " did not drain in time");
+            }
+        }
+    }
+
+    // One sink, its ring buffer and its writer thread
+    private static final class Channel implements Runnable {
+        final String name;
+        final Sink sink;
+        final ArrayBlockingQueue<Event> queue;
+        final boolean durable;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progressed = lock.newCondition();
+        private List<Event> overflow = new ArrayList<Event>();  // guarded by lock
+        private long published;     // guarded by lock
+        private long handled;       // guarded by lock
+        private boolean warned;
+
+        Channel(String name, Sink sink, int capacity, boolean durable) {
+            this.name = name;
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<Event>(capacity);
+            this.durable = durable;
+        }
+
+        void start() {
+            Thread t = new Thread(this, "hfmcli-events-" + name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /**
+         * Queues the event without blocking. Once the buffer has overflowed,
+         * later events go behind the overflow (results) or are dropped
+         * (progress) until the writer has caught up, keeping seq order.
+         * Returns false if the event was dropped.
+         */
+        boolean offer(Event e, boolean keep) {
+            lock.lock();
+            try {
+                if (overflow.isEmpty() && queue.offer(e)) {
+                    published++;
+                    return true;
+                }
+                if (!keep) return false;
+                overflow.add(e);
+                published++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Called by the writer once the buffer is empty
+        private List<Event> takeOverflow() {
+            lock.lock();
+            try {
+                if (overflow.isEmpty()) return overflow;
+                List<Event> spilled = overflow;
+                overflow = new ArrayList<Event>();
+                return spilled;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Publishers may be virtual threads: wait on a Condition, not a monitor (see HfmThreads)
+        boolean awaitHandled(long deadline) {
+            lock.lock();
+            try {
+                long target = published;
+                while (handled < target) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) return false;
+                    try {
+                        progressed.await(left, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void run() {
+            List<Event> batch = new ArrayList<Event>(BATCH);
+            while (true) {
+                // Overflow only starts while the buffer is full, so an empty
+                // buffer with no overflow is safe to block on
+                if (queue.drainTo(batch, BATCH) == 0) {
+                    batch.addAll(takeOverflow());
+                    if (batch.isEmpty()) {
+                        try {
+                            batch.add(queue.take());
+                        } catch (InterruptedException e) {
+                            sink.close();
+                            return;
+                        }
+                        queue.drainTo(batch, BATCH - 1);
+                    }
+                }
+                try {
+                    for (Event e : batch) {
+                        sink.write(e);
+                    }
+                    sink.flush();
+                } catch (IOException e) {
+                    if (!warned) {
+                        System.err.println("WARN: event sink " + name + ": " + e.getMessage());
+                        warned = true;
+                    }
+                } catch (RuntimeException e) {
+                    if (!warned) {
+                        System.err.println("WARN: event sink " + name + ": " + e);
+                        warned = true;
+                    }
+                }
+                lock.lock();
+                try {
+                    handled += batch.size();
+                    progressed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    // ==================== Standard Sinks ====================
+
+    /** Writes event lines to a PrintStream (stdout in the existing format). */
+    static class StreamSink implements Sink {
+        private final PrintStream stream;
+
+        StreamSink(PrintStream stream) {
+            this.stream = stream;
+        }
+
+        // Overridden by HfmCli so redirecting HfmCli.out also redirects this sink
+        PrintStream stream() {
+            return stream;
+        }
+
+        public void write(Event e) {
+            stream().println(e.line);
+        }
+
+        public void flush() {
+            stream().flush();
+        }
+
+        public void close() {
+            flush();
+        }
+    }
+
+    /** Feeds result events into the metrics registry. */
+    static class MetricsSink implements Sink {
+        private final HfmMetrics metrics;
+
+        MetricsSink(HfmMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public void write(Event e) {
+            if (e.result) {
+                metrics.recordOperation(e.operation, e.status, e.elapsedMs, e.phases);
+            }
+        }
+
+        public void flush() { }
+
+        public void close() { }
+    }
+
+    /**
+     * Appends event lines to an NDJSON file, rotating it to file.1 .. file.N
+     * once it passes maxBytes.
+     */
+    static class RotatingFileSink implements Sink {
+        private final File file;
+        private final long maxBytes;
+        private final int keep;
+        private Writer writer;
+        private long size;
+
+        RotatingFileSink(File file, long maxBytes, int keep) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.keep = keep;
+        }
+
+        public void write(Event e) throws IOException {
+            if (writer == null) {
+                size = file.length();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            }
+            writer.write(e.line);
+            writer.write('\n');
+            size += e.line.length() + 1;
+            if (size >= maxBytes) {
+                rotate();
+            }
+        }
+
+        private void rotate() throws IOException {
+            writer.close();
+            writer = null;
+            new File(file.getPath() + "." + keep).delete();
+            for (int i = keep - 1; i >= 1; i--) {
+                File from = new File(file.getPath() + "." + i);
+                if (from.exists()) from.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+            if (keep > 0) {
+                file.renameTo(new File(file.getPath() + ".1"));
+            } else {
+                file.delete();
+            }
+        }
+
+        public void flush() throws IOException {
+            if (writer != null) writer.flush();
+        }
+
+        public void close() {
+            try {
+                if (writer != null) writer.close();
+            } catch (IOException e) {
+                // Ignore cleanup errors
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Writes event lines to a named pipe (mkfifo) for live dashboards. The
+     * pipe is opened on first use, which blocks this sink's writer thread
+     * until a reader attaches; when the reader goes away the pipe is reopened
+     * on the next event. Events arriving meanwhile overflow and are dropped.
+     */
+    static class FifoSink implements Sink {
+        private final File fifo;
+        private Writer writer;
+
+        FifoSink(File fifo) {
+            this.fifo = fifo;
+        }
+
+        public void write(Event e) throws IOException {
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fifo), "UTF-8"));
+            }
+            try {
+                writer.write(e.line);
+                writer.write('\n');
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        public void flush() throws IOException {
+            if (writer == null) return;
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        public void close() {
+            try {
+                if (writer != null) writer.close();
+            } catch (IOException e) {
+                // Reader already gone
+            }
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * ExtractDiff.java - Compares two ExtractData flatfiles of any size
+ *
+ * Used by the DiffExtracts operation to compare the extracts taken before
+ * and after a re-consolidation. Neither file is loaded into memory:
+ *
+ *   1. sort   each file is read once and cut into chunks of at most
+ *             memoryBytes / (threads + 2); chunks are sorted by cell key
+ *             (every field but the amount) on a pool of one thread per
+ *             core and written to run files in a temp directory. Both
+ *             files are split at the same time.
+ *   2. merge  runs are merged 64 at a time (in parallel) until at most 64
+ *             remain per file, then read as one sorted stream; a cell that
+ *             appears twice in a file is summed, as HFM would on load.
+ *   3. join   the two sorted streams are merge-joined in a single pass;
+ *             only added, removed and changed cells (|after - before| >
+ *             tolerance) are written to the diff file, one TSV line each:
+ *                 status  key  before  after  delta
+ *
+ * Amounts are compared as BigDecimal, so 100 and 100.00 are equal and sums
+ * do not pick up binary rounding. Memory is bounded by memoryBytes plus one
+ * read buffer per open run and the per-entity and per-account totals.
+ *
+ * The entity and account columns are found from !COLUMN_ORDER, or at the
+ * positions of HFM's default order (Scenario;Year;Period;View;Entity;
+ * Value;Account;...) when the file has no header. Both files must use the
+ * same column order.
+ */
+
+package project1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+class ExtractDiff {
+
+    static final int MERGE_FAN_IN = 64;
+    private static final int IO_BUFFER = 64 * 1024;
+    private static final int RECORD_OVERHEAD = 96;     // object headers and references per cell, roughly
+    static final String[] DEFAULT_COLUMNS = {
+        "Scenario", "Year", "Period", "View", "Entity", "Value", "Account", "ICP",
+        "Custom1", "Custom2", "Custom3", "Custom4"
+    };
+
+    private final char delimiter;
+    private final BigDecimal tolerance;
+    private final long memoryBytes;
+    private final int threads;
+    private final File tempDir;
+
+    ExtractDiff(char delimiter, BigDecimal tolerance, long memoryBytes, int threads, File tempDir) {
+        this.delimiter = delimiter;
+        this.tolerance = tolerance;
+        this.memoryBytes = memoryBytes;
+        this.threads = Math.max(1, threads);
+        this.tempDir = tempDir;
+    }
+
+    // ==================== Result ====================
+
+    /** Added/removed/changed counts and net change for one entity or account. */
+    static final class Group {
+        long added;
+        long removed;
+        long changed;
+        BigDecimal delta = BigDecimal.ZERO;
+    }
+
+    /** Outcome of one comparison. */
+    static final class Summary {
+        long beforeRows;
+        long afterRows;
+        long added;
+        long removed;
+        long changed;
+        long unchanged;
+        int runs;
+        File diffFile;
+        final Map<String, Group> byEntity = new HashMap<String, Group>();
+        final Map<String, Group> byAccount = new HashMap<String, Group>();
+
+        long differences() {
+            return added + removed + changed;
+        }
+
+        /** JSON fragment; per-entity and per-account totals are limited to the top groups by |delta|. */
+        String toJson(int top) {
+            StringBuilder sb = new StringBuilder("\"diff\":{");
+            sb.append("\"before_rows\":").append(beforeRows).append(",\"after_rows\":").append(afterRows);
+            sb.append(",\"added\":").append(added).append(",\"removed\":").append(removed);
+            sb.append(",\"changed\":").append(changed).append(",\"unchanged\":").append(unchanged);
+            sb.append(",\"runs\":").append(runs).append(",\"diff_file\":\"");
+            JsonEventWriter.escape(diffFile.getPath(), sb);
+            sb.append("\"");
+            appendGroups(sb, "by_entity", byEntity, top);
+            appendGroups(sb, "by_account", byAccount, top);
+            return sb.append("}").toString();
+        }
+
+        private static void appendGroups(StringBuilder sb, String name, Map<String, Group> groups, int top) {
+            List<Map.Entry<String, Group>> entries = new ArrayList<Map.Entry<String, Group>>(groups.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Group>>() {
+                @Override public int compare(Map.Entry<String, Group> a, Map.Entry<String, Group> b) {
+                    int c = b.getValue().delta.abs().compareTo(a.getValue().delta.abs());
+                    return c != 0 ? c : a.getKey().compareTo(b.getKey());
+                }
+            });
+            sb.append(",\"").append(name).append("\":{");
+            for (int i = 0; i < entries.size() && i < top; i++) {
+                Group g = entries.get(i).getValue();
+                if (i > 0) sb.append(",");
+                sb.append("\"");
+                JsonEventWriter.escape(entries.get(i).getKey(), sb);
+                sb.append("\":{\"added\":").append(g.added).append(",\"removed\":").append(g.removed)
+                        .append(",\"changed\":").append(g.changed)
+                        .append(",\"delta\":\"").append(g.delta.toPlainString()).append("\"}");
+            }
+            sb.append("}");
+            if (entries.size() > top) {
+                sb.append(",\"").append(name).append("_omitted\":").append(entries.size() - top);
+            }
+        }
+    }
+
+    // ==================== Diff ====================
+
+    /** Compares before with after and writes the differences to diffFile. */
+    Summary diff(File before, File after, File diffFile, PhaseTimer timer) throws IOException, InterruptedException {
+        for (File f : new File[] {before, after}) {
+            if (!f.isFile()) throw new IOException("extract file not found: " + f);
+        }
+        File work = Files.createTempDirectory(tempDir.toPath(), "hfmdiff").toFile();
+        ExecutorService pool = newPool();
+        try {
+            // At most threads chunks queued or sorting, plus the one each reader is filling
+            Semaphore chunks = new Semaphore(threads);
+            long chunkBytes = Math.max(1024 * 1024, memoryBytes / (threads + 2));
+
+            timer.start("sort");
+            Splitter a = new Splitter(before, new File(work, "before"), chunkBytes, chunks, pool);
+            Splitter b = new Splitter(after, new File(work, "after"), chunkBytes, chunks, pool);
+            FutureTask<Void> first = new FutureTask<Void>(a);
+            HfmThreads.start("hfm-diff-split", first);
+            try {
+                b.call();
+            } catch (IOException | RuntimeException | InterruptedException e) {
+                first.cancel(true);
+                throw e;
+            }
+            get(first);
+            if (a.columns != null && b.columns != null && !a.columns.equals(b.columns)) {
+                throw new IOException("the files have different column orders: " + a.columns + " / " + b.columns);
+            }
+
+            timer.start("merge");
+            List<File> runsA = reduce(a.runs, a.dir, pool);
+            List<File> runsB = reduce(b.runs, b.dir, pool);
+
+            timer.start("join");
+            List<String> columns = a.columns != null ? a.columns : b.columns;
+            Summary summary = new Summary();
+            summary.beforeRows = a.rows;
+            summary.afterRows = b.rows;
+            summary.runs = a.runs.size() + b.runs.size();
+            summary.diffFile = diffFile;
+            join(new MergedStream(runsA), new MergedStream(runsB), columns, diffFile, summary);
+            timer.stop();
+            return summary;
+        } finally {
+            pool.shutdownNow();
+            deleteTree(work);
+        }
+    }
+
+    /** Receives the cells of one extract in key order. */
+    interface CellSink {
+        void cell(String key, String amount) throws IOException;
+    }
+
+    /**
+     * Sorts one extract the same way, within the same memory, and hands its
+     * cells to sink in key order (String order of the key; a cell that
+     * appears twice is summed). Returns the !COLUMN_ORDER names, or null.
+     */
+    List<String> sorted(File file, CellSink sink, PhaseTimer timer) throws IOException, InterruptedException {
+        if (!file.isFile()) throw new IOException("extract file not found: " + file);
+        File work = Files.createTempDirectory(tempDir.toPath(), "hfmsort").toFile();
+        ExecutorService pool = newPool();
+        try {
+            long chunkBytes = Math.max(1024 * 1024, memoryBytes / (threads + 1));
+            timer.start("sort");
+            Splitter splitter = new Splitter(file, new File(work, "runs"), chunkBytes, new Semaphore(threads), pool);
+            splitter.call();
+            timer.start("merge");
+            MergedStream in = new MergedStream(reduce(splitter.runs, splitter.dir, pool));
+            try {
+                while (in.next()) sink.cell(in.key, in.amount);
+            } finally {
+                in.close();
+            }
+            timer.stop();
+            return splitter.columns;
+        } finally {
+            pool.shutdownNow();
+            deleteTree(work);
+        }
+    }
+
+    private ExecutorService newPool() {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int n;
+            @Override public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hfm-diff-sort-" + (++n));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // ==================== Sort: split into sorted runs ====================
+
+    /** One cell: key is every field but the amount, joined with the delimiter. */
+    private static final class Cell {
+        final String key;
+        final String amount;
+
+        Cell(String key, String amount) {
+            this.key = key;
+            this.amount = amount;
+        }
+    }
+
+    private static final Comparator<Cell> BY_KEY = new Comparator<Cell>() {
+        @Override public int compare(Cell a, Cell b) {
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    // Reads one file into sorted runs; chunks are sorted and written on the pool
+    private final class Splitter implements Callable<Void> {
+        final File file;
+        final File dir;
+        final long chunkBytes;
+        final Semaphore chunks;
+        final ExecutorService pool;
+        final List<File> runs = new ArrayList<File>();
+        final List<Future<File>> pending = new ArrayList<Future<File>>();
+        List<String> columns;
+        long rows;
+
+        Splitter(File file, File dir, long chunkBytes, Semaphore chunks, ExecutorService pool) {
+            this.file = file;
+            this.dir = dir;
+            this.chunkBytes = chunkBytes;
+            this.chunks = chunks;
+            this.pool = pool;
+        }
+
+        @Override public Void call() throws IOException, InterruptedException {
+            if (!file.isFile()) throw new IOException("extract file not found: " + file);
+            dir.mkdirs();
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), IO_BUFFER);
+            try {
+                List<Cell> chunk = new ArrayList<Cell>();
+                long bytes = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty() || line.charAt(0) == '\'') continue;
+                    if (line.charAt(0) == '!') {
+                        header(line);
+                        continue;
+                    }
+                    int cut = line.lastIndexOf(delimiter);
+                    if (cut < 0) continue;
+                    chunk.add(new Cell(line.substring(0, cut).trim(), line.substring(cut + 1).trim()));
+                    rows++;
+                    bytes += 2L * line.length() + RECORD_OVERHEAD;
+                    if (bytes >= chunkBytes) {
+                        submit(chunk);
+                        chunk = new ArrayList<Cell>();
+                        bytes = 0;
+                    }
+                }
+                if (!chunk.isEmpty() || pending.isEmpty()) submit(chunk);
+            } finally {
+                in.close();
+            }
+            for (Future<File> f : pending) runs.add(get(f));
+            return null;
+        }
+
+        private void header(String line) {
+            String h = line.substring(1).trim();
+            if (!h.toUpperCase().startsWith("COLUMN_ORDER")) return;
+            columns = new ArrayList<String>();
+            for (String c : h.substring(h.indexOf('=') + 1).split("[,;\\t]")) {
+                if (!c.trim().isEmpty()) columns.add(c.trim());
+            }
+        }
+
+        private void submit(final List<Cell> chunk) throws InterruptedException {
+            chunks.acquire();
+            final File run = new File(dir, "run" + pending.size());
+            pending.add(pool.submit(new Callable<File>() {
+                @Override public File call() throws IOException {
+                    try {
+                        Collections.sort(chunk, BY_KEY);
+                        Writer out = writer(run);
+                        try {
+                            for (Cell c : chunk) {
+                                out.write(c.key);
+                                out.write('\t');
+                                out.write(c.amount);
+                                out.write('\n');
+                            }
+                        } finally {
+                            out.close();
+                        }
+                        return run;
+                    } finally {
+                        chunks.release();
+                    }
+                }
+            }));
+        }
+    }
+
+    // ==================== Merge ====================
+
+    // Merges groups of MERGE_FAN_IN runs in parallel until one stream can read them all
+    private List<File> reduce(List<File> runs, File dir, ExecutorService pool) throws IOException, InterruptedException {
+        int pass = 0;
+        while (runs.size() > MERGE_FAN_IN) {
+            pass++;
+            List<Future<File>> merged = new ArrayList<Future<File>>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                final List<File> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN));
+                final File out = new File(dir, "pass" + pass + "-" + merged.size());
+                merged.add(pool.submit(new Callable<File>() {
+                    @Override public File call() throws IOException {
+                        MergedStream in = new MergedStream(group);
+                        Writer w = writer(out);
+                        try {
+                            while (in.next()) {
+                                w.write(in.key);
+                                w.write('\t');
+                                w.write(in.amount);
+                                w.write('\n');
+                            }
+                        } finally {
+                            w.close();
+                            in.close();
+                        }
+                        for (File f : group) f.delete();
+                        return out;
+                    }
+                }));
+            }
+            List<File> next = new ArrayList<File>();
+            for (Future<File> f : merged) next.add(get(f));
+            runs = next;
+        }
+        return runs;
+    }
+
+    // One open run file, positioned on its current cell
+    private static final class RunReader {
+        final BufferedReader in;
+        String key;
+        String amount;
+
+        RunReader(File file) throws IOException {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), IO_BUFFER);
+        }
+
+        boolean advance() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                in.close();
+                return false;
+            }
+            int tab = line.lastIndexOf('\t');
+            key = line.substring(0, tab);
+            amount = line.substring(tab + 1);
+            return true;
+        }
+    }
+
+    // Sorted runs read as one sorted stream; equal keys are summed into one cell
+    private static final class MergedStream {
+        private final PriorityQueue<RunReader> heap;
+        private final List<RunReader> open = new ArrayList<RunReader>();
+        String key;
+        String amount;
+
+        MergedStream(List<File> runs) throws IOException {
+            heap = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+                @Override public int compare(RunReader a, RunReader b) {
+                    return a.key.compareTo(b.key);
+                }
+            });
+            for (File run : runs) {
+                RunReader r = new RunReader(run);
+                open.add(r);
+                if (r.advance()) heap.add(r);
+            }
+        }
+
+        boolean next() throws IOException {
+            RunReader r = heap.poll();
+            if (r == null) return false;
+            key = r.key;
+            amount = r.amount;
+            if (r.advance()) heap.add(r);
+            while (!heap.isEmpty() && heap.peek().key.equals(key)) {
+                RunReader same = heap.poll();
+                amount = sum(amount, same.amount);
+                if (same.advance()) heap.add(same);
+            }
+            return true;
+        }
+
+        void close() {
+            for (RunReader r : open) {
+                try {
+                    r.in.close();
+                } catch (IOException e) {
+                    // Already closed or gone with the temp directory
+                }
+            }
+        }
+    }
+
+    // ==================== Join ====================
+
+    private void join(MergedStream a, MergedStream b, List<String> columns, File diffFile, Summary s) throws IOException {
+        List<String> names = columns != null ? columns : Arrays.asList(DEFAULT_COLUMNS);
+        int entity = indexOf(names, "Entity");
+        int account = indexOf(names, "Account");
+        Writer out = writer(diffFile);
+        try {
+            out.write("status\tkey\tbefore\tafter\tdelta\n");
+            boolean hasA = a.next();
+            boolean hasB = b.next();
+            while (hasA || hasB) {
+                int c = !hasA ? 1 : !hasB ? -1 : a.key.compareTo(b.key);
+                if (c < 0) {
+                    BigDecimal before = number(a.amount);
+                    if (before == null || before.abs().compareTo(tolerance) > 0) {
+                        s.removed++;
+                        write(out, "removed", a.key, a.amount, "", negate(before), entity, account, s);
+                    } else {
+                        s.unchanged++;
+                    }
+                    hasA = a.next();
+                } else if (c > 0) {
+                    BigDecimal after = number(b.amount);
+                    if (after == null || after.abs().compareTo(tolerance) > 0) {
+                        s.added++;
+                        write(out, "added", b.key, "", b.amount, after, entity, account, s);
+                    } else {
+                        s.unchanged++;
+                    }
+                    hasB = b.next();
+                } else {
+                    BigDecimal before = number(a.amount);
+                    BigDecimal after = number(b.amount);
+                    boolean differs;
+                    BigDecimal delta = null;
+                    if (before != null && after != null) {
+                        delta = after.subtract(before);
+                        differs = delta.abs().compareTo(tolerance) > 0;
+                    } else {
+                        differs = !a.amount.equals(b.amount);
+                    }
+                    if (differs) {
+                        s.changed++;
+                        write(out, "changed", a.key, a.amount, b.amount, delta, entity, account, s);
+                    } else {
+                        s.unchanged++;
+                    }
+                    hasA = a.next();
+                    hasB = b.next();
+                }
+            }
+        } finally {
+            out.close();
+            a.close();
+            b.close();
+        }
+    }
+
+    private void write(Writer out, String status, String key, String before, String after, BigDecimal delta,
+            int entity, int account, Summary s) throws IOException {
+        out.write(status);
+        out.write('\t');
+        out.write(key);
+        out.write('\t');
+        out.write(before);
+        out.write('\t');
+        out.write(after);
+        out.write('\t');
+        out.write(delta != null ? delta.toPlainString() : "");
+        out.write('\n');
+        if (entity < 0 && account < 0) return;
+        String[] fields = split(key);
+        if (entity >= 0 && entity < fields.length) count(s.byEntity, fields[entity], status, delta);
+        if (account >= 0 && account < fields.length) count(s.byAccount, fields[account], status, delta);
+    }
+
+    private static void count(Map<String, Group> groups, String member, String status, BigDecimal delta) {
+        Group g = groups.get(member);
+        if (g == null) groups.put(member, g = new Group());
+        if (status.equals("added")) g.added++;
+        else if (status.equals("removed")) g.removed++;
+        else g.changed++;
+        if (delta != null) g.delta = g.delta.add(delta);
+    }
+
+    // ==================== Helpers ====================
+
+    private String[] split(String key) {
+        List<String> fields = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= key.length(); i++) {
+            if (i == key.length() || key.charAt(i) == delimiter) {
+                fields.add(key.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private static int indexOf(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    private static BigDecimal number(String amount) {
+        try {
+            return new BigDecimal(amount);
+        } catch (NumberFormatException e) {
+            return null;       // NoData, text cells
+        }
+    }
+
+    private static BigDecimal negate(BigDecimal value) {
+        return value != null ? value.negate() : null;
+    }
+
+    private static String sum(String a, String b) {
+        BigDecimal x = number(a);
+        BigDecimal y = number(b);
+        return x != null && y != null ? x.add(y).toPlainString() : b;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static Writer writer(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), IO_BUFFER);
+    }
+
+    private static void deleteTree(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) deleteTree(child);
+        }
+        dir.delete();
+    }
+}
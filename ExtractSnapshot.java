@@ -0,0 +1,504 @@
+/*
+ * ExtractSnapshot.java - Binary snapshot of a data extract, for local lookups
+ *
+ * A flatfile data extract is text that every consumer parses again. With
+ * ExtractData --snapshot <file> (or on the first Lookup of an extract) it
+ * is converted once into a compact, memory-mapped snapshot:
+ *
+ *   header      "HFMSNAP1", version, delimiter, column count, row count
+ *   dictionary  per column: name and its distinct members (writeUTF)
+ *   rows        per cell one code per column, 1, 2 or 4 bytes wide
+ *               depending on the column's member count
+ *   amounts     per cell one double (NaN for non-numeric cells)
+ *
+ * Cells are stored in the key order of ExtractDiff's external sort
+ * (the cell key string, members joined with the delimiter), so building a
+ * snapshot needs no more memory than DiffExtracts, and the rows are their
+ * own sorted index: a POV that fixes the leading columns (Scenario, Year,
+ * Period, ...) is found by binary search, anything else by a scan of the
+ * code columns. Dictionaries are loaded when the snapshot is opened; rows
+ * and amounts are read straight from the mapping.
+ */
+
+package project1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class ExtractSnapshot {
+
+    private static final byte[] MAGIC = {'H', 'F', 'M', 'S', 'N', 'A', 'P', '1'};
+    private static final int VERSION = 1;
+    private static final Pattern CUSTOM = Pattern.compile("(?i)custom(\\d+)");
+
+    private final File file;
+    private final char delimiter;
+    private final String[] columns;
+    private final String[][] members;                      // per column, code -> member
+    private final List<Map<String, Integer>> codes;        // per column, lower-case member -> code
+    private final int[] widths;
+    private final int stride;
+    private final long rows;
+    private final ByteBuffer rowData;
+    private final ByteBuffer amountData;
+
+    private ExtractSnapshot(File file, char delimiter, String[] columns, String[][] members, long rows,
+            ByteBuffer rowData, ByteBuffer amountData) {
+        this.file = file;
+        this.delimiter = delimiter;
+        this.columns = columns;
+        this.members = members;
+        this.rows = rows;
+        this.rowData = rowData;
+        this.amountData = amountData;
+        this.widths = new int[columns.length];
+        this.codes = new ArrayList<Map<String, Integer>>();
+        int s = 0;
+        for (int c = 0; c < columns.length; c++) {
+            widths[c] = width(members[c].length);
+            s += widths[c];
+            Map<String, Integer> byName = new HashMap<String, Integer>();
+            for (int i = 0; i < members[c].length; i++) {
+                byName.put(members[c][i].trim().toLowerCase(Locale.ROOT), i);
+            }
+            codes.add(byName);
+        }
+        this.stride = s;
+    }
+
+    private static int width(int dictionarySize) {
+        return dictionarySize <= 0x100 ? 1 : dictionarySize <= 0x10000 ? 2 : 4;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    // ==================== Writing ====================
+
+    /** Statistics of one conversion. */
+    static final class Built {
+        long rows;
+        long extractBytes;
+        long snapshotBytes;
+        int columns;
+
+        String toJson() {
+            return "\"snapshot\":{\"rows\":" + rows + ",\"columns\":" + columns + ",\"extract_bytes\":" + extractBytes
+                    + ",\"snapshot_bytes\":" + snapshotBytes + "}";
+        }
+    }
+
+    /**
+     * Converts a flatfile extract into a snapshot, sorting it with diff's
+     * external sort. The snapshot is written next to its target and renamed
+     * into place.
+     */
+    static Built build(File extract, File snapshot, ExtractDiff sorter, final char delimiter, PhaseTimer timer)
+            throws IOException, InterruptedException {
+        File dir = snapshot.getAbsoluteFile().getParentFile();
+        if (dir != null) dir.mkdirs();
+        final List<LinkedHashMap<String, Integer>> dictionaries = new ArrayList<LinkedHashMap<String, Integer>>();
+        final long[] count = new long[1];
+        File cells = File.createTempFile("hfmsnap", ".cells", dir);
+        List<String> names;
+        try {
+            // Pass 1: codes in first-seen order, 4 bytes each, to a temp file
+            final DataOutputStream tmp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cells), 65536));
+            try {
+                names = sorter.sorted(extract, new ExtractDiff.CellSink() {
+                    @Override public void cell(String key, String amount) throws IOException {
+                        String[] fields = split(key, delimiter);
+                        if (dictionaries.isEmpty()) {
+                            for (int c = 0; c < fields.length; c++) dictionaries.add(new LinkedHashMap<String, Integer>());
+                        }
+                        if (fields.length != dictionaries.size()) {
+                            throw new IOException("row has " + fields.length + " members, expected "
+                                    + dictionaries.size() + ": " + key);
+                        }
+                        for (int c = 0; c < fields.length; c++) {
+                            Map<String, Integer> dict = dictionaries.get(c);
+                            Integer code = dict.get(fields[c]);
+                            if (code == null) dict.put(fields[c], code = dict.size());
+                            tmp.writeInt(code);
+                        }
+                        tmp.writeDouble(number(amount));
+                        count[0]++;
+                    }
+                }, timer);
+            } finally {
+                tmp.close();
+            }
+
+            // Pass 2: header, dictionaries, narrowed codes, amounts
+            timer.start("snapshot");
+            int n = dictionaries.size();
+            String[] columnNames = columnNames(names, n);
+            int[] w = new int[n];
+            for (int c = 0; c < n; c++) w[c] = width(dictionaries.get(c).size());
+            File part = new File(dir, snapshot.getName() + ".part");
+            DataOutputStream head = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(part), 65536));
+            try {
+                head.write(MAGIC);
+                head.writeInt(VERSION);
+                head.writeChar(delimiter);
+                head.writeInt(n);
+                head.writeLong(count[0]);
+                for (int c = 0; c < n; c++) {
+                    head.writeUTF(columnNames[c]);
+                    head.writeInt(dictionaries.get(c).size());
+                    for (String member : dictionaries.get(c).keySet()) head.writeUTF(member);
+                }
+                pad(head);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cells), 65536));
+                try {
+                    for (long r = 0; r < count[0]; r++) {
+                        for (int c = 0; c < n; c++) writeCode(head, w[c], in.readInt());
+                        in.readDouble();
+                    }
+                } finally {
+                    in.close();
+                }
+                pad(head);
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(cells), 65536));
+                try {
+                    for (long r = 0; r < count[0]; r++) {
+                        in.skipBytes(4 * n);
+                        head.writeDouble(in.readDouble());
+                    }
+                } finally {
+                    in.close();
+                }
+            } finally {
+                head.close();
+            }
+            if (snapshot.exists() && !snapshot.delete()) throw new IOException("cannot replace " + snapshot);
+            if (!part.renameTo(snapshot)) throw new IOException("cannot rename " + part + " to " + snapshot);
+            timer.stop();
+
+            Built built = new Built();
+            built.rows = count[0];
+            built.columns = n;
+            built.extractBytes = extract.length();
+            built.snapshotBytes = snapshot.length();
+            return built;
+        } finally {
+            cells.delete();
+        }
+    }
+
+    private static String[] columnNames(List<String> names, int n) {
+        String[] result = new String[n];
+        for (int c = 0; c < n; c++) {
+            if (names != null && c < names.size()) result[c] = names.get(c);
+            else if (c < ExtractDiff.DEFAULT_COLUMNS.length) result[c] = ExtractDiff.DEFAULT_COLUMNS[c];
+            else result[c] = "Column" + (c + 1);
+        }
+        return result;
+    }
+
+    private static void writeCode(DataOutputStream out, int width, int code) throws IOException {
+        if (width == 1) out.writeByte(code);
+        else if (width == 2) out.writeShort(code);
+        else out.writeInt(code);
+    }
+
+    // Aligns the next section to 8 bytes
+    private static void pad(DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0) out.writeByte(0);
+    }
+
+    private static String[] split(String key, char delimiter) {
+        List<String> fields = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= key.length(); i++) {
+            if (i == key.length() || key.charAt(i) == delimiter) {
+                fields.add(key.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private static double number(String amount) {
+        try {
+            return Double.parseDouble(amount);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // ==================== Reading ====================
+
+    /** Maps a snapshot; the dictionaries are read into memory, rows and amounts stay mapped. */
+    static ExtractSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), 65536));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not an extract snapshot: " + file);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("unsupported snapshot version " + version + ": " + file);
+            char delimiter = in.readChar();
+            int n = in.readInt();
+            long rows = in.readLong();
+            long offset = MAGIC.length + 4 + 2 + 4 + 8;
+            String[] columns = new String[n];
+            String[][] members = new String[n][];
+            CountingUTF utf = new CountingUTF(in);
+            for (int c = 0; c < n; c++) {
+                columns[c] = utf.read();
+                int size = in.readInt();
+                offset += 4;
+                members[c] = new String[size];
+                for (int i = 0; i < size; i++) members[c][i] = utf.read();
+            }
+            offset += utf.bytes;
+            offset = (offset + 7) & ~7L;
+            int stride = 0;
+            for (int c = 0; c < n; c++) stride += width(members[c].length);
+            long rowBytes = rows * stride;
+            long amountOffset = (offset + rowBytes + 7) & ~7L;
+            if (rowBytes > Integer.MAX_VALUE || rows * 8 > Integer.MAX_VALUE) {
+                throw new IOException("snapshot too large to map (" + rows + " rows): " + file);
+            }
+            MappedByteBuffer rowData = channel.map(FileChannel.MapMode.READ_ONLY, offset, rowBytes);
+            MappedByteBuffer amountData = channel.map(FileChannel.MapMode.READ_ONLY, amountOffset, rows * 8);
+            return new ExtractSnapshot(file, delimiter, columns, members, rows, rowData, amountData);
+        } finally {
+            raf.close();       // the mappings stay valid
+        }
+    }
+
+    // readUTF that keeps count of the bytes it consumed (2-byte length + data)
+    private static final class CountingUTF {
+        final DataInputStream in;
+        long bytes;
+
+        CountingUTF(DataInputStream in) {
+            this.in = in;
+        }
+
+        String read() throws IOException {
+            in.mark(2);
+            int length = in.readUnsignedShort();
+            in.reset();
+            bytes += 2 + length;
+            return in.readUTF();
+        }
+    }
+
+    private int code(long row, int column) {
+        int pos = (int) (row * stride);
+        for (int c = 0; c < column; c++) pos += widths[c];
+        if (widths[column] == 1) return rowData.get(pos) & 0xff;
+        if (widths[column] == 2) return rowData.getShort(pos) & 0xffff;
+        return rowData.getInt(pos);
+    }
+
+    private double amount(long row) {
+        return amountData.getDouble((int) (row * 8));
+    }
+
+    // ==================== Lookup ====================
+
+    /** One cell found by a lookup. */
+    static final class Hit {
+        final String pov;
+        final double amount;
+
+        Hit(String pov, double amount) {
+            this.pov = pov;
+            this.amount = amount;
+        }
+    }
+
+    /** Result of one lookup. */
+    static final class Lookup {
+        final List<Hit> hits = new ArrayList<Hit>();
+        long matches;
+        boolean indexed;          // binary search on leading columns rather than a full scan
+        long nanos;
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder("\"lookup\":{\"matches\":").append(matches)
+                    .append(",\"returned\":").append(hits.size())
+                    .append(",\"indexed\":").append(indexed)
+                    .append(",\"lookup_us\":").append(nanos / 1000).append(",\"cells\":[");
+            for (int i = 0; i < hits.size(); i++) {
+                Hit h = hits.get(i);
+                if (i > 0) sb.append(",");
+                sb.append("{\"pov\":\"");
+                JsonEventWriter.escape(h.pov, sb);
+                sb.append("\",\"amount\":").append(Double.isNaN(h.amount) ? "null" : String.valueOf(h.amount)).append("}");
+            }
+            return sb.append("]}").toString();
+        }
+    }
+
+    /**
+     * Cells matching a POV (HFM syntax, e.g. S#Actual.Y#2025.P#Jan;Feb.E#X);
+     * dimensions left out match any member. At most max hits are returned,
+     * all of them are counted.
+     */
+    Lookup lookup(String pov, int max) {
+        long start = System.nanoTime();
+        Lookup result = new Lookup();
+        List<Set<Integer>> filter = filter(HFMpovInfo.parsePov(pov));
+        if (filter != null) {
+            // Leading columns fixed to one member each bound a contiguous range of rows
+            int prefix = 0;
+            while (prefix < columns.length && filter.get(prefix) != null && filter.get(prefix).size() == 1) prefix++;
+            long from = 0;
+            long to = rows;
+            if (prefix > 0) {
+                StringBuilder target = new StringBuilder();
+                for (int c = 0; c < prefix; c++) {
+                    target.append(members[c][filter.get(c).iterator().next()]);
+                    if (c + 1 < columns.length) target.append(delimiter);
+                }
+                String t = target.toString();
+                from = lowerBound(t, prefix, false);
+                to = lowerBound(t, prefix, true);
+                result.indexed = true;
+            }
+            for (long r = from; r < to; r++) {
+                if (!matches(r, filter, prefix)) continue;
+                result.matches++;
+                if (result.hits.size() < max) result.hits.add(new Hit(pov(r), amount(r)));
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Per column the acceptable codes (null: any); null when a member is not in the snapshot at all
+    private List<Set<Integer>> filter(HFMpovInfo.PovTokens tokens) {
+        List<Set<Integer>> filter = new ArrayList<Set<Integer>>();
+        int customs = 0;
+        for (int c = 0; c < columns.length; c++) {
+            List<String> wanted = wanted(tokens, columns[c], c, customs);
+            if (isCustomColumn(columns[c])) customs++;
+            if (wanted == null) {
+                filter.add(null);
+                continue;
+            }
+            Set<Integer> accepted = new HashSet<Integer>();
+            for (String member : wanted) {
+                Integer code = codes.get(c).get(member.trim().toLowerCase(Locale.ROOT));
+                if (code != null) accepted.add(code);
+            }
+            if (accepted.isEmpty()) return null;
+            filter.add(accepted);
+        }
+        return filter;
+    }
+
+    private static boolean isCustomColumn(String name) {
+        String n = name.toLowerCase(Locale.ROOT);
+        return !(n.equals("scenario") || n.equals("year") || n.equals("period") || n.equals("view")
+                || n.equals("entity") || n.equals("value") || n.equals("account") || n.equals("icp"));
+    }
+
+    // The POV members for one column; non-standard columns count as Custom1, Custom2, ... in file order
+    private static List<String> wanted(HFMpovInfo.PovTokens t, String column, int index, int customsBefore) {
+        String n = column.toLowerCase(Locale.ROOT);
+        String member;
+        if (n.equals("scenario")) member = t.scenario;
+        else if (n.equals("year")) member = t.year;
+        else if (n.equals("period")) return t.periods.isEmpty() ? null : t.periods;
+        else if (n.equals("view")) member = t.view;
+        else if (n.equals("entity")) member = t.entity;
+        else if (n.equals("value")) member = t.value;
+        else if (n.equals("account")) member = t.account;
+        else if (n.equals("icp")) member = t.icp;
+        else {
+            Matcher m = CUSTOM.matcher(column);
+            member = t.customs.get(m.matches() ? Integer.parseInt(m.group(1)) : customsBefore + 1);
+        }
+        return member != null ? Arrays.asList(member) : null;
+    }
+
+    private boolean matches(long row, List<Set<Integer>> filter, int prefix) {
+        for (int c = prefix; c < columns.length; c++) {
+            Set<Integer> accepted = filter.get(c);
+            if (accepted != null && !accepted.contains(code(row, c))) return false;
+        }
+        return true;
+    }
+
+    // First row whose key prefix is >= target (or > target when after is set), in String order
+    private long lowerBound(String target, int prefix, boolean after) {
+        long lo = 0;
+        long hi = rows;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            int cmp = keyPrefix(mid, prefix).compareTo(target);
+            if (cmp < 0 || (after && cmp == 0)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private String keyPrefix(long row, int prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < prefix; c++) {
+            sb.append(members[c][code(row, c)]);
+            if (c + 1 < columns.length) sb.append(delimiter);
+        }
+        return sb.toString();
+    }
+
+    // The cell's POV in HFM syntax
+    private String pov(long row) {
+        StringBuilder sb = new StringBuilder();
+        int customs = 0;
+        for (int c = 0; c < columns.length; c++) {
+            String n = columns[c].toLowerCase(Locale.ROOT);
+            String tag;
+            if (n.equals("scenario")) tag = "S";
+            else if (n.equals("year")) tag = "Y";
+            else if (n.equals("period")) tag = "P";
+            else if (n.equals("view")) tag = "Vw";
+            else if (n.equals("entity")) tag = "E";
+            else if (n.equals("value")) tag = "V";
+            else if (n.equals("account")) tag = "A";
+            else if (n.equals("icp")) tag = "I";
+            else {
+                Matcher m = CUSTOM.matcher(columns[c]);
+                tag = "C" + (m.matches() ? m.group(1) : String.valueOf(customs + 1));
+                customs++;
+            }
+            if (sb.length() > 0) sb.append(".");
+            sb.append(tag).append("#").append(members[c][code(row, c)].trim());
+        }
+        return sb.toString();
+    }
+
+    @Override public String toString() {
+        return file.getPath() + " (" + rows + " cells, " + columns.length + " columns)";
+    }
+}
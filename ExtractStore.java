@@ -0,0 +1,153 @@
+/*
+ * ExtractStore.java - Content-addressed local store for backup extracts
+ *
+ * Rules, member lists and security are extracted every night for backup
+ * although they rarely change. With --store <dir> the extract file is
+ * hashed (SHA-256, one read through ExtractVerifier's direct buffer, or the
+ * hash --verify already computed) and kept once per distinct content:
+ *
+ *   <dir>/objects/<2 hex>/<sha256>                    the content, read-only
+ *   <dir>/<application>/<Operation>/latest            sha256, bytes and time of the last run
+ *   <dir>/<application>/<Operation>/<time>-<sha8>.txt one entry per run
+ *
+ * A run's entry is a hard link to its object, so an unchanged extract
+ * costs a directory entry rather than a copy; the content is only copied
+ * into the store when its hash is new. Where the file system cannot link
+ * (FAT, some network shares) the entry is a ".ref" text file holding the
+ * object's path instead.
+ *
+ * The result JSON carries "unchanged":true when the content matches the
+ * last stored run of the same application and operation.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+class ExtractStore {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File root;
+
+    ExtractStore(File root) {
+        this.root = root;
+    }
+
+    /** What storing one extract did. */
+    static final class Entry {
+        final String sha256;
+        final long bytes;
+        final boolean unchanged;
+        final boolean copied;      // content was new to the store
+        final File object;
+        final File version;
+
+        Entry(String sha256, long bytes, boolean unchanged, boolean copied, File object, File version) {
+            this.sha256 = sha256;
+            this.bytes = bytes;
+            this.unchanged = unchanged;
+            this.copied = copied;
+            this.object = object;
+            this.version = version;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("\"unchanged\":").append(unchanged);
+            sb.append(",\"store\":{\"sha256\":\"").append(sha256).append("\",\"bytes\":").append(bytes);
+            sb.append(",\"copied\":").append(copied).append(",\"object\":\"");
+            JsonEventWriter.escape(object.getPath(), sb);
+            sb.append("\",\"version\":\"");
+            JsonEventWriter.escape(version.getPath(), sb);
+            return sb.append("\"}").toString();
+        }
+    }
+
+    /**
+     * Stores one extract of application/operation. sha256 may be null, in
+     * which case the file is hashed here.
+     */
+    Entry put(String application, String operation, File file, String sha256) throws IOException {
+        if (!file.isFile()) throw new IOException("extract file not found: " + file);
+        if (sha256 == null) sha256 = ExtractVerifier.sha256(file);
+        long bytes = file.length();
+
+        File object = new File(new File(new File(root, "objects"), sha256.substring(0, 2)), sha256);
+        boolean copied = false;
+        if (!object.isFile()) {
+            copied = copyIn(file, object);
+        }
+
+        File dir = new File(new File(root, safe(application)), operation);
+        dir.mkdirs();
+        File latest = new File(dir, "latest");
+        String previous = readLatest(latest);
+        boolean unchanged = sha256.equals(previous);
+
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ROOT).format(new Date());
+        File version = new File(dir, stamp + "-" + sha256.substring(0, 8) + ".txt");
+        try {
+            Files.createLink(version.toPath(), object.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // No hard links here: record the object's path instead
+            version = new File(dir, stamp + "-" + sha256.substring(0, 8) + ".ref");
+            Files.write(version.toPath(), (object.getPath() + "\n").getBytes(UTF8));
+        }
+
+        writeAtomically(latest, sha256 + "\t" + bytes + "\t" + System.currentTimeMillis() + "\n");
+        return new Entry(sha256, bytes, unchanged, copied, object, version);
+    }
+
+    // Copies through a temp file and a rename, so a crash never leaves a partial object under its hash
+    private static boolean copyIn(File file, File object) throws IOException {
+        File dir = object.getParentFile();
+        dir.mkdirs();
+        Path tmp = Files.createTempFile(dir.toPath(), object.getName().substring(0, 8), ".tmp");
+        try {
+            Files.copy(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            tmp.toFile().setReadOnly();
+            try {
+                Files.move(tmp, object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;          // another run stored the same content first
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String readLatest(File latest) throws IOException {
+        if (!latest.isFile()) return null;
+        List<String> lines = Files.readAllLines(latest.toPath(), UTF8);
+        if (lines.isEmpty()) return null;
+        int tab = lines.get(0).indexOf('\t');
+        return tab < 0 ? lines.get(0).trim() : lines.get(0).substring(0, tab);
+    }
+
+    private static void writeAtomically(File target, String content) throws IOException {
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+        try {
+            Files.write(tmp, content.getBytes(UTF8));
+            Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Application names go into a path
+    private static String safe(String name) {
+        return name == null ? "_" : name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * ExtractVerifier.java - Checks an extract file after HFM has written it
+ *
+ * An extract used to count as successful when the API returned a
+ * LoadExtractInfo or the task finished; a truncated or empty file was only
+ * noticed by whoever consumed it hours later. With --verify the file is
+ * read once, front to back, through a DIRECT_BUFFER_BYTES direct buffer,
+ * and in the same pass:
+ *
+ *   - SHA-256 and CRC32 of the content (for hand-offs and the CAS store)
+ *   - rows: lines that are not blank, '!' headers or "'" comments
+ *   - rows per section, e.g. MEMBERS=Entity in a metadata file; only the
+ *     known section headers (SECTIONS) start one, so per-record '!' lines
+ *     such as a journal's !DESC count toward the section they are in
+ *   - for data extracts, distinct members per dimension column (every
+ *     field but the amount), named from !COLUMN_ORDER when present; members
+ *     are kept as 64-bit FNV-1a hashes, not strings
+ *
+ * The file fails verification when it is missing, empty, has fewer data
+ * rows than --minRows (default 1) or does not end with a newline (a writer
+ * that stopped mid-line).
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+class ExtractVerifier {
+
+    static final int DIRECT_BUFFER_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_HEADER_CHARS = 4096;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // '!' headers that open a section in metadata, data and security extracts
+    private static final Set<String> SECTIONS = new HashSet<String>(Arrays.asList(
+            "CUSTOM_ORDER", "APPLICATION_SETTINGS", "CURRENCIES",
+            "CONSOLIDATION_METHODS", "DIMENSION", "MEMBERS", "HIERARCHIES", "DESCRIPTIONS",
+            "DATA", "COLUMN_ORDER", "USERS_AND_GROUPS", "SECURITY_CLASSES", "ROLE_ACCESS",
+            "SECURITY_CLASS_ACCESS"));
+
+    // Buffers are reused across verifications: allocateDirect is slow and its memory is freed
+    // late. A pool rather than one per thread, since every virtual thread would get its own
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private static ByteBuffer takeBuffer() {
+        ByteBuffer buffer = BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(DIRECT_BUFFER_BYTES);
+    }
+
+    private static void returnBuffer(ByteBuffer buffer) {
+        BUFFERS.offer(buffer);
+    }
+
+    /** Outcome of one verification. */
+    static final class Result {
+        final File file;
+        long bytes;
+        long rows;
+        String sha256;
+        String crc32;
+        boolean endsWithNewline;
+        final Map<String, Long> sections = new LinkedHashMap<String, Long>();
+        final Map<String, Integer> members = new LinkedHashMap<String, Integer>();
+        String problem;            // null when the file passed
+
+        Result(File file) {
+            this.file = file;
+        }
+
+        boolean ok() {
+            return problem == null;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder("\"verify\":{\"file\":\"");
+            JsonEventWriter.escape(file.getPath(), sb);
+            sb.append("\",\"ok\":").append(ok());
+            if (problem != null) {
+                sb.append(",\"problem\":\"");
+                JsonEventWriter.escape(problem, sb);
+                sb.append("\"");
+            }
+            sb.append(",\"bytes\":").append(bytes).append(",\"rows\":").append(rows);
+            if (sha256 != null) {
+                sb.append(",\"sha256\":\"").append(sha256).append("\",\"crc32\":\"").append(crc32).append("\"");
+            }
+            appendCounts(sb, "sections", sections);
+            appendCounts(sb, "members", members);
+            return sb.append("}").toString();
+        }
+
+        private static void appendCounts(StringBuilder sb, String name, Map<String, ? extends Number> counts) {
+            if (counts.isEmpty()) return;
+            sb.append(",\"").append(name).append("\":{");
+            boolean first = true;
+            for (Map.Entry<String, ? extends Number> e : counts.entrySet()) {
+                if (!first) sb.append(",");
+                first = false;
+                sb.append("\"");
+                JsonEventWriter.escape(e.getKey(), sb);
+                sb.append("\":").append(e.getValue());
+            }
+            sb.append("}");
+        }
+    }
+
+    private final char delimiter;
+    private final boolean dataColumns;
+    private final long minRows;
+
+    /**
+     * @param delimiter   field delimiter of data lines (-d)
+     * @param dataColumns count distinct members per column (data extracts)
+     */
+    ExtractVerifier(char delimiter, boolean dataColumns, long minRows) {
+        this.delimiter = delimiter;
+        this.dataColumns = dataColumns;
+        this.minRows = minRows;
+    }
+
+    Result verify(File file) throws IOException {
+        Result result = new Result(file);
+        if (!file.isFile()) {
+            result.problem = "extract file not found";
+            return result;
+        }
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        CRC32 crc = new CRC32();
+        Scanner scanner = new Scanner(result);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer = takeBuffer();
+        try {
+            FileChannel channel = raf.getChannel();
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) break;
+                buffer.flip();
+                result.bytes += buffer.remaining();
+                // Each consumer reads the same bytes through its own view of the buffer
+                sha.update(buffer.duplicate());
+                crc.update(buffer.duplicate());
+                scanner.scan(buffer);
+            }
+        } finally {
+            raf.close();
+            returnBuffer(buffer);
+        }
+        scanner.finish();
+
+        result.sha256 = hex(sha.digest());
+        result.crc32 = String.format("%08x", crc.getValue());
+        if (result.bytes == 0) {
+            result.problem = "extract file is empty";
+        } else if (!result.endsWithNewline) {
+            result.problem = "extract file does not end with a newline (truncated?)";
+        } else if (result.rows < minRows) {
+            result.problem = "extract file has " + result.rows + " data rows, expected at least " + minRows;
+        }
+        return result;
+    }
+
+    /** SHA-256 of a file, hex; the same read loop without the row scan. */
+    static String sha256(File file) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer = takeBuffer();
+        try {
+            FileChannel channel = raf.getChannel();
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) break;
+                buffer.flip();
+                sha.update(buffer);
+            }
+        } finally {
+            raf.close();
+            returnBuffer(buffer);
+        }
+        return hex(sha.digest());
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // ==================== Line Scanner ====================
+
+    // Splits the byte stream into lines and fields without building strings for data lines
+    private final class Scanner {
+        private final Result result;
+        private final StringBuilder header = new StringBuilder();
+        private final List<Set<Long>> columns = new ArrayList<Set<Long>>();
+        private List<String> columnNames;
+        private long[] fields = new long[32];
+        private int fieldCount;
+        private long hash = FNV_OFFSET;
+        private int lineLength;
+        private byte first;
+        private String section;
+        private long sectionRows;
+        private byte last;
+
+        Scanner(Result result) {
+            this.result = result;
+        }
+
+        void scan(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                last = b;
+                if (b == '\n') {
+                    endLine();
+                    continue;
+                }
+                if (b == '\r') continue;
+                if (lineLength++ == 0) first = b;
+                if (first == '!') {
+                    if (header.length() < MAX_HEADER_CHARS) header.append((char) (b & 0xff));
+                } else if (b == delimiter) {
+                    endField();
+                } else {
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                }
+            }
+        }
+
+        private void endField() {
+            if (fieldCount == fields.length) {
+                long[] bigger = new long[fields.length * 2];
+                System.arraycopy(fields, 0, bigger, 0, fields.length);
+                fields = bigger;
+            }
+            fields[fieldCount++] = hash;
+            hash = FNV_OFFSET;
+        }
+
+        private void endLine() {
+            if (lineLength > 0) {
+                if (first == '!') {
+                    startSection(header.substring(1).trim());
+                } else if (first != '\'') {
+                    endField();
+                    result.rows++;
+                    sectionRows++;
+                    // Every field but the last (the amount) is a dimension member
+                    if (dataColumns) {
+                        for (int i = 0; i + 1 < fieldCount; i++) {
+                            while (columns.size() <= i) columns.add(new HashSet<Long>());
+                            columns.get(i).add(fields[i]);
+                        }
+                    }
+                }
+            }
+            header.setLength(0);
+            fieldCount = 0;
+            hash = FNV_OFFSET;
+            lineLength = 0;
+        }
+
+        private void startSection(String name) {
+            int eq = name.indexOf('=');
+            String key = (eq < 0 ? name : name.substring(0, eq)).trim().toUpperCase(Locale.ROOT);
+            if (!SECTIONS.contains(key)) return;
+            closeSection();
+            if (key.equals("COLUMN_ORDER")) {
+                columnNames = new ArrayList<String>();
+                for (String c : name.substring(eq + 1).split("[,;\\t]")) {
+                    if (!c.trim().isEmpty()) columnNames.add(c.trim());
+                }
+                name = "COLUMN_ORDER";
+            }
+            section = name.length() > 64 ? name.substring(0, 64) : name;
+        }
+
+        private void closeSection() {
+            if (section != null && sectionRows > 0) {
+                Long before = result.sections.get(section);
+                result.sections.put(section, (before != null ? before : 0) + sectionRows);
+            }
+            sectionRows = 0;
+        }
+
+        void finish() {
+            result.endsWithNewline = last == '\n';
+            if (lineLength > 0) endLine();
+            closeSection();
+            for (int i = 0; i < columns.size(); i++) {
+                String name = columnNames != null && i < columnNames.size() ? columnNames.get(i) : "column" + (i + 1);
+                result.members.put(name, columns.get(i).size());
+            }
+        }
+    }
+}
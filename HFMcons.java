@@ -133,9 +133,9 @@ public class HFMcons {
 
             AdministrationOM adminOM = new AdministrationOM(session);
 
-            // Poll with limited retries on transient failures
+            // Poll with limited retries on transient failures (same classification and backoff as HfmCli)
             int pollAttempts = 0;
-            final int MAX_POLL_RETRIES = 3;
+            final int MAX_POLL_RETRIES = ResilientHfmBackend.DEFAULT_RETRIES;
 
             boolean tasksStillRunning = true;
             while (tasksStillRunning) {
@@ -145,10 +145,12 @@ public class HFMcons {
                     listProgress = adminOM.getCurrentTaskProgress(taskInfo.getTaskIDs());
                     pollAttempts = 0; // reset on success
                 } catch (Exception pollEx) {
+                    if (!ResilientHfmBackend.isTransient(pollEx)) throw pollEx;
                     pollAttempts++;
                     System.err.println("WARN: getCurrentTaskProgress failed (attempt " + pollAttempts + " of " + MAX_POLL_RETRIES + "): " + pollEx.getMessage());
                     if (pollAttempts <= MAX_POLL_RETRIES) {
-                        try { Thread.sleep(3000); } catch (InterruptedException ie) { /* ignore */ }
+                        long backoff = ResilientHfmBackend.backoffMs(ResilientHfmBackend.DEFAULT_BACKOFF_MS, pollAttempts - 1);
+                        try { Thread.sleep(backoff); } catch (InterruptedException ie) { /* ignore */ }
                         continue;
                     } else {
                         throw pollEx;
@@ -193,7 +195,7 @@ public class HFMcons {
 
     // Map friendly -t/--type aliases to your environment's enum names.
     // Use --list-types to see the exact constants available and adjust below if needed.
-    private static String mapTypeToEnum(String t) {
+    static String mapTypeToEnum(String t) {
         String v = (t == null ? "" : t.trim().toLowerCase(Locale.ENGLISH));
 
         // Common aliases → typical enum names (adjust if --list-types shows different names)
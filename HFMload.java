@@ -22,8 +22,26 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 
 public class HFMload {
+    // Exit codes shared with HfmCli
+    private static final int EXIT_TIMED_OUT = 7;
+    private static final int EXIT_TERMINATED = 8;
+
+    // Set while a session is open, for the SIGTERM hook
+    private static volatile SessionOM openSessionOM;
+    private static volatile SessionInfo openSession;
+    private static volatile AdministrationOM openAdminOM;
+    private static volatile List<Integer> openTaskIDs;
+    private static volatile String stopTaskMethod;
+
     public static void main(String[] args) {
+        Runtime.getRuntime().addShutdownHook(new Thread("hfmload-shutdown") {
+            @Override public void run() {
+                onShutdown();
+            }
+        });
+
         String username="", password="", appName="", hfmCluster="", dataFile="", delimiter=";";
+        long timeoutMs = 0;
         SessionOM sessionOM = null; SessionInfo session = null;
 
         try {
@@ -35,6 +53,8 @@ public class HFMload {
             opt.addOption("c", "cluster", true, "HFM cluster");
             opt.addOption("f", "file", true, "Path to data load file");
             opt.addOption("d", "delimiter", true, "File delimiter (default ;)");
+            opt.addOption("t", "timeout", true, "Minutes to wait for the load before giving up (default: no limit)");
+            opt.addOption("s", "stopTaskMethod", true, "AdministrationOM method that stops tasks by ID; unset leaves them running (see OracleHfmBackend)");
 
             CommandLine cl = new BasicParser().parse(opt, args);
             if (cl.hasOption('h')) { new HelpFormatter().printHelp("HFMload", opt); System.exit(0); }
@@ -44,12 +64,16 @@ public class HFMload {
             if (cl.hasOption('c')) hfmCluster = cl.getOptionValue("c"); else { System.err.println("Error: -c required"); System.exit(1); }
             if (cl.hasOption('f')) dataFile = cl.getOptionValue("f");   else { System.err.println("Error: -f required"); System.exit(1); }
             if (cl.hasOption('d')) delimiter = cl.getOptionValue("d");
+            stopTaskMethod = cl.getOptionValue("s");
+            if (cl.hasOption('t')) timeoutMs = (long) (Double.parseDouble(cl.getOptionValue("t")) * 60 * 1000);
 
             System.out.println("Logging in to application " + appName + " with user " + username);
             String ssoToken = HSSUtilManager.getSecurityManager().authenticateUser(username, password);
 
             sessionOM = new SessionOM();
             session = sessionOM.createSession(ssoToken, Locale.ENGLISH, hfmCluster, appName);
+            openSessionOM = sessionOM;
+            openSession = session;
 
             // Build DataLoadOptions (native format, merge duplicates, LOAD mode)
             List<DataLoadOptions> opts = new ArrayList<DataLoadOptions>();
@@ -76,28 +100,84 @@ public class HFMload {
             LoadExtractOM loadOM = new LoadExtractOM(session);
             List<Integer> taskIDs = loadOM.loadData(files, opts);
 
-            // Poll until completed
+            // Poll until every task has finished (an aborted or stopped task finishes too)
             AdministrationOM adminOM = new AdministrationOM(session);
+            openAdminOM = adminOM;
+            openTaskIDs = taskIDs;
+            long start = System.currentTimeMillis();
             boolean completed = false;
+            boolean failed = false;
             while (!completed) {
                 List<RunningTaskProgress> list = adminOM.getCurrentTaskProgress(taskIDs);
                 completed = true;
                 for (RunningTaskProgress p : list) {
                     System.out.println("Task #" + p.getTaskID() + " - " + p.getDescription().replace("\r\n"," - ")
                         + " : " + p.getPrecentCompleted() + "%");
-                    if (p.getTaskStatus() != USERACTIVITYSTATUS.USERACTIVITYSTATUS_COMPLETED) {
-                        completed = false;
-                    }
+                    USERACTIVITYSTATUS status = p.getTaskStatus();
+                    if (HfmCli.isActive(status)) completed = false;
+                    else if (HfmCli.isFailed(status)) failed = true;
+                }
+                if (!completed && timeoutMs > 0 && System.currentTimeMillis() - start > timeoutMs) {
+                    System.err.println("Error: data load not finished after " + cl.getOptionValue("t") + " min; tasks " + taskIDs);
+                    // Do not leave the load running on the server after giving up on it
+                    stopTasks(adminOM, taskIDs);
+                    closeSession();
+                    System.exit(EXIT_TIMED_OUT);
                 }
                 if (!completed) Thread.sleep(2000);
             }
-            System.out.println("Data load completed.");
 
-            if (sessionOM != null && session != null) sessionOM.closeSession(session);
+            closeSession();
+            if (failed) {
+                System.err.println("Error: data load task aborted or stopped");
+                System.exit(3);
+            }
+            System.out.println("Data load completed.");
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
-            try { if (sessionOM != null && session != null) sessionOM.closeSession(session); } catch (Exception ignore) {}
+            try { closeSession(); } catch (Exception ignore) {}
             System.exit(2);
         }
     }
+
+    private static void stopTasks(AdministrationOM adminOM, List<Integer> taskIDs) {
+        try {
+            if (!OracleHfmBackend.stopTasks(adminOM, stopTaskMethod, taskIDs)) {
+                System.err.println("WARN: no task stop call (-s <method>); tasks " + taskIDs + " keep running");
+            }
+        } catch (Exception e) {
+            System.err.println("WARN: cannot stop tasks " + taskIDs + ": " + e.getMessage());
+        }
+    }
+
+    // Clears the hook's state first, so a normal exit leaves the hook nothing to do
+    private static void closeSession() throws Exception {
+        SessionOM sessionOM = openSessionOM;
+        SessionInfo session = openSession;
+        openSession = null;
+        openTaskIDs = null;
+        if (sessionOM != null && session != null) sessionOM.closeSession(session);
+    }
+
+    /**
+     * Shutdown hook. On SIGTERM (e.g. a Control-M kill) while the load runs
+     * it stops the load tasks on the server, closes the session and halts
+     * with exit code 8, like HfmCli.
+     */
+    private static void onShutdown() {
+        if (openSession == null) return;
+        List<Integer> taskIDs = openTaskIDs;
+        if (taskIDs != null) {
+            System.err.println("Error: terminated; stopping tasks " + taskIDs);
+            stopTasks(openAdminOM, taskIDs);
+        } else {
+            System.err.println("Error: terminated");
+        }
+        try {
+            closeSession();
+        } catch (Exception e) {
+            // Exiting anyway
+        }
+        Runtime.getRuntime().halt(EXIT_TERMINATED);
+    }
 }
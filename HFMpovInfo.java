@@ -189,7 +189,7 @@ public class HFMpovInfo {
     private static final Pattern TOKEN =
         Pattern.compile("(?i)\\b(S|Y|P|E|V|Vw|A|I|C([1-9]|1[0-2]))#([^\\.]+)");
 
-    private static class PovTokens {
+    static class PovTokens {
         String scenario, year, entity, value, view, account, icp;
         List<String> periods = new ArrayList<String>();
         Map<Integer, String> customs = new HashMap<Integer, String>();
@@ -202,6 +202,51 @@ public class HFMpovInfo {
             return max;
         }
 
+        /**
+         * Canonical form for comparing requests: fixed dimension order,
+         * trimmed and lower-cased members (HFM member names ignore case).
+         */
+        String canonical() {
+            return render(true);
+        }
+
+        /** The tokens back as a POV string, in fixed dimension order. */
+        String format() {
+            return render(false);
+        }
+
+        private String render(boolean lowerCase) {
+            StringBuilder sb = new StringBuilder();
+            append(sb, "S", scenario, lowerCase);
+            append(sb, "Y", year, lowerCase);
+            if (!periods.isEmpty()) {
+                StringBuilder p = new StringBuilder();
+                for (String period : periods) {
+                    if (p.length() > 0) p.append(";");
+                    p.append(period.trim());
+                }
+                append(sb, "P", p.toString(), lowerCase);
+            }
+            append(sb, "Vw", view, lowerCase);
+            append(sb, "E", entity, lowerCase);
+            append(sb, "V", value, lowerCase);
+            append(sb, "A", account, lowerCase);
+            append(sb, "I", icp, lowerCase);
+            List<Integer> keys = new ArrayList<Integer>(customs.keySet());
+            Collections.sort(keys);
+            for (int k : keys) {
+                append(sb, "C" + k, customs.get(k), lowerCase);
+            }
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, String tag, String member, boolean lowerCase) {
+            if (member == null) return;
+            if (sb.length() > 0) sb.append(".");
+            String m = member.trim();
+            sb.append(tag).append("#").append(lowerCase ? m.toLowerCase(Locale.ROOT) : m);
+        }
+
         void prettyPrint() {
             System.out.println("Parsed POV tokens:");
             if (scenario != null) System.out.println("  S# " + scenario);
@@ -222,7 +267,7 @@ public class HFMpovInfo {
         }
     }
 
-    private static PovTokens parsePov(String pov) {
+    static PovTokens parsePov(String pov) {
         PovTokens t = new PovTokens();
         if (pov == null) return t;
         Matcher m = TOKEN.matcher(pov);
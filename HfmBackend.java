@@ -0,0 +1,104 @@
+/*
+ * HfmBackend.java - Abstraction over the HFM Java API used by HfmCli
+ *
+ * HfmCli operations talk to HFM only through this interface. The default
+ * implementation (OracleHfmBackend) calls the Oracle EPM classes against a
+ * live cluster; SimulatedHfmBackend models a cluster in-process so the
+ * client's concurrency and polling can be exercised without a server.
+ *
+ * Select with --backend oracle[:key=value,...] (default) or
+ * --backend sim[:key=value,...].
+ */
+
+package project1;
+
+import java.util.List;
+
+import oracle.epm.fm.common.datatype.transport.DataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.DataLoadOptions;
+import oracle.epm.fm.common.datatype.transport.JournalExtractOptions;
+import oracle.epm.fm.common.datatype.transport.MetadataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.RULESEXTRACT_FILE_FORMAT;
+import oracle.epm.fm.common.datatype.transport.SecurityExtractOptions;
+import oracle.epm.fm.common.datatype.transport.USERACTIVITYSTATUS;
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+interface HfmBackend {
+
+    /** Authenticates against Shared Services and returns an SSO token. */
+    String authenticateUser(String username, String password) throws Exception;
+
+    /** Opens an application session on the given cluster. */
+    Session createSession(String ssoToken, String cluster, String application) throws Exception;
+
+    /** One HFM application session. Calls may be made from several threads. */
+    interface Session {
+
+        List<Integer> executeServerTask(WEBOMDATAGRIDTASKMASKENUM type, List<String> povs) throws Exception;
+
+        List<Integer> loadData(List<String> files, List<DataLoadOptions> options) throws Exception;
+
+        int extractData(DataExtractOptions options) throws Exception;
+
+        ExtractResult extractMetadata(MetadataExtractOptions options) throws Exception;
+
+        ExtractResult extractRules(RULESEXTRACT_FILE_FORMAT format) throws Exception;
+
+        ExtractResult extractMemberLists() throws Exception;
+
+        ExtractResult extractSecurity(SecurityExtractOptions options) throws Exception;
+
+        ExtractResult extractJournals(JournalExtractOptions options) throws Exception;
+
+        List<TaskProgress> getCurrentTaskProgress(List<Integer> taskIds) throws Exception;
+
+        /**
+         * Asks the server to stop the tasks (tasks that already finished are
+         * ignored). Returns false when no stop call is available (for the
+         * Oracle backend: none configured, see OracleHfmBackend).
+         */
+        boolean cancelTasks(List<Integer> taskIds) throws Exception;
+
+        /**
+         * Calc status label (OK, OK SC, CN, CH, TR, NODATA, ...) for each
+         * single-entity, single-period POV, or null when calc status is not
+         * available (for the Oracle backend: no call configured). Throws when
+         * the call's result is not one label per POV.
+         */
+        List<String> getCalcStatus(List<String> povs) throws Exception;
+
+        void closeSession() throws Exception;
+    }
+
+    /** Progress of one server task, as reported by getCurrentTaskProgress. */
+    final class TaskProgress {
+        final int taskId;
+        final String description;
+        final int percent;
+        final USERACTIVITYSTATUS status;
+
+        TaskProgress(int taskId, String description, int percent, USERACTIVITYSTATUS status) {
+            this.taskId = taskId;
+            this.description = description;
+            this.percent = percent;
+            this.status = status;
+        }
+    }
+
+    /** Result of a synchronous extract (metadata, rules, member lists, security, journals). */
+    final class ExtractResult {
+        /** The raw LoadExtractInfo (or simulator equivalent); null if the API returned null. */
+        final Object info;
+        /** Path of the file written, when the API reports one (checked by --verify). */
+        final String file;
+
+        ExtractResult(Object info) {
+            this(info, null);
+        }
+
+        ExtractResult(Object info, String file) {
+            this.info = info;
+            this.file = file;
+        }
+    }
+}
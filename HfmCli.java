@@ -14,6 +14,11 @@
  *   - ExtractMemberLists
  *   - ExtractSecurity
  *   - ExtractJournals
+ *   - Wait / Status (tasks submitted earlier, e.g. with --async)
+ *   - Workflow (Load -> Translate -> Consolidate -> Extract, pipelined over periods)
+ *   - Batch (operations from a file, scheduled by priority class and deadline)
+ *   - DiffExtracts (compares two data extracts locally)
+ *   - Lookup (POV queries against a binary snapshot of a data extract)
  * 
  * Usage:
  *   java project1.HfmCli <operation> [options]
@@ -21,22 +26,28 @@
 
 package project1;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import oracle.epm.fm.common.datatype.transport.*;
-import oracle.epm.fm.domainobject.administration.AdministrationOM;
-import oracle.epm.fm.domainobject.application.SessionOM;
-import oracle.epm.fm.domainobject.data.DataOM;
-import oracle.epm.fm.domainobject.loadextract.LoadExtractOM;
-import oracle.epm.fm.domainobject.loadextract.LoadExtractInfo;
-import oracle.epm.fm.hssservice.HSSUtilManager;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -60,67 +71,130 @@ public class HfmCli {
     private static final int EXIT_OPERATION_FAILED = 3;
     private static final int EXIT_TASK_FAILED = 4;
     private static final int EXIT_UNKNOWN_ERROR = 5;
+    private static final int EXIT_TASKS_RUNNING = 6;    // Status: tasks not finished yet
+    private static final int EXIT_TIMED_OUT = 7;        // --timeout/--queueTimeout/--stallTimeout hit; tasks stopped
+    private static final int EXIT_TERMINATED = 8;       // SIGTERM while waiting; tasks stopped
+
+    // HFM API implementation; replaced by the simulator with --backend sim
+    static volatile HfmBackend backend = new OracleHfmBackend();
+    
+    // Destination of JSON results and progress; drivers may redirect it
+    static volatile PrintStream out = System.out;
+    
+    // Client-side metrics, exported with --metricsFile
+    static final HfmMetrics metrics = new HfmMetrics();
+    
+    // Renders result and progress lines (sequence numbers, progress de-duplication)
+    static final JsonEventWriter events = new JsonEventWriter();
+    
+    // Delivers rendered lines to stdout, the metrics registry and any --eventLog/--eventFifo
+    static final EventBus bus = new EventBus(EventBus.DEFAULT_CAPACITY, metrics);
+    static {
+        bus.addSink("stdout", new EventBus.StreamSink(System.out) {
+            @Override PrintStream stream() {
+                return out;
+            }
+            
+            @Override public void write(EventBus.Event e) {
+                if (!e.aggregated) super.write(e);
+            }
+        }, true);
+        bus.addSink("metrics", new EventBus.MetricsSink(metrics), true);
+    }
+    private static final long EVENT_FLUSH_TIMEOUT_MS = 10000;
+    
+    // Set on fan-out target threads: their result lines are collected for the aggregate
+    private static final ThreadLocal<List<String>> targetResults = new ThreadLocal<List<String>>();
+    
+    // Open sessions, for the shutdown hook; --keepTasksOnExit leaves their tasks running
+    private static final Set<HfmSession> openSessions = Collections.newSetFromMap(new ConcurrentHashMap<HfmSession, Boolean>());
+    private static volatile boolean terminating;
 
     // ==================== JSON Output Helpers ====================
     
-    private static String escapeJson(String s) {
+    static String escapeJson(String s) {
         if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
+        if (JsonEventWriter.isPlain(s)) return s;
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        JsonEventWriter.escape(s, sb);
+        return sb.toString();
     }
     
-    private static void jsonOutput(PrintStream out, String status, String message, 
-            String operation, String application, long elapsedMs, List<Integer> taskIds) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"status\":\"").append(status).append("\"");
-        sb.append(",\"message\":\"").append(escapeJson(message)).append("\"");
-        sb.append(",\"operation\":\"").append(escapeJson(operation)).append("\"");
-        sb.append(",\"application\":\"").append(escapeJson(application)).append("\"");
-        sb.append(",\"elapsed_ms\":").append(elapsedMs);
-        sb.append(",\"timestamp\":\"").append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())).append("\"");
-        if (taskIds != null && !taskIds.isEmpty()) {
-            sb.append(",\"task_ids\":[");
-            for (int i = 0; i < taskIds.size(); i++) {
-                if (i > 0) sb.append(",");
-                sb.append(taskIds.get(i));
-            }
-            sb.append("]");
-        }
-        sb.append("}");
-        out.println(sb.toString());
+    static void jsonOutput(String status, String message, 
+            String operation, String application, long elapsedMs, List<Integer> taskIds,
+            PhaseTimer phases) {
+        jsonOutput(status, message, operation, application, elapsedMs, taskIds, phases, null);
+    }
+    
+    // details: extra JSON fields for this operation, e.g. "calc_status":{...}
+    static void jsonOutput(String status, String message, 
+            String operation, String application, long elapsedMs, List<Integer> taskIds,
+            PhaseTimer phases, String details) {
+        // After SIGTERM the shutdown hook reports; the interrupted operations would only see their stopped tasks
+        if (terminating && !"Terminated".equals(status)) return;
+        String body = events.result(status, message, operation, application, elapsedMs, taskIds, phases, details);
+        List<String> collected = targetResults.get();
+        String line = bus.publish(EventBus.Event.result(body, operation, status, elapsedMs, phases, collected != null));
+        if (collected != null) collected.add(line);
     }
     
     private static void jsonError(String message, String operation, String application) {
-        jsonOutput(System.out, "Error", message, operation, application, 0, null);
+        jsonOutput("Error", message, operation, application, 0, null, null);
+    }
+    
+    // --async: the task IDs go out in the result and the server keeps running the tasks
+    private static int jsonSubmitted(String what, String operation, String application,
+            long startTime, List<Integer> taskIds, PhaseTimer timer) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        jsonOutput("Submitted", what + " submitted; track it with Wait or Status --taskIds " + joinIds(taskIds),
+                operation, application, elapsed, taskIds, timer);
+        return EXIT_SUCCESS;
     }
     
     private static void jsonSuccess(String message, String operation, String application, 
-            long elapsedMs, List<Integer> taskIds) {
-        jsonOutput(System.out, "OK", message, operation, application, elapsedMs, taskIds);
+            long elapsedMs, List<Integer> taskIds, PhaseTimer phases) {
+        jsonOutput("OK", message, operation, application, elapsedMs, taskIds, phases);
     }
     
-    private static void jsonProgress(int taskId, String description, int percent, String status) {
-        System.out.println("{\"type\":\"progress\",\"task_id\":" + taskId + 
-                ",\"description\":\"" + escapeJson(description) + 
-                "\",\"percent\":" + percent + 
-                ",\"status\":\"" + escapeJson(status) + "\"}");
+    // Only prints when the task's status or percent changed since its last line on this cluster/application
+    private static void jsonProgress(String scope, int taskId, String description, int percent,
+            USERACTIVITYSTATUS status) {
+        String body = events.progress(scope, taskId, description, percent, status);
+        if (body != null) {
+            bus.publish(EventBus.Event.progress(body));
+        }
     }
 
     // ==================== Session Management ====================
     
     private static class HfmSession {
-        SessionOM sessionOM;
-        SessionInfo sessionInfo;
+        HfmBackend.Session hfm;
         String ssoToken;
+        String cluster;
+        String application;
+        boolean stopTasksOnExit = true;        // false with --keepTasksOnExit
+        TaskJournal journal;                   // --journal of the call that opened the session
+        volatile List<Integer> waitingOn;      // set by waitForTasks
+        volatile TaskMonitor monitor;          // set by Workflow
+        
+        String progressScope() {
+            return cluster + "/" + application;
+        }
+        
+        List<Integer> inFlight() {
+            List<Integer> ids = new ArrayList<Integer>();
+            List<Integer> waiting = waitingOn;
+            if (waiting != null) ids.addAll(waiting);
+            TaskMonitor m = monitor;
+            if (m != null) ids.addAll(m.pending());
+            return ids;
+        }
         
         void close() {
+            openSessions.remove(this);
             try {
-                if (sessionOM != null && sessionInfo != null) {
-                    sessionOM.closeSession(sessionInfo);
+                if (hfm != null) {
+                    hfm.closeSession();
                 }
             } catch (Exception e) {
                 // Ignore cleanup errors
@@ -128,81 +202,521 @@ public class HfmCli {
         }
     }
     
-    private static HfmSession createSession(String username, String password, 
-            String cluster, String application) throws Exception {
+    // The shutdown hook reads --keepTasksOnExit and --journal from the session, not from whichever call ran last
+    private static HfmSession createSession(CommandLine cl, String username, String password, 
+            String cluster, String application, PhaseTimer timer) throws Exception {
         HfmSession session = new HfmSession();
+        session.cluster = cluster;
+        session.application = application;
+        session.stopTasksOnExit = !cl.hasOption("keepTasksOnExit");
+        session.journal = openJournal(cl);
         
         // Authenticate
-        session.ssoToken = HSSUtilManager.getSecurityManager()
-                .authenticateUser(username, password);
+        timer.start("authenticate");
+        session.ssoToken = backend.authenticateUser(username, password);
         
         // Create session
-        session.sessionOM = new SessionOM();
-        session.sessionInfo = session.sessionOM.createSession(
-                session.ssoToken, Locale.ENGLISH, cluster, application);
+        timer.start("create_session");
+        session.hfm = backend.createSession(session.ssoToken, cluster, application);
+        openSessions.add(session);
+        timer.stop();
         
         return session;
     }
+    
+    // Closes the session inside the timed region, before the result is written
+    private static void closeSession(HfmSession session, PhaseTimer timer) {
+        timer.start("close_session");
+        session.close();
+        timer.stop();
+    }
 
     // ==================== Task Monitoring ====================
     
+    // watch may be null (wait as long as the tasks run); throws ExpiredException once a deadline is exceeded.
+    // With an estimate from --history, polls are spaced out until shortly before the predicted finish.
     private static boolean waitForTasks(HfmSession session, List<Integer> taskIds, 
-            int pollInterval, boolean verbose) throws Exception {
+            int pollInterval, boolean verbose, PhaseTimer timer, TaskDeadlines.Watch watch,
+            TaskHistory.Estimate estimate) throws Exception {
         
         if (taskIds == null || taskIds.isEmpty()) {
             return true; // No tasks to wait for
         }
         
-        AdministrationOM adminOM = new AdministrationOM(session.sessionInfo);
         boolean allCompleted = false;
         boolean anyFailed = false;
+        timer.waitStarted();
+        long waitStart = System.currentTimeMillis();
+        session.waitingOn = taskIds;
         
-        while (!allCompleted) {
-            List<RunningTaskProgress> progressList = adminOM.getCurrentTaskProgress(taskIds);
-            allCompleted = true;
-            
-            for (RunningTaskProgress progress : progressList) {
-                USERACTIVITYSTATUS status = progress.getTaskStatus();
-                String desc = progress.getDescription();
-                if (desc != null) desc = desc.replace("\r\n", " - ");
+        try {
+            while (!allCompleted) {
+                List<HfmBackend.TaskProgress> progressList = session.hfm.getCurrentTaskProgress(taskIds);
+                timer.poll();
+                allCompleted = true;
                 
-                if (verbose) {
-                    jsonProgress(progress.getTaskID(), desc, 
-                            progress.getPrecentCompleted(), status.toString());
+                for (HfmBackend.TaskProgress progress : progressList) {
+                    USERACTIVITYSTATUS status = progress.status;
+                    if (status != USERACTIVITYSTATUS.USERACTIVITYSTATUS_STARTING &&
+                        status != USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_START) {
+                        timer.taskStarted();
+                    }
+                    String desc = progress.description;
+                    if (desc != null) desc = desc.replace("\r\n", " - ");
+                    
+                    if (verbose) {
+                        jsonProgress(session.progressScope(), progress.taskId, desc, progress.percent, status);
+                    }
+                    
+                    // Check if task is still in progress
+                    if (isActive(status)) {
+                        allCompleted = false;
+                    } else if (isFailed(status)) {
+                        anyFailed = true;
+                    }
                 }
                 
-                // Check if task is still in progress
-                if (status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_RUNNING ||
-                    status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_STARTING ||
-                    status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_START ||
-                    status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_STOP) {
-                    allCompleted = false;
-                } else if (status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_ABORTED ||
-                           status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_STOPPED) {
-                    anyFailed = true;
+                if (!allCompleted && watch != null) {
+                    String reason = watch.check(progressList, System.currentTimeMillis());
+                    if (reason != null) {
+                        List<Integer> active = TaskDeadlines.active(progressList);
+                        throw new TaskDeadlines.ExpiredException(reason, taskIds, stopTasks(session, active));
+                    }
+                }
+                
+                if (!allCompleted) {
+                    long waited = System.currentTimeMillis() - waitStart;
+                    Thread.sleep(estimate != null ? estimate.pollDelay(waited, pollInterval) : pollInterval);
                 }
             }
+        } finally {
+            session.waitingOn = null;
+            events.forget(session.progressScope(), taskIds);
+        }
+        timer.stop();
+        
+        return !anyFailed;
+    }
+    
+    // Stops tasks on the server; returns the IDs that were stopped (none if the API has no stop call)
+    private static List<Integer> stopTasks(HfmSession session, List<Integer> taskIds) {
+        if (taskIds.isEmpty()) return taskIds;
+        try {
+            if (session.hfm.cancelTasks(taskIds)) return taskIds;
+            System.err.println("WARN: no task stop call (--backend oracle:stopTasks=<method>); tasks " + taskIds + " keep running");
+        } catch (Exception e) {
+            System.err.println("WARN: cannot stop tasks " + taskIds + ": " + e.getMessage());
+        }
+        return new ArrayList<Integer>();
+    }
+    
+    // A deadline was exceeded: the tasks count as failed in the journal so a rerun submits again
+    private static int jsonTimedOut(TaskDeadlines.ExpiredException e, CommandLine cl, String operation,
+            String application, long startTime, PhaseTimer timer) {
+        journalFinished(openJournal(cl), cl.getOptionValue("c"), e.taskIds, false);
+        long elapsed = System.currentTimeMillis() - startTime;
+        String stopped = e.stopped.isEmpty() ? "no tasks stopped" : "stopped tasks " + joinIds(e.stopped);
+        jsonOutput("TimedOut", e.getMessage() + "; " + stopped, operation, application, elapsed, e.taskIds, timer);
+        return EXIT_TIMED_OUT;
+    }
+    
+    static boolean isActive(USERACTIVITYSTATUS status) {
+        return status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_RUNNING ||
+               status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_STARTING ||
+               status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_START ||
+               status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_STOP;
+    }
+    
+    static boolean isFailed(USERACTIVITYSTATUS status) {
+        return status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_ABORTED ||
+               status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_STOPPED;
+    }
+
+    /**
+     * Shutdown hook. On a normal exit every session is already closed and
+     * this does nothing. On SIGTERM (e.g. a Control-M kill) while sessions
+     * are open it stops their in-flight tasks on the server (unless
+     * --keepTasksOnExit), closes the sessions, reports each one as
+     * Terminated and halts with exit code 8.
+     */
+    private static void onShutdown() {
+        List<HfmSession> sessions = new ArrayList<HfmSession>(openSessions);
+        if (sessions.isEmpty()) return;
+        terminating = true;
+        for (HfmSession session : sessions) {
+            List<Integer> ids = session.inFlight();
+            String what;
+            if (ids.isEmpty()) {
+                what = "no tasks in flight";
+            } else if (session.stopTasksOnExit) {
+                List<Integer> stopped = stopTasks(session, ids);
+                journalFinished(session.journal, session.cluster, ids, false);
+                what = stopped.isEmpty() ? "tasks " + joinIds(ids) + " could not be stopped" : "stopped tasks " + joinIds(stopped);
+            } else {
+                what = "tasks " + joinIds(ids) + " left running (--keepTasksOnExit)";
+            }
+            session.close();
+            jsonOutput("Terminated", "Process terminated; " + what, "Shutdown", session.application, 0,
+                    ids.isEmpty() ? null : ids, null);
+        }
+        bus.flush(EVENT_FLUSH_TIMEOUT_MS);
+        Runtime.getRuntime().halt(EXIT_TERMINATED);
+    }
+
+    // ==================== Operation: Wait / Status ====================
+    
+    // Attaches to tasks submitted earlier (e.g. with --async) and waits for all of them; unknown IDs exit 4
+    private static int doWait(CommandLine cl, int pollInterval, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        HfmSession session = null;
+        
+        try {
+            String username = cl.getOptionValue("u");
+            String password = cl.getOptionValue("p");
+            String cluster = cl.getOptionValue("c");
+            List<Integer> taskIds = parseTaskIds(cl.getOptionValue("taskIds"));
             
-            if (!allCompleted) {
-                Thread.sleep(pollInterval);
+            if (username == null || password == null || application == null || 
+                cluster == null || taskIds.isEmpty()) {
+                jsonError("Missing required parameters: -u, -p, -a, -c, --taskIds", "Wait", application);
+                return EXIT_INVALID_ARGS;
             }
+            
+            session = createSession(cl, username, password, cluster, application, timer);
+            
+            // An ID the server does not know (typo, purged, server restarted) never finishes; do not report it as done
+            timer.start("status");
+            List<Integer> unknown = unknownTasks(taskIds, session.hfm.getCurrentTaskProgress(taskIds));
+            timer.poll();
+            timer.stop();
+            if (!unknown.isEmpty()) {
+                closeSession(session, timer);
+                session = null;
+                jsonOutput("Unknown", "Tasks unknown to the server: " + joinIds(unknown),
+                        "Wait", application, System.currentTimeMillis() - startTime, taskIds, timer);
+                return EXIT_TASK_FAILED;
+            }
+            
+            boolean success = waitForTasks(session, taskIds, pollInterval, verbose, timer, TaskDeadlines.watch(cl), null);
+            closeSession(session, timer);
+            session = null;
+            journalFinished(openJournal(cl), cluster, taskIds, success);
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            if (success) {
+                jsonSuccess("All tasks completed successfully", "Wait", 
+                        application, elapsed, taskIds, timer);
+                return EXIT_SUCCESS;
+            } else {
+                jsonOutput("Failed", "One or more tasks failed", 
+                        "Wait", application, elapsed, taskIds, timer);
+                return EXIT_TASK_FAILED;
+            }
+            
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "Wait", application, startTime, timer);
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Wait", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
         }
+    }
+    
+    // One progress call: prints each task's progress and exits 0 (all done), 4 (any failed or unknown) or 6 (still running)
+    private static int doStatus(CommandLine cl, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        HfmSession session = null;
         
-        return !anyFailed;
+        try {
+            String username = cl.getOptionValue("u");
+            String password = cl.getOptionValue("p");
+            String cluster = cl.getOptionValue("c");
+            List<Integer> taskIds = parseTaskIds(cl.getOptionValue("taskIds"));
+            
+            if (username == null || password == null || application == null || 
+                cluster == null || taskIds.isEmpty()) {
+                jsonError("Missing required parameters: -u, -p, -a, -c, --taskIds", "Status", application);
+                return EXIT_INVALID_ARGS;
+            }
+            
+            session = createSession(cl, username, password, cluster, application, timer);
+            timer.start("status");
+            List<HfmBackend.TaskProgress> progressList = session.hfm.getCurrentTaskProgress(taskIds);
+            timer.poll();
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
+            
+            int active = 0;
+            int failed = 0;
+            int unknown = unknownTasks(taskIds, progressList).size();
+            String scope = cluster + "/" + application;
+            StringBuilder summary = new StringBuilder();
+            for (HfmBackend.TaskProgress progress : progressList) {
+                String desc = progress.description;
+                if (desc != null) desc = desc.replace("\r\n", " - ");
+                jsonProgress(scope, progress.taskId, desc, progress.percent, progress.status);
+                if (isActive(progress.status)) active++;
+                else if (isFailed(progress.status)) failed++;
+                summary.append(summary.length() == 0 ? "" : ", ")
+                        .append(progress.taskId).append("=").append(progress.status);
+            }
+            events.forget(scope, taskIds);
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            if (failed > 0) {
+                jsonOutput("Failed", summary.toString(), "Status", application, elapsed, taskIds, timer);
+                return EXIT_TASK_FAILED;
+            } else if (unknown > 0) {
+                jsonOutput("Unknown", summary.toString(), "Status", application, elapsed, taskIds, timer);
+                return EXIT_TASK_FAILED;
+            } else if (active > 0) {
+                jsonOutput("Running", summary.toString(), "Status", application, elapsed, taskIds, timer);
+                return EXIT_TASKS_RUNNING;
+            } else {
+                jsonSuccess(summary.toString(), "Status", application, elapsed, taskIds, timer);
+                return EXIT_SUCCESS;
+            }
+            
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Status", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
+        }
     }
     
-    private static boolean waitForServerTask(HfmSession session, ServerTaskInfo taskInfo,
-            int pollInterval, boolean verbose) throws Exception {
-        List<Integer> taskIds = taskInfo.getTaskIDs();
-        return waitForTasks(session, taskIds, pollInterval, verbose);
+    // Parses --taskIds "101,102 103"; an empty or missing value gives an empty list
+    static List<Integer> parseTaskIds(String value) {
+        List<Integer> ids = new ArrayList<Integer>();
+        if (value == null) return ids;
+        for (String part : value.split("[,;\\s]+")) {
+            if (part.length() > 0) ids.add(Integer.valueOf(part));
+        }
+        return ids;
     }
     
-    // Wait for single task ID (used by extractData which returns int)
-    private static boolean waitForTask(HfmSession session, int taskId,
-            int pollInterval, boolean verbose) throws Exception {
-        List<Integer> taskIds = new ArrayList<Integer>();
-        taskIds.add(taskId);
-        return waitForTasks(session, taskIds, pollInterval, verbose);
+    static String joinIds(List<Integer> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Integer id : ids) {
+            if (sb.length() > 0) sb.append(",");
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    // ==================== Task Journal ====================
+    
+    // --journal FILE enables re-attaching on rerun; --journalWindow is in minutes
+    private static TaskJournal openJournal(CommandLine cl) {
+        if (!cl.hasOption("journal")) return null;
+        long windowMs = Long.parseLong(cl.getOptionValue("journalWindow", "30")) * 60 * 1000;
+        return new TaskJournal(new File(cl.getOptionValue("journal")), windowMs);
+    }
+    
+    // Serializes identical requests sharing a journal so only the first one submits
+    private static TaskJournal.SubmitLock lockSubmit(TaskJournal journal, String key, CommandLine cl) {
+        if (journal == null || cl.hasOption("resubmit")) return null;
+        try {
+            return journal.lock(key);
+        } catch (Exception e) {
+            System.err.println("WARN: cannot lock task journal: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Task IDs already submitted for the same request (earlier run or concurrent job), or null to submit.
+    // Journaled tasks the server no longer knows (restart, purged task list) are submitted again.
+    private static List<Integer> reattach(HfmSession session, TaskJournal journal, String key, CommandLine cl) {
+        if (journal == null || cl.hasOption("resubmit")) return null;
+        try {
+            TaskJournal.Entry entry = journal.find(key);
+            if (entry == null) return null;
+            List<Integer> unknown = unknownTasks(entry.taskIds, session.hfm.getCurrentTaskProgress(entry.taskIds));
+            if (!unknown.isEmpty()) {
+                System.err.println("WARN: journaled tasks " + joinIds(unknown) + " are unknown to the server; submitting again");
+                return null;
+            }
+            return entry.taskIds;
+        } catch (Exception e) {
+            System.err.println("WARN: cannot read task journal: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // IDs the server reports as NOT_RUNNING or leaves out of the progress list, i.e. tasks it does not know
+    static List<Integer> unknownTasks(List<Integer> taskIds, List<HfmBackend.TaskProgress> progressList) {
+        Set<Integer> known = new HashSet<Integer>();
+        for (HfmBackend.TaskProgress progress : progressList) {
+            if (progress.status != USERACTIVITYSTATUS.USERACTIVITYSTATUS_NOT_RUNNING) known.add(progress.taskId);
+        }
+        List<Integer> unknown = new ArrayList<Integer>();
+        for (Integer id : taskIds) {
+            if (!known.contains(id)) unknown.add(id);
+        }
+        return unknown;
+    }
+    
+    private static void journalSubmitted(TaskJournal journal, String key, String cluster, List<Integer> taskIds) {
+        if (journal == null || taskIds == null || taskIds.isEmpty()) return;
+        try {
+            journal.submitted(key, cluster, taskIds);
+        } catch (Exception e) {
+            System.err.println("WARN: cannot write task journal: " + e.getMessage());
+        }
+    }
+    
+    private static void journalFinished(TaskJournal journal, String cluster, List<Integer> taskIds, boolean success) {
+        if (journal == null) return;
+        try {
+            journal.finished(cluster, taskIds, success ? "OK" : "Failed");
+        } catch (Exception e) {
+            System.err.println("WARN: cannot write task journal: " + e.getMessage());
+        }
+    }
+    
+    // ==================== Extract Verification (--verify) ====================
+    
+    /**
+     * With --verify, reads the extract file (--extractFile, else the file
+     * the backend reported) and checks it; null without --verify.
+     */
+    private static ExtractVerifier.Result verifyExtract(CommandLine cl, String operation, String backendFile,
+            boolean dataColumns, PhaseTimer timer) throws IOException {
+        if (!cl.hasOption("verify")) return null;
+        String path = cl.getOptionValue("extractFile", backendFile);
+        if (path == null) {
+            ExtractVerifier.Result missing = new ExtractVerifier.Result(new File(""));
+            missing.problem = "no extract file to verify; pass --extractFile";
+            return missing;
+        }
+        String delimiter = cl.getOptionValue("d", ";");
+        long minRows = Long.parseLong(cl.getOptionValue("minRows", "1"));
+        timer.start("verify");
+        ExtractVerifier.Result verified = new ExtractVerifier(delimiter.isEmpty() ? ';' : delimiter.charAt(0),
+                dataColumns, minRows).verify(new File(path));
+        timer.stop();
+        metrics.recordFileBytes(operation, "extract", verified.bytes);
+        return verified;
+    }
+    
+    /**
+     * With --store, keeps the extract in the content-addressed store (see
+     * ExtractStore); null without --store or when --verify rejected the file.
+     */
+    private static ExtractStore.Entry storeExtract(CommandLine cl, String operation, String application,
+            String backendFile, ExtractVerifier.Result verified, PhaseTimer timer) throws IOException {
+        if (!cl.hasOption("store")) return null;
+        if (verified != null && !verified.ok()) return null;
+        String path = cl.getOptionValue("extractFile", backendFile);
+        if (path == null) throw new IOException("no extract file to store; pass --extractFile");
+        timer.start("store");
+        ExtractStore.Entry stored = new ExtractStore(new File(cl.getOptionValue("store")))
+                .put(application, operation, new File(path), verified != null ? verified.sha256 : null);
+        timer.stop();
+        return stored;
+    }
+    
+    // Extract finished: OK, or Failed (exit 4) when --verify found a problem with the file
+    private static int extractDone(String message, String operation, String application, long elapsed,
+            List<Integer> taskIds, PhaseTimer timer, ExtractVerifier.Result verified, String details) {
+        if (verified != null) details = joinDetails(details, verified.toJson());
+        if (verified != null && !verified.ok()) {
+            jsonOutput("Failed", message + " but the file failed verification: " + verified.problem,
+                    operation, application, elapsed, taskIds, timer, details);
+            return EXIT_TASK_FAILED;
+        }
+        jsonOutput("OK", message, operation, application, elapsed, taskIds, timer, details);
+        return EXIT_SUCCESS;
+    }
+    
+    // ==================== Task History (--history) ====================
+    
+    private static TaskHistory openHistory(CommandLine cl) {
+        return cl.hasOption("history") ? new TaskHistory(new File(cl.getOptionValue("history"))) : null;
+    }
+    
+    // Prediction for the tasks about to be waited for; with -v it is printed right away
+    private static TaskHistory.Estimate predict(TaskHistory history, String key, long fileBytes,
+            String operation, List<Integer> taskIds, boolean verbose) {
+        if (history == null) return null;
+        try {
+            TaskHistory.Estimate estimate = history.predict(key, fileBytes);
+            if (estimate != null && verbose) {
+                bus.publish(EventBus.Event.progress(events.prediction(operation, taskIds, estimate.toJson())));
+            }
+            return estimate;
+        } catch (Exception e) {
+            System.err.println("WARN: cannot read task history: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void recordHistory(TaskHistory history, String key, long fileBytes, PhaseTimer timer, boolean success) {
+        if (history == null) return;
+        try {
+            history.record(key, fileBytes, timer.phaseNanos("queue_wait") / 1000000,
+                    timer.phaseNanos("run") / 1000000, success ? "OK" : "Failed");
+        } catch (Exception e) {
+            System.err.println("WARN: cannot write task history: " + e.getMessage());
+        }
+    }
+    
+    // Joins two JSON detail fragments, either of which may be null
+    private static String joinDetails(String a, String b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a + "," + b;
+    }
+    
+    private static String reattachNote(boolean reattached) {
+        return reattached ? " (attached to tasks already submitted for the same request)" : "";
+    }
+    
+    // A load file that changed since the earlier run must be loaded again
+    private static String loadFileStamp(String dataFile) {
+        File f = new File(dataFile);
+        return "file=" + f.length() + "@" + f.lastModified();
+    }
+
+    // ==================== Admission Control ====================
+    
+    /**
+     * --admitLimits: waits for a slot of the operation class on this
+     * cluster/application (see AdmissionControl). The wait is reported as the
+     * admission_wait phase when a timer is given. Returns null when no limit
+     * applies.
+     */
+    private static AdmissionControl.Slot admit(CommandLine cl, String operationClass,
+            String cluster, String application, PhaseTimer timer) throws Exception {
+        if (!cl.hasOption("admitLimits")) return null;
+        File dir = new File(cl.getOptionValue("admitDir",
+                new File(System.getProperty("java.io.tmpdir"), "hfmcli-admission").getPath()));
+        AdmissionControl admission = new AdmissionControl(dir, AdmissionControl.parseLimits(cl.getOptionValue("admitLimits")));
+        if (timer != null) timer.start("admission_wait");
+        AdmissionControl.Slot slot = admission.acquire(operationClass, cluster, application);
+        if (timer != null) timer.stop();
+        return slot;
+    }
+
+    // Operation class of a Workflow stage; translate runs on the consolidation engine
+    private static String admissionClass(String stage) {
+        if (stage.equals("load")) return "load";
+        if (stage.equals("extract")) return "extract";
+        return "consolidate";
     }
 
     // ==================== Consolidation Types Mapping ====================
@@ -224,12 +738,36 @@ public class HfmCli {
         }
     }
 
+    /**
+     * Calc status pre-check (--precheck or -t Auto): drops slices that are
+     * already OK. requested is the type for dirty slices, null for Auto.
+     * Returns null when calc status is unavailable; the POV is then
+     * consolidated as a whole.
+     */
+    private static CalcStatusPlan planConsolidation(HfmSession session, String pov,
+            WEBOMDATAGRIDTASKMASKENUM requested) {
+        List<String> slices = CalcStatusPlan.slices(pov);
+        try {
+            List<String> statuses = session.hfm.getCalcStatus(slices);
+            if (statuses == null) {
+                System.err.println("WARN: calc status not available (--backend oracle:calcStatus=<method>); consolidating the full POV");
+                return null;
+            }
+            return CalcStatusPlan.build(slices, statuses, requested);
+        } catch (Exception e) {
+            System.err.println("WARN: calc status check failed (" + e.getMessage() + "); consolidating the full POV");
+            return null;
+        }
+    }
+
     // ==================== Operation: Consolidate ====================
     
     private static int doConsolidate(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
+        AdmissionControl.Slot slot = null;
         
         try {
             String username = cl.getOptionValue("u");
@@ -245,59 +783,250 @@ public class HfmCli {
                 return EXIT_INVALID_ARGS;
             }
             
+            slot = admit(cl, "consolidate", cluster, application, timer);
+            
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Execute consolidation
-            DataOM dataOM = new DataOM(session.sessionInfo);
             List<String> povList = new ArrayList<String>();
             povList.add(pov);
             
+            // Auto picks Impacted or AllWithData per slice from its calc status
+            boolean auto = type.trim().equalsIgnoreCase("auto");
             WEBOMDATAGRIDTASKMASKENUM consolidationType = getConsolidationType(type);
-            ServerTaskInfo taskInfo = dataOM.executeServerTask(consolidationType, povList);
+            // Auto and --precheck skip slices, so they neither coalesce nor share history with a plain request
+            String mode = auto ? "auto" : cl.hasOption("precheck") ? "precheck" : null;
+            TaskJournal journal = openJournal(cl);
+            String journalKey = TaskJournal.coalesceKey("Consolidate", cluster, application, consolidationType, mode, pov);
+            List<Integer> taskIds;
+            boolean reattached;
+            CalcStatusPlan plan = null;
+            TaskJournal.SubmitLock submitLock = lockSubmit(journal, journalKey, cl);
+            try {
+                taskIds = reattach(session, journal, journalKey, cl);
+                reattached = taskIds != null;
+                if (!reattached) {
+                    if (auto || cl.hasOption("precheck")) {
+                        timer.start("calc_status");
+                        plan = planConsolidation(session, pov, auto ? null : consolidationType);
+                        timer.stop();
+                    }
+                    timer.start("submit");
+                    if (plan != null) {
+                        taskIds = new ArrayList<Integer>();
+                        for (Map.Entry<WEBOMDATAGRIDTASKMASKENUM, List<String>> e : plan.submissions.entrySet()) {
+                            taskIds.addAll(session.hfm.executeServerTask(e.getKey(), e.getValue()));
+                        }
+                    } else {
+                        taskIds = session.hfm.executeServerTask(consolidationType, povList);
+                    }
+                    timer.stop();
+                    journalSubmitted(journal, journalKey, cluster, taskIds);
+                }
+            } finally {
+                if (submitLock != null) submitLock.release();
+            }
             
-            // Wait for completion
-            List<Integer> taskIds = taskInfo.getTaskIDs();
-            boolean success = waitForServerTask(session, taskInfo, pollInterval, verbose);
+            if (cl.hasOption("async")) {
+                closeSession(session, timer);
+                session = null;
+                return jsonSubmitted("Consolidation", "Consolidate", application, startTime, taskIds, timer);
+            }
+            
+            // Wait for completion; --history predicts how long and paces the polls
+            TaskHistory history = openHistory(cl);
+            // Keyed on the enum, so "awd" and "AllWithData" share a history
+            String historyKey = TaskHistory.key("Consolidate", application,
+                    consolidationType.name() + (mode != null ? "+" + mode : ""), pov);
+            TaskHistory.Estimate estimate = predict(history, historyKey, 0, "Consolidate", taskIds, verbose);
+            boolean success = waitForTasks(session, taskIds, pollInterval, verbose, timer, TaskDeadlines.watch(cl), estimate);
+            closeSession(session, timer);
+            session = null;
+            journalFinished(journal, cluster, taskIds, success);
+            if (!reattached) recordHistory(history, historyKey, 0, timer, success);
             
             long elapsed = System.currentTimeMillis() - startTime;
             
+            String skipNote = plan != null && plan.skipped > 0
+                    ? "; skipped " + plan.skipped + " of " + plan.subcubes + " subcubes already OK" : "";
+            String details = joinDetails(plan != null ? plan.toJson() : null, estimate != null ? estimate.toJson() : null);
+            
             if (success) {
-                jsonSuccess("Consolidation completed successfully", "Consolidate", 
-                        application, elapsed, taskIds);
+                jsonOutput("OK", "Consolidation completed successfully" + reattachNote(reattached) + skipNote, 
+                        "Consolidate", application, elapsed, taskIds, timer, details);
                 return EXIT_SUCCESS;
             } else {
-                jsonOutput(System.out, "Failed", "One or more consolidation tasks failed", 
-                        "Consolidate", application, elapsed, taskIds);
+                jsonOutput("Failed", "One or more consolidation tasks failed" + reattachNote(reattached) + skipNote, 
+                        "Consolidate", application, elapsed, taskIds, timer, details);
                 return EXIT_TASK_FAILED;
             }
             
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "Consolidate", application, startTime, timer);
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "Consolidate", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Consolidate", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
             if (session != null) session.close();
+            if (slot != null) slot.release();
+        }
+    }
+
+    /**
+     * Consolidate with --planEntities and --hierarchy: plans the target
+     * entities with EntityPlanner and runs the plan level by level, bottom-up.
+     * Each level is one executeServerTask call with one POV per unit (the -s
+     * POV with E# replaced), with the -t type at the bottom level and
+     * Impacted above it; the next level starts when all of its tasks are
+     * done. --async, --journal, --precheck and -t Auto are not supported here
+     * and are rejected.
+     */
+    private static int doConsolidatePlan(CommandLine cl, int pollInterval, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        HfmSession session = null;
+        AdmissionControl.Slot slot = null;
+        List<Integer> taskIds = new ArrayList<Integer>();
+        
+        try {
+            String username = cl.getOptionValue("u");
+            String password = cl.getOptionValue("p");
+            String cluster = cl.getOptionValue("c");
+            String pov = cl.getOptionValue("s");
+            String type = cl.getOptionValue("t", "AllWithData");
+            String hierarchy = cl.getOptionValue("hierarchy");
+            int width = Integer.parseInt(cl.getOptionValue("parallel", "4"));
+            boolean planOnly = cl.hasOption("planOnly");
+            
+            if (pov == null || hierarchy == null || (!planOnly && (username == null || password == null ||
+                    application == null || cluster == null))) {
+                jsonError("Missing required parameters: -u, -p, -a, -c, -s, --hierarchy, --planEntities", "Consolidate", application);
+                return EXIT_INVALID_ARGS;
+            }
+            for (String unsupported : new String[] {"async", "journal", "precheck"}) {
+                if (cl.hasOption(unsupported)) {
+                    jsonError("--" + unsupported + " is not supported with --planEntities", "Consolidate", application);
+                    return EXIT_INVALID_ARGS;
+                }
+            }
+            if (type.trim().equalsIgnoreCase("auto")) {
+                jsonError("-t Auto is not supported with --planEntities; choose the type", "Consolidate", application);
+                return EXIT_INVALID_ARGS;
+            }
+            
+            timer.start("plan");
+            List<String> targets = new ArrayList<String>();
+            for (String e : cl.getOptionValue("planEntities").split("[,;]")) {
+                if (e.trim().length() > 0) targets.add(e.trim());
+            }
+            EntityPlanner.Plan plan = EntityPlanner.load(new File(hierarchy)).plan(targets, width);
+            timer.stop();
+            
+            if (planOnly) {
+                jsonOutput("OK", "Plan only: " + plan.units() + " units in " + plan.levels.size() + " levels; nothing submitted",
+                        "Consolidate", application, System.currentTimeMillis() - startTime, null, timer, plan.toJson());
+                return EXIT_SUCCESS;
+            }
+            
+            slot = admit(cl, "consolidate", cluster, application, timer);
+            
+            session = createSession(cl, username, password, cluster, application, timer);
+            
+            // The requested type at the bottom level; above it Impacted rolls up the finished units
+            WEBOMDATAGRIDTASKMASKENUM bottomType = getConsolidationType(type);
+            boolean success = true;
+            TaskDeadlines.Watch watch = TaskDeadlines.watch(cl);   // one budget for all levels
+            for (int level = 0; level < plan.levels.size() && success; level++) {
+                List<String> povList = new ArrayList<String>();
+                for (String entity : plan.levels.get(level)) {
+                    HFMpovInfo.PovTokens tokens = HFMpovInfo.parsePov(pov);
+                    tokens.entity = entity;
+                    povList.add(tokens.format());
+                }
+                timer.start("submit");
+                List<Integer> levelIds = session.hfm.executeServerTask(
+                        level == 0 ? bottomType : CalcStatusPlan.IMPACTED, povList);
+                timer.stop();
+                taskIds.addAll(levelIds);
+                success = waitForTasks(session, levelIds, pollInterval, verbose, timer, watch, null);
+            }
+            closeSession(session, timer);
+            session = null;
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            if (success) {
+                jsonOutput("OK", "Consolidation plan completed successfully (" + plan.units() + " units, "
+                        + plan.levels.size() + " levels)", "Consolidate", application, elapsed, taskIds, timer, plan.toJson());
+                return EXIT_SUCCESS;
+            } else {
+                jsonOutput("Failed", "Consolidation plan stopped: a task failed; later levels were not submitted",
+                        "Consolidate", application, elapsed, taskIds, timer, plan.toJson());
+                return EXIT_TASK_FAILED;
+            }
+            
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "Consolidate", application, startTime, timer);
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Consolidate", application, elapsed, taskIds.isEmpty() ? null : taskIds, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
+            if (slot != null) slot.release();
         }
     }
 
     // ==================== Operation: Load Data ====================
     
+    // Load options from -d, --loadMode and --accumulate (shared with Workflow)
+    private static DataLoadOptions loadOptions(CommandLine cl) {
+        String delimiter = cl.getOptionValue("d", ";");
+        String loadMode = cl.getOptionValue("loadMode", "Merge");
+        boolean accumulate = Boolean.parseBoolean(cl.getOptionValue("accumulate", "false"));
+        
+        DataLoadOptions options = new DataLoadOptions();
+        options.setDelimiter(delimiter);
+        options.setAccumulateWithinFile(accumulate);
+        options.setAppendToLogFile(false);
+        options.setContainSharesData(true);
+        options.setContainSubmissionPhaseData(false);
+        options.setDecimalChar("");
+        options.setThousandsChar("");
+        options.loadCalculated = false;
+        
+        // Set load mode
+        if ("replace".equalsIgnoreCase(loadMode)) {
+            options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_REPLACE);
+        } else if ("accumulate".equalsIgnoreCase(loadMode)) {
+            options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_ACCUMULATE);
+        } else {
+            options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_MERGE);
+        }
+        options.setMode(LOAD_MODE.LOAD);
+        options.setFileFormat(DATALOAD_FILE_FORMAT.DATALOAD_FILE_FORMAT_NATIVE);
+        return options;
+    }
+    
     private static int doLoadData(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
+        AdmissionControl.Slot slot = null;
         
         try {
             String username = cl.getOptionValue("u");
             String password = cl.getOptionValue("p");
             String cluster = cl.getOptionValue("c");
             String dataFile = cl.getOptionValue("f");
-            String delimiter = cl.getOptionValue("d", ";");
-            String loadMode = cl.getOptionValue("loadMode", "Merge");
-            boolean accumulate = Boolean.parseBoolean(cl.getOptionValue("accumulate", "false"));
             
             // Validate required parameters
             if (username == null || password == null || application == null || 
@@ -306,64 +1035,76 @@ public class HfmCli {
                 return EXIT_INVALID_ARGS;
             }
             
-            // Create session
-            session = createSession(username, password, cluster, application);
+            slot = admit(cl, "load", cluster, application, timer);
             
-            // Build load options
-            DataLoadOptions options = new DataLoadOptions();
-            options.setDelimiter(delimiter);
-            options.setAccumulateWithinFile(accumulate);
-            options.setAppendToLogFile(false);
-            options.setContainSharesData(true);
-            options.setContainSubmissionPhaseData(false);
-            options.setDecimalChar("");
-            options.setThousandsChar("");
-            options.loadCalculated = false;
-            
-            // Set load mode
-            if ("replace".equalsIgnoreCase(loadMode)) {
-                options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_REPLACE);
-            } else if ("accumulate".equalsIgnoreCase(loadMode)) {
-                options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_ACCUMULATE);
-            } else {
-                options.setDuplicates(DATALOAD_DUPLICATE_HANDLING.DATALOAD_MERGE);
-            }
-            options.setMode(LOAD_MODE.LOAD);
-            options.setFileFormat(DATALOAD_FILE_FORMAT.DATALOAD_FILE_FORMAT_NATIVE);
+            // Create session
+            session = createSession(cl, username, password, cluster, application, timer);
             
             List<DataLoadOptions> optsList = new ArrayList<DataLoadOptions>();
-            optsList.add(options);
+            optsList.add(loadOptions(cl));
             
             List<String> files = new ArrayList<String>();
             files.add(new File(dataFile).getPath());
+            metrics.recordFileBytes("LoadData", "load", new File(dataFile).length());
             
             // Execute load
-            LoadExtractOM loadOM = new LoadExtractOM(session.sessionInfo);
-            List<Integer> taskIds = loadOM.loadData(files, optsList);
+            TaskJournal journal = openJournal(cl);
+            String journalKey = TaskJournal.key("LoadData", cl, loadFileStamp(dataFile));
+            List<Integer> taskIds;
+            boolean reattached;
+            TaskJournal.SubmitLock submitLock = lockSubmit(journal, journalKey, cl);
+            try {
+                taskIds = reattach(session, journal, journalKey, cl);
+                reattached = taskIds != null;
+                if (!reattached) {
+                    timer.start("submit");
+                    taskIds = session.hfm.loadData(files, optsList);
+                    timer.stop();
+                    journalSubmitted(journal, journalKey, cluster, taskIds);
+                }
+            } finally {
+                if (submitLock != null) submitLock.release();
+            }
+            
+            if (cl.hasOption("async")) {
+                closeSession(session, timer);
+                session = null;
+                return jsonSubmitted("Data load", "LoadData", application, startTime, taskIds, timer);
+            }
             
-            // Wait for completion
-            boolean success = waitForTasks(session, taskIds, pollInterval, verbose);
+            // Wait for completion; --history predicts how long and paces the polls
+            TaskHistory history = openHistory(cl);
+            String historyKey = TaskHistory.loadKey(application, cl.getOptionValue("loadMode", "Merge"), dataFile);
+            TaskHistory.Estimate estimate = predict(history, historyKey, new File(dataFile).length(), "LoadData", taskIds, verbose);
+            boolean success = waitForTasks(session, taskIds, pollInterval, verbose, timer, TaskDeadlines.watch(cl), estimate);
+            closeSession(session, timer);
+            session = null;
+            journalFinished(journal, cluster, taskIds, success);
+            if (!reattached) recordHistory(history, historyKey, new File(dataFile).length(), timer, success);
             
             long elapsed = System.currentTimeMillis() - startTime;
             
             if (success) {
-                jsonSuccess("Data load completed successfully", "LoadData", 
-                        application, elapsed, taskIds);
+                jsonOutput("OK", "Data load completed successfully" + reattachNote(reattached), "LoadData", 
+                        application, elapsed, taskIds, timer, estimate != null ? estimate.toJson() : null);
                 return EXIT_SUCCESS;
             } else {
-                jsonOutput(System.out, "Failed", "Data load task failed", 
-                        "LoadData", application, elapsed, taskIds);
+                jsonOutput("Failed", "Data load task failed" + reattachNote(reattached), 
+                        "LoadData", application, elapsed, taskIds, timer, estimate != null ? estimate.toJson() : null);
                 return EXIT_TASK_FAILED;
             }
             
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "LoadData", application, startTime, timer);
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "LoadData", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "LoadData", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
             if (session != null) session.close();
+            if (slot != null) slot.release();
         }
     }
 
@@ -371,8 +1112,10 @@ public class HfmCli {
     
     private static int doTranslate(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
+        AdmissionControl.Slot slot = null;
         
         try {
             String username = cl.getOptionValue("u");
@@ -388,11 +1131,12 @@ public class HfmCli {
                 return EXIT_INVALID_ARGS;
             }
             
+            slot = admit(cl, "consolidate", cluster, application, timer);
+            
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Execute translation
-            DataOM dataOM = new DataOM(session.sessionInfo);
             List<String> povList = new ArrayList<String>();
             povList.add(pov);
             
@@ -400,144 +1144,725 @@ public class HfmCli {
                     WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_FORCETRANSLATE :
                     WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_TRANSLATE;
             
-            ServerTaskInfo taskInfo = dataOM.executeServerTask(translateType, povList);
+            TaskJournal journal = openJournal(cl);
+            String journalKey = TaskJournal.coalesceKey("Translate", cluster, application, translateType, null, pov);
+            List<Integer> taskIds;
+            boolean reattached;
+            TaskJournal.SubmitLock submitLock = lockSubmit(journal, journalKey, cl);
+            try {
+                taskIds = reattach(session, journal, journalKey, cl);
+                reattached = taskIds != null;
+                if (!reattached) {
+                    timer.start("submit");
+                    taskIds = session.hfm.executeServerTask(translateType, povList);
+                    timer.stop();
+                    journalSubmitted(journal, journalKey, cluster, taskIds);
+                }
+            } finally {
+                if (submitLock != null) submitLock.release();
+            }
+            
+            if (cl.hasOption("async")) {
+                closeSession(session, timer);
+                session = null;
+                return jsonSubmitted("Translation", "Translate", application, startTime, taskIds, timer);
+            }
             
-            // Wait for completion
-            List<Integer> taskIds = taskInfo.getTaskIDs();
-            boolean success = waitForServerTask(session, taskInfo, pollInterval, verbose);
+            // Wait for completion; --history predicts how long and paces the polls
+            TaskHistory history = openHistory(cl);
+            String historyKey = TaskHistory.key("Translate", application, translateType.toString(), pov);
+            TaskHistory.Estimate estimate = predict(history, historyKey, 0, "Translate", taskIds, verbose);
+            boolean success = waitForTasks(session, taskIds, pollInterval, verbose, timer, TaskDeadlines.watch(cl), estimate);
+            closeSession(session, timer);
+            session = null;
+            journalFinished(journal, cluster, taskIds, success);
+            if (!reattached) recordHistory(history, historyKey, 0, timer, success);
             
             long elapsed = System.currentTimeMillis() - startTime;
             
             if (success) {
-                jsonSuccess("Translation completed successfully", "Translate", 
-                        application, elapsed, taskIds);
+                jsonOutput("OK", "Translation completed successfully" + reattachNote(reattached), "Translate", 
+                        application, elapsed, taskIds, timer, estimate != null ? estimate.toJson() : null);
+                return EXIT_SUCCESS;
+            } else {
+                jsonOutput("Failed", "Translation task failed" + reattachNote(reattached), 
+                        "Translate", application, elapsed, taskIds, timer, estimate != null ? estimate.toJson() : null);
+                return EXIT_TASK_FAILED;
+            }
+            
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "Translate", application, startTime, timer);
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Translate", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
+            if (slot != null) slot.release();
+        }
+    }
+
+    // ==================== Operation: Extract Data ====================
+    
+    // Explicit --extractFormat, else warehouse for *ToDatabase or when --dsn is given, else flatfile
+    private static String extractFormat(CommandLine cl, String operationName) {
+        String extractFormat = cl.getOptionValue("extractFormat");
+        if (extractFormat == null) {
+            if (operationName != null && operationName.contains("database")) {
+                extractFormat = "warehouse";
+            } else if (cl.getOptionValue("dsn") != null) {
+                // If DSN is provided, assume database extract
+                extractFormat = "warehouse";
+            } else {
+                extractFormat = "flatfile";
+            }
+        }
+        return extractFormat;
+    }
+    
+    // Extract options for one POV (shared with Workflow)
+    private static DataExtractOptions extractOptions(CommandLine cl, String pov, String extractFormat) {
+        String delimiter = cl.getOptionValue("d", ";");
+        boolean calculatedData = Boolean.parseBoolean(cl.getOptionValue("calculatedData", "false"));
+        boolean derivedData = Boolean.parseBoolean(cl.getOptionValue("derivedData", "false"));
+        boolean dynamicAccounts = Boolean.parseBoolean(cl.getOptionValue("dynamicAccounts", "false"));
+        
+        // Database options
+        String dsn = cl.getOptionValue("dsn");
+        String prefix = cl.getOptionValue("prefix", "HFM_");
+        
+        DataExtractOptions options = new DataExtractOptions();
+        options.setDelimiter(delimiter);
+        options.setMetadataSlice(pov);  // POV goes in metadataSlice
+        options.setIncludeCalculatedData(calculatedData);
+        options.setIncludeDerivedData(derivedData);
+        options.setIncludeDynamicAccounts(dynamicAccounts);
+        options.setIncludeData(true);
+        
+        // Set extract format based on type
+        String fmt = extractFormat.toLowerCase().replace(" ", "").replace("_", "");
+        if (fmt.contains("noheader") || fmt.contains("flatfilenoheader")) {
+            options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE_NOHEADER);
+        } else if (fmt.contains("flatfile") || fmt.contains("standard")) {
+            options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE);
+        } else if (fmt.contains("warehouse") || fmt.contains("database")) {
+            options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_WAREHOUSE);
+            if (dsn != null) {
+                options.setDSN(dsn);
+                options.setTablePrefix(prefix);
+            }
+        } else if (fmt.contains("essbase")) {
+            options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_ESSBASE);
+        } else {
+            options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE);
+        }
+        return options;
+    }
+    
+    private static int doExtractData(CommandLine cl, int pollInterval, boolean verbose, String operationName) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        HfmSession session = null;
+        AdmissionControl.Slot slot = null;
+        
+        try {
+            String username = cl.getOptionValue("u");
+            String password = cl.getOptionValue("p");
+            String cluster = cl.getOptionValue("c");
+            String pov = cl.getOptionValue("s");
+            String dsn = cl.getOptionValue("dsn");
+            String extractFormat = extractFormat(cl, operationName);
+            
+            // Validate required parameters
+            if (username == null || password == null || application == null || 
+                cluster == null || pov == null) {
+                jsonError("Missing required parameters: -u, -p, -a, -c, -s", "ExtractData", application);
+                return EXIT_INVALID_ARGS;
+            }
+            
+            // For database extract, DSN is required
+            if (extractFormat.toLowerCase().contains("warehouse") || 
+                extractFormat.toLowerCase().contains("database")) {
+                if (dsn == null) {
+                    jsonError("Missing required parameter --dsn for database extract", "ExtractData", application);
+                    return EXIT_INVALID_ARGS;
+                }
+            }
+            
+            slot = admit(cl, "extract", cluster, application, timer);
+            
+            // Create session
+            session = createSession(cl, username, password, cluster, application, timer);
+            
+            // Build extract options
+            DataExtractOptions options = extractOptions(cl, pov, extractFormat);
+            
+            // Execute extract - returns single int task ID
+            TaskJournal journal = openJournal(cl);
+            String journalKey = TaskJournal.key("ExtractData", cl, null);
+            List<Integer> taskIds;
+            boolean reattached;
+            TaskJournal.SubmitLock submitLock = lockSubmit(journal, journalKey, cl);
+            try {
+                taskIds = reattach(session, journal, journalKey, cl);
+                reattached = taskIds != null;
+                if (!reattached) {
+                    timer.start("submit");
+                    int taskId = session.hfm.extractData(options);
+                    timer.stop();
+                    taskIds = new ArrayList<Integer>();
+                    taskIds.add(taskId);
+                    journalSubmitted(journal, journalKey, cluster, taskIds);
+                }
+            } finally {
+                if (submitLock != null) submitLock.release();
+            }
+            if (cl.hasOption("async")) {
+                closeSession(session, timer);
+                session = null;
+                return jsonSubmitted("Data extract", "ExtractData", application, startTime, taskIds, timer);
+            }
+            
+            // Wait for completion; --history predicts how long and paces the polls
+            TaskHistory history = openHistory(cl);
+            String historyKey = TaskHistory.key("ExtractData", application, extractFormat, pov);
+            TaskHistory.Estimate estimate = predict(history, historyKey, 0, "ExtractData", taskIds, verbose);
+            boolean success = waitForTasks(session, taskIds, pollInterval, verbose, timer, TaskDeadlines.watch(cl), estimate);
+            closeSession(session, timer);
+            session = null;
+            journalFinished(journal, cluster, taskIds, success);
+            if (!reattached) recordHistory(history, historyKey, 0, timer, success);
+            ExtractVerifier.Result verified = success ? verifyExtract(cl, "ExtractData", null, true, timer) : null;
+            ExtractSnapshot.Built snapshot = success && (verified == null || verified.ok())
+                    ? snapshotExtract(cl, timer) : null;
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            if (success) {
+                String details = joinDetails(estimate != null ? estimate.toJson() : null,
+                        snapshot != null ? snapshot.toJson() : null);
+                return extractDone("Data extract completed successfully" + reattachNote(reattached), "ExtractData",
+                        application, elapsed, taskIds, timer, verified, details);
+            } else {
+                jsonOutput("Failed", "Data extract task failed" + reattachNote(reattached), 
+                        "ExtractData", application, elapsed, taskIds, timer, estimate != null ? estimate.toJson() : null);
+                return EXIT_TASK_FAILED;
+            }
+            
+        } catch (TaskDeadlines.ExpiredException e) {
+            return jsonTimedOut(e, cl, "ExtractData", application, startTime, timer);
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractData", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
+            if (slot != null) slot.release();
+        }
+    }
+
+    // ==================== Operation: Workflow ====================
+    
+    private static final List<String> WORKFLOW_STAGES = Arrays.asList("load", "translate", "consolidate", "extract");
+    
+    // --stageLimits load=2,consolidate=1 (stages not listed run one at a time)
+    private static Map<String, Integer> parseStageLimits(String spec) {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        if (spec == null) return limits;
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("Bad --stageLimits entry: " + part);
+            limits.put(kv[0].trim().toLowerCase(), Integer.parseInt(kv[1].trim()));
+        }
+        return limits;
+    }
+    
+    /**
+     * Runs the selected stages for every period (--periods) or entity
+     * (--planEntities), pipelined by WorkflowPipeline on one session. -s is the
+     * POV template whose P# (or E#) is replaced per item; -f may contain
+     * {period} or {item} for the per-item load file. One TaskMonitor polls
+     * the tasks of all stages in flight.
+     */
+    private static int doWorkflow(CommandLine cl, int pollInterval, final boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        HfmSession session = null;
+        TaskMonitor monitor = null;
+        
+        try {
+            String username = cl.getOptionValue("u");
+            String password = cl.getOptionValue("p");
+            String cluster = cl.getOptionValue("c");
+            final String pov = cl.getOptionValue("s");
+            final String dataFile = cl.getOptionValue("f");
+            final boolean byEntity = !cl.hasOption("periods") && cl.hasOption("planEntities");
+            String itemSpec = byEntity ? cl.getOptionValue("planEntities") : cl.getOptionValue("periods");
+            
+            List<String> stages = new ArrayList<String>();
+            for (String stage : cl.getOptionValue("stages", "load,translate,consolidate,extract").split(",")) {
+                String name = stage.trim().toLowerCase();
+                if (!WORKFLOW_STAGES.contains(name)) {
+                    jsonError("Unknown workflow stage: " + stage + " (use load, translate, consolidate, extract)",
+                            "Workflow", application);
+                    return EXIT_INVALID_ARGS;
+                }
+                if (!stages.contains(name)) stages.add(name);
+            }
+            List<String> items = new ArrayList<String>();
+            if (itemSpec != null) {
+                for (String item : itemSpec.split("[,;]")) {
+                    if (item.trim().length() > 0) items.add(item.trim());
+                }
+            }
+            
+            // Validate required parameters
+            if (username == null || password == null || application == null || cluster == null || 
+                pov == null || items.isEmpty() || (stages.contains("load") && dataFile == null)) {
+                jsonError("Missing required parameters: -u, -p, -a, -c, -s, --periods (or --planEntities), -f for the load stage",
+                        "Workflow", application);
+                return EXIT_INVALID_ARGS;
+            }
+            Map<String, Integer> limits = parseStageLimits(cl.getOptionValue("stageLimits"));
+            
+            // Create session
+            session = createSession(cl, username, password, cluster, application, timer);
+            final HfmBackend.Session hfm = session.hfm;
+            final String progressScope = session.progressScope();
+            
+            final List<DataLoadOptions> loadOpts = new ArrayList<DataLoadOptions>();
+            loadOpts.add(loadOptions(cl));
+            final WEBOMDATAGRIDTASKMASKENUM consolidationType = getConsolidationType(cl.getOptionValue("t", "AllWithData"));
+            final WEBOMDATAGRIDTASKMASKENUM translateType = Boolean.parseBoolean(cl.getOptionValue("force", "false"))
+                    ? WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_FORCETRANSLATE
+                    : WEBOMDATAGRIDTASKMASKENUM.WEBOM_DATAGRID_TASK_TRANSLATE;
+            final CommandLine options = cl;
+            final String extractFormat = extractFormat(cl, null);
+            
+            final TaskMonitor tasks = new TaskMonitor(hfm, pollInterval, new TaskMonitor.Listener() {
+                public void progress(HfmBackend.TaskProgress p) {
+                    if (verbose) {
+                        String desc = p.description;
+                        if (desc != null) desc = desc.replace("\r\n", " - ");
+                        jsonProgress(progressScope, p.taskId, desc, p.percent, p.status);
+                        // The monitor stops polling a finished task
+                        if (!isActive(p.status)) events.forget(progressScope, Arrays.asList(p.taskId));
+                    }
+                }
+            }, TaskDeadlines.from(cl));
+            monitor = tasks;
+            session.monitor = tasks;
+            
+            final String workflowCluster = cluster;
+            final String workflowApplication = application;
+            WorkflowPipeline.Stages submitter = new WorkflowPipeline.Stages() {
+                public AdmissionControl.Slot admit(String stage) throws Exception {
+                    // Stages run on their own threads; their waits show in the timeline, not as a phase
+                    return HfmCli.admit(options, admissionClass(stage), workflowCluster, workflowApplication, null);
+                }
+
+                public List<Integer> submit(String stage, String item) throws Exception {
+                    // Past a deadline nothing new goes to the server
+                    if (tasks.expired() != null) throw new IllegalStateException("Not submitted: " + tasks.expired());
+                    HFMpovInfo.PovTokens tokens = HFMpovInfo.parsePov(pov);
+                    if (byEntity) {
+                        tokens.entity = item;
+                    } else {
+                        tokens.periods = Arrays.asList(item);
+                    }
+                    List<String> povList = new ArrayList<String>();
+                    povList.add(tokens.format());
+                    
+                    if (stage.equals("load")) {
+                        String file = dataFile.replace("{period}", item).replace("{item}", item);
+                        List<String> files = new ArrayList<String>();
+                        files.add(new File(file).getPath());
+                        metrics.recordFileBytes("Workflow", "load", new File(file).length());
+                        return hfm.loadData(files, loadOpts);
+                    } else if (stage.equals("translate")) {
+                        return hfm.executeServerTask(translateType, povList);
+                    } else if (stage.equals("consolidate")) {
+                        return hfm.executeServerTask(consolidationType, povList);
+                    } else {
+                        List<Integer> ids = new ArrayList<Integer>();
+                        ids.add(hfm.extractData(extractOptions(options, povList.get(0), extractFormat)));
+                        return ids;
+                    }
+                }
+            };
+            WorkflowPipeline pipeline = new WorkflowPipeline(stages, limits, items, submitter, monitor);
+            timer.start("pipeline");
+            boolean success = pipeline.run();
+            timer.stop();
+            timer.addPolls(monitor.polls());
+            String expired = monitor.expired();
+            monitor.close();
+            monitor = null;
+            session.monitor = null;
+            closeSession(session, timer);
+            session = null;
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            String summary = items.size() + " " + (byEntity ? "entities" : "periods") + " x " + stages.size() + " stages";
+            
+            if (expired != null) {
+                jsonOutput("TimedOut", "Workflow stopped: " + expired + " (" + summary + ")", "Workflow", application,
+                        elapsed, pipeline.taskIds(), timer, pipeline.toJson());
+                return EXIT_TIMED_OUT;
+            } else if (success) {
+                jsonOutput("OK", "Workflow completed successfully (" + summary + ")", "Workflow", application,
+                        elapsed, pipeline.taskIds(), timer, pipeline.toJson());
+                return EXIT_SUCCESS;
+            } else {
+                jsonOutput("Failed", "Workflow finished with " + pipeline.count("Failed") + " failed, "
+                        + pipeline.count("Error") + " errored and " + pipeline.count("Skipped") + " skipped stages ("
+                        + summary + ")", "Workflow", application, elapsed, pipeline.taskIds(), timer, pipeline.toJson());
+                return EXIT_TASK_FAILED;
+            }
+            
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Workflow", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (monitor != null) monitor.close();
+            if (session != null) session.close();
+        }
+    }
+
+    // ==================== Operation: Batch ====================
+    
+    // Passed on to Batch jobs that do not set them (the job's own options win)
+    private static final String[] BATCH_INHERITED = {
+        "u", "p", "a", "c", "pollInterval", "journal", "journalWindow", "admitLimits", "admitDir",
+        "timeout", "queueTimeout", "stallTimeout", "retries", "retryBackoff", "history"
+    };
+    
+    // The BATCH_INHERITED options a line does not set itself; a repeated option would
+    // reach the operation and the journal key with different values
+    private static List<String> inherited(CommandLine cl, CommandLine job) {
+        List<String> inherited = new ArrayList<String>();
+        for (String name : BATCH_INHERITED) {
+            if (!cl.hasOption(name) || job.hasOption(name)) continue;
+            inherited.add(name.length() == 1 ? "-" + name : "--" + name);
+            inherited.add(cl.getOptionValue(name));
+        }
+        if (cl.hasOption("v") && !job.hasOption("v")) inherited.add("-v");
+        return inherited;
+    }
+    
+    // deadline=HH:mm or yyyy-MM-ddTHH:mm, local time. An HH:mm that has already
+    // passed today means tomorrow, so a batch started at 22:00 can say deadline=01:30.
+    private static long parseDeadline(String value) throws java.text.ParseException {
+        if (value.length() <= 5) {
+            Calendar now = Calendar.getInstance();
+            Calendar at = Calendar.getInstance();
+            at.setTime(new SimpleDateFormat("HH:mm").parse(value));
+            at.set(now.get(Calendar.YEAR), now.get(Calendar.MONTH), now.get(Calendar.DAY_OF_MONTH));
+            if (at.before(now)) at.add(Calendar.DAY_OF_MONTH, 1);
+            return at.getTimeInMillis();
+        }
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm").parse(value).getTime();
+    }
+    
+    /**
+     * Runs the operations listed in --batchFile in this process, at most
+     * --concurrency at a time, ordered by OperationScheduler. Each line is
+     *   [critical|normal|bulk] [deadline=HH:mm] <operation> [options]
+     * (default class normal; an HH:mm deadline already past today is tomorrow). Jobs print their own result lines; the Batch
+     * result carries per-class queue statistics and one entry per job.
+     */
+    private static int doBatch(CommandLine cl, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        
+        try {
+            String batchFile = cl.getOptionValue("batchFile");
+            if (batchFile == null) {
+                jsonError("Missing required parameter: --batchFile", "Batch", application);
+                return EXIT_INVALID_ARGS;
+            }
+            int concurrency = Integer.parseInt(cl.getOptionValue("concurrency", "4"));
+            Map<String, Integer> weights = parseStageLimits(
+                    cl.getOptionValue("classWeights", OperationScheduler.DEFAULT_WEIGHTS));
+            OperationScheduler scheduler = new OperationScheduler(concurrency, weights, metrics);
+            
+            Options known = buildOptions();
+            
+            timer.start("read_batch");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(batchFile), "UTF-8"));
+            try {
+                String line;
+                int lineNo = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNo++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    List<String> tokens = HfmLoadTest.tokenize(line);
+                    String priorityClass = "normal";
+                    long deadline = 0;
+                    while (!tokens.isEmpty()) {
+                        String t = tokens.get(0).toLowerCase();
+                        if (OperationScheduler.isClass(t)) {
+                            priorityClass = t;
+                        } else if (t.startsWith("deadline=")) {
+                            deadline = parseDeadline(tokens.get(0).substring("deadline=".length()));
+                        } else {
+                            break;
+                        }
+                        tokens.remove(0);
+                    }
+                    String[] jobArgs = tokens.toArray(new String[0]);
+                    String jobOp = findOperation(jobArgs);
+                    if (jobOp == null || jobOp.equalsIgnoreCase("batch")) {
+                        jsonError("Batch line " + lineNo + ": no valid operation", "Batch", application);
+                        return EXIT_INVALID_ARGS;
+                    }
+                    
+                    CommandLine job;
+                    try {
+                        job = new GnuParser().parse(known, removeOperation(jobArgs, jobOp));
+                    } catch (ParseException e) {
+                        jsonError("Batch line " + lineNo + ": " + e.getMessage(), "Batch", application);
+                        return EXIT_INVALID_ARGS;
+                    }
+                    
+                    final List<String> args = new ArrayList<String>(tokens);
+                    args.addAll(inherited(cl, job));
+                    // Fair-share flow: the cluster/application the job will actually use
+                    String flow = job.getOptionValue("c", cl.getOptionValue("c")) + "/"
+                            + job.getOptionValue("a", application);
+                    scheduler.submit(new OperationScheduler.Job(lineNo, jobOp, priorityClass, flow, deadline,
+                            new Callable<Integer>() {
+                                public Integer call() {
+                                    return execute(args.toArray(new String[0]));
+                                }
+                            }));
+                }
+            } finally {
+                reader.close();
+            }
+            
+            timer.start("run_batch");
+            scheduler.runAll();
+            timer.stop();
+            
+            int failed = 0;
+            List<OperationScheduler.Job> jobs = scheduler.jobs();
+            for (OperationScheduler.Job job : jobs) {
+                if (job.exitCode != EXIT_SUCCESS) failed++;
+            }
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            if (failed == 0) {
+                jsonOutput("OK", "Batch completed: " + jobs.size() + " operations", "Batch", application,
+                        elapsed, null, timer, scheduler.toJson());
                 return EXIT_SUCCESS;
             } else {
-                jsonOutput(System.out, "Failed", "Translation task failed", 
-                        "Translate", application, elapsed, taskIds);
+                jsonOutput("Failed", "Batch completed: " + failed + " of " + jobs.size() + " operations failed",
+                        "Batch", application, elapsed, null, timer, scheduler.toJson());
                 return EXIT_TASK_FAILED;
             }
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "Translate", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Batch", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
-        } finally {
-            if (session != null) session.close();
         }
     }
-
-    // ==================== Operation: Extract Data ====================
     
-    private static int doExtractData(CommandLine cl, int pollInterval, boolean verbose, String operationName) {
+    // ==================== Fan-out ====================
+    
+    /** One cluster/application an operation fans out to. */
+    private static final class Target {
+        final String cluster;
+        final String application;
+        int exitCode = EXIT_UNKNOWN_ERROR;
+        String result;
+        
+        Target(String cluster, String application) {
+            this.cluster = cluster;
+            this.application = application;
+        }
+    }
+    
+    // -a/-c lists or a --targets file; null when the operation has a single target
+    private static List<Target> fanOutTargets(CommandLine cl) throws Exception {
+        List<Target> targets = new ArrayList<Target>();
+        if (cl.hasOption("targets")) {
+            // One target per line: <cluster> <application> (or ; , separated), # comments
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(cl.getOptionValue("targets")), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    String[] f = line.split("[\\s;,]+");
+                    if (f.length < 2) throw new IllegalArgumentException("Bad --targets line: " + line);
+                    targets.add(new Target(f[0], f[1]));
+                }
+            } finally {
+                reader.close();
+            }
+            return targets;
+        }
+        String apps = cl.getOptionValue("a");
+        String clusters = cl.getOptionValue("c");
+        if ((apps == null || apps.indexOf(',') < 0) && (clusters == null || clusters.indexOf(',') < 0)) {
+            return null;
+        }
+        for (String c : (clusters != null ? clusters : "").split(",")) {
+            for (String a : (apps != null ? apps : "").split(",")) {
+                if (c.trim().length() > 0 && a.trim().length() > 0) targets.add(new Target(c.trim(), a.trim()));
+            }
+        }
+        return targets;
+    }
+    
+    // Rebuilt from the parsed command line, so attached forms (-aAPP1,APP2) go too;
+    // fan-out, metrics file and backend options stay with the parent, which already applied them
+    private static final Set<String> PARENT_ONLY = new HashSet<String>(Arrays.asList(
+            "a", "c", "targets", "fanOut", "metricsFile", "metricsInterval", "backend"));
+    
+    // Outputs each target writes; with several targets they must differ per target
+    private static final String[] TARGET_OUTPUTS = { "extractFile", "snapshot", "store", "journal", "diffFile" };
+    
+    private static String forTarget(String value, Target target) {
+        return value.replace("{cluster}", target.cluster).replace("{app}", target.application);
+    }
+    
+    // The arguments for one target: the operation, its own -a/-c and the other options with {cluster}/{app} filled in
+    private static String[] targetArgs(String operation, CommandLine cl, Target target) {
+        List<String> result = new ArrayList<String>();
+        result.add(operation);
+        for (Option option : cl.getOptions()) {
+            String name = option.getOpt() != null ? option.getOpt() : option.getLongOpt();
+            if (PARENT_ONLY.contains(name)) continue;
+            result.add(option.getOpt() != null ? "-" + option.getOpt() : "--" + option.getLongOpt());
+            String[] values = option.getValues();
+            if (values == null) continue;
+            for (String value : values) {
+                result.add(forTarget(value, target));
+            }
+        }
+        for (String arg : cl.getArgs()) {
+            result.add(forTarget(arg, target));
+        }
+        result.add("-c");
+        result.add(target.cluster);
+        result.add("-a");
+        result.add(target.application);
+        return result.toArray(new String[0]);
+    }
+    
+    // An output path shared by two targets, which would then write the same file at once; null if none
+    private static String sharedOutput(CommandLine cl, List<Target> targets) {
+        for (String name : TARGET_OUTPUTS) {
+            if (!cl.hasOption(name)) continue;
+            Set<String> seen = new HashSet<String>();
+            for (Target target : targets) {
+                if (!seen.add(forTarget(cl.getOptionValue(name), target))) {
+                    return "--" + name + " " + cl.getOptionValue(name);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Runs the operation against every target at once (at most --fanOut at a
+     * time), each with its own session, and prints one aggregated result
+     * with every target's own result inside. Exit code: 0 when all targets
+     * succeeded, else the exit code of the first failed target.
+     */
+    private static int doFanOut(final String operation, final CommandLine cl,
+            List<Target> targets, boolean verbose) {
         long startTime = System.currentTimeMillis();
-        String application = cl.getOptionValue("a");
-        HfmSession session = null;
+        PhaseTimer timer = new PhaseTimer();
         
         try {
-            String username = cl.getOptionValue("u");
-            String password = cl.getOptionValue("p");
-            String cluster = cl.getOptionValue("c");
-            String pov = cl.getOptionValue("s");
-            String delimiter = cl.getOptionValue("d", ";");
-            String extractFormat = cl.getOptionValue("extractFormat");
-            boolean calculatedData = Boolean.parseBoolean(cl.getOptionValue("calculatedData", "false"));
-            boolean derivedData = Boolean.parseBoolean(cl.getOptionValue("derivedData", "false"));
-            boolean dynamicAccounts = Boolean.parseBoolean(cl.getOptionValue("dynamicAccounts", "false"));
-            
-            // Database options
-            String dsn = cl.getOptionValue("dsn");
-            String prefix = cl.getOptionValue("prefix", "HFM_");
-            
-            // Auto-detect format from operation name if not explicitly specified
-            if (extractFormat == null) {
-                if (operationName != null && operationName.contains("database")) {
-                    extractFormat = "warehouse";
-                } else if (dsn != null) {
-                    // If DSN is provided, assume database extract
-                    extractFormat = "warehouse";
-                } else {
-                    extractFormat = "flatfile";
-                }
+            if (targets.isEmpty()) {
+                jsonError("No targets to run " + operation + " against", operation, null);
+                return EXIT_INVALID_ARGS;
             }
-            
-            // Validate required parameters
-            if (username == null || password == null || application == null || 
-                cluster == null || pov == null) {
-                jsonError("Missing required parameters: -u, -p, -a, -c, -s", "ExtractData", application);
+            String shared = sharedOutput(cl, targets);
+            if (shared != null) {
+                jsonError(shared + " is the same for several targets; add {app} and/or {cluster} to it",
+                        operation, null);
                 return EXIT_INVALID_ARGS;
             }
-            
-            // For database extract, DSN is required
-            if (extractFormat.toLowerCase().contains("warehouse") || 
-                extractFormat.toLowerCase().contains("database")) {
-                if (dsn == null) {
-                    jsonError("Missing required parameter --dsn for database extract", "ExtractData", application);
-                    return EXIT_INVALID_ARGS;
-                }
+            int width = Integer.parseInt(cl.getOptionValue("fanOut", String.valueOf(targets.size())));
+            final Semaphore running = new Semaphore(Math.max(1, width));
+            
+            timer.start("fan_out");
+            List<Thread> threads = new ArrayList<Thread>();
+            for (final Target target : targets) {
+                threads.add(HfmThreads.start("hfmcli-target-" + target.cluster + "-" + target.application, new Runnable() {
+                    public void run() {
+                        List<String> results = new ArrayList<String>();
+                        targetResults.set(results);
+                        try {
+                            running.acquire();
+                            try {
+                                target.exitCode = execute(targetArgs(operation, cl, target));
+                            } finally {
+                                running.release();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            targetResults.remove();
+                            if (!results.isEmpty()) target.result = results.get(results.size() - 1);
+                        }
+                    }
+                }));
             }
-            
-            // Create session
-            session = createSession(username, password, cluster, application);
-            
-            // Build extract options
-            DataExtractOptions options = new DataExtractOptions();
-            options.setDelimiter(delimiter);
-            options.setMetadataSlice(pov);  // POV goes in metadataSlice
-            options.setIncludeCalculatedData(calculatedData);
-            options.setIncludeDerivedData(derivedData);
-            options.setIncludeDynamicAccounts(dynamicAccounts);
-            options.setIncludeData(true);
-            
-            // Set extract format based on type
-            String fmt = extractFormat.toLowerCase().replace(" ", "").replace("_", "");
-            if (fmt.contains("noheader") || fmt.contains("flatfilenoheader")) {
-                options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE_NOHEADER);
-            } else if (fmt.contains("flatfile") || fmt.contains("standard")) {
-                options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE);
-            } else if (fmt.contains("warehouse") || fmt.contains("database")) {
-                options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_WAREHOUSE);
-                if (dsn != null) {
-                    options.setDSN(dsn);
-                    options.setTablePrefix(prefix);
+            for (Thread t : threads) {
+                t.join();
+            }
+            timer.stop();
+            
+            int exitCode = EXIT_SUCCESS;
+            int failed = 0;
+            StringBuilder details = new StringBuilder("\"targets\":[");
+            for (int i = 0; i < targets.size(); i++) {
+                Target target = targets.get(i);
+                if (target.exitCode != EXIT_SUCCESS) {
+                    failed++;
+                    if (exitCode == EXIT_SUCCESS) exitCode = target.exitCode;
                 }
-            } else if (fmt.contains("essbase")) {
-                options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_ESSBASE);
-            } else {
-                options.setExtractFormat(DATA_EXTRACT_TYPE_FLAG.EA_EXTRACT_TYPE_FLATFILE);
+                if (i > 0) details.append(",");
+                details.append("{\"cluster\":\"").append(escapeJson(target.cluster))
+                       .append("\",\"application\":\"").append(escapeJson(target.application))
+                       .append("\",\"exit_code\":").append(target.exitCode)
+                       .append(",\"result\":").append(target.result != null ? target.result : "null").append("}");
             }
-            
-            // Execute extract - returns single int task ID
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            int taskId = extractOM.extractData(options);
-            
-            // Wait for completion
-            List<Integer> taskIds = new ArrayList<Integer>();
-            taskIds.add(taskId);
-            boolean success = waitForTask(session, taskId, pollInterval, verbose);
+            details.append("]");
             
             long elapsed = System.currentTimeMillis() - startTime;
-            
-            if (success) {
-                jsonSuccess("Data extract completed successfully", "ExtractData", 
-                        application, elapsed, taskIds);
-                return EXIT_SUCCESS;
-            } else {
-                jsonOutput(System.out, "Failed", "Data extract task failed", 
-                        "ExtractData", application, elapsed, taskIds);
-                return EXIT_TASK_FAILED;
-            }
+            String summary = (targets.size() - failed) + " of " + targets.size() + " targets succeeded";
+            jsonOutput(failed == 0 ? "OK" : "Failed", operation + ": " + summary, operation, cl.getOptionValue("a"),
+                    elapsed, null, timer, details.toString());
+            return exitCode;
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractData", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    operation, null, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
-        } finally {
-            if (session != null) session.close();
         }
     }
 
@@ -545,6 +1870,7 @@ public class HfmCli {
     
     private static int doExtractMetadata(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
         
@@ -574,7 +1900,7 @@ public class HfmCli {
             }
             
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Build extract options
             MetadataExtractOptions options = new MetadataExtractOptions();
@@ -601,20 +1927,23 @@ public class HfmCli {
             }
             
             // Execute extract - returns LoadExtractInfo
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            LoadExtractInfo info = extractOM.extractMetadata(options);
+            timer.start("extract");
+            HfmBackend.ExtractResult result = session.hfm.extractMetadata(options);
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
             
+            ExtractVerifier.Result verified = verifyExtract(cl, "ExtractMetadata", result.file, false, timer);
             long elapsed = System.currentTimeMillis() - startTime;
             
-            // LoadExtractInfo contains status - check if successful
-            String statusMsg = info != null ? "Metadata extract completed" : "Metadata extract returned null";
-            jsonSuccess(statusMsg, "ExtractMetadata", application, elapsed, null);
-            return EXIT_SUCCESS;
+            // Extract info contains status - check if successful
+            String statusMsg = result.info != null ? "Metadata extract completed" : "Metadata extract returned null";
+            return extractDone(statusMsg, "ExtractMetadata", application, elapsed, null, timer, verified, null);
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractMetadata", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractMetadata", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
@@ -626,6 +1955,7 @@ public class HfmCli {
     
     private static int doExtractRules(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
         
@@ -642,7 +1972,7 @@ public class HfmCli {
             }
             
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Determine file format enum
             RULESEXTRACT_FILE_FORMAT format;
@@ -653,19 +1983,25 @@ public class HfmCli {
             }
             
             // Execute extract - returns LoadExtractInfo
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            LoadExtractInfo info = extractOM.extractRules(format);
-            
+            timer.start("extract");
+            HfmBackend.ExtractResult result = session.hfm.extractRules(format);
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
+            
+            ExtractVerifier.Result verified = verifyExtract(cl, "ExtractRules", result.file, false, timer);
+            ExtractStore.Entry stored = storeExtract(cl, "ExtractRules", application, result.file, verified, timer);
             long elapsed = System.currentTimeMillis() - startTime;
             
-            String statusMsg = info != null ? "Rules extract completed" : "Rules extract returned null";
-            jsonSuccess(statusMsg, "ExtractRules", application, elapsed, null);
-            return EXIT_SUCCESS;
+            String statusMsg = result.info != null ? "Rules extract completed" : "Rules extract returned null";
+            if (stored != null && stored.unchanged) statusMsg += "; unchanged since the last stored run";
+            return extractDone(statusMsg, "ExtractRules", application, elapsed, null, timer, verified,
+                    stored != null ? stored.toJson() : null);
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractRules", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractRules", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
@@ -677,6 +2013,7 @@ public class HfmCli {
     
     private static int doExtractMemberLists(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
         
@@ -692,22 +2029,28 @@ public class HfmCli {
             }
             
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Execute extract - takes no arguments, returns LoadExtractInfo
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            LoadExtractInfo info = extractOM.extractMemberLists();
-            
+            timer.start("extract");
+            HfmBackend.ExtractResult result = session.hfm.extractMemberLists();
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
+            
+            ExtractVerifier.Result verified = verifyExtract(cl, "ExtractMemberLists", result.file, false, timer);
+            ExtractStore.Entry stored = storeExtract(cl, "ExtractMemberLists", application, result.file, verified, timer);
             long elapsed = System.currentTimeMillis() - startTime;
             
-            String statusMsg = info != null ? "Member lists extract completed" : "Member lists extract returned null";
-            jsonSuccess(statusMsg, "ExtractMemberLists", application, elapsed, null);
-            return EXIT_SUCCESS;
+            String statusMsg = result.info != null ? "Member lists extract completed" : "Member lists extract returned null";
+            if (stored != null && stored.unchanged) statusMsg += "; unchanged since the last stored run";
+            return extractDone(statusMsg, "ExtractMemberLists", application, elapsed, null, timer, verified,
+                    stored != null ? stored.toJson() : null);
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractMemberLists", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractMemberLists", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
@@ -719,6 +2062,7 @@ public class HfmCli {
     
     private static int doExtractSecurity(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
         
@@ -741,7 +2085,7 @@ public class HfmCli {
             }
             
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
             // Build extract options
             SecurityExtractOptions options = new SecurityExtractOptions();
@@ -753,19 +2097,25 @@ public class HfmCli {
             options.setFileFormat(SECURITYEXTRACT_FILEFORMAT.SECURITYEXTRACT_FILEFORMAT_NATIVE);
             
             // Execute extract - returns LoadExtractInfo
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            LoadExtractInfo info = extractOM.extractSecurity(options);
-            
+            timer.start("extract");
+            HfmBackend.ExtractResult result = session.hfm.extractSecurity(options);
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
+            
+            ExtractVerifier.Result verified = verifyExtract(cl, "ExtractSecurity", result.file, false, timer);
+            ExtractStore.Entry stored = storeExtract(cl, "ExtractSecurity", application, result.file, verified, timer);
             long elapsed = System.currentTimeMillis() - startTime;
             
-            String statusMsg = info != null ? "Security extract completed" : "Security extract returned null";
-            jsonSuccess(statusMsg, "ExtractSecurity", application, elapsed, null);
-            return EXIT_SUCCESS;
+            String statusMsg = result.info != null ? "Security extract completed" : "Security extract returned null";
+            if (stored != null && stored.unchanged) statusMsg += "; unchanged since the last stored run";
+            return extractDone(statusMsg, "ExtractSecurity", application, elapsed, null, timer, verified,
+                    stored != null ? stored.toJson() : null);
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractSecurity", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractSecurity", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
         } finally {
@@ -777,6 +2127,7 @@ public class HfmCli {
     
     private static int doExtractJournals(CommandLine cl, int pollInterval, boolean verbose) {
         long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
         String application = cl.getOptionValue("a");
         HfmSession session = null;
         
@@ -801,54 +2152,328 @@ public class HfmCli {
                 return EXIT_INVALID_ARGS;
             }
             
+            List<String> labels = labelsStr != null && !labelsStr.isEmpty() ? Arrays.asList(labelsStr.split("[;,]")) : null;
+            List<String> groups = groupsStr != null && !groupsStr.isEmpty() ? Arrays.asList(groupsStr.split("[;,]")) : null;
+            JournalRequest request = new JournalRequest(delimiter, regular, standard, recurring);
+            
+            if (cl.hasOption("journalShards")) {
+                List<JournalShards.Shard> shards;
+                try {
+                    shards = JournalShards.plan(cl.getOptionValue("journalShards"), pov, labels, groups);
+                } catch (IllegalArgumentException e) {
+                    jsonError(e.getMessage(), "ExtractJournals", application);
+                    return EXIT_INVALID_ARGS;
+                }
+                return extractJournalsSharded(cl, username, password, cluster, application, request,
+                        shards, pov, labels, groups, startTime, timer);
+            }
+            
             // Create session
-            session = createSession(username, password, cluster, application);
+            session = createSession(cl, username, password, cluster, application, timer);
             
-            // Build extract options
+            // Execute extract - returns LoadExtractInfo
+            timer.start("extract");
+            HfmBackend.ExtractResult result = session.hfm.extractJournals(request.options(pov, labels, groups));
+            timer.stop();
+            closeSession(session, timer);
+            session = null;
+            
+            ExtractVerifier.Result verified = verifyExtract(cl, "ExtractJournals", result.file, false, timer);
+            long elapsed = System.currentTimeMillis() - startTime;
+            
+            String statusMsg = result.info != null ? "Journals extract completed" : "Journals extract returned null";
+            return extractDone(statusMsg, "ExtractJournals", application, elapsed, null, timer, verified, null);
+            
+        } catch (Exception e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "ExtractJournals", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        } finally {
+            if (session != null) session.close();
+        }
+    }
+
+    // Journal options shared by every shard of one ExtractJournals
+    private static final class JournalRequest {
+        final String delimiter;
+        final boolean regular;
+        final boolean standard;
+        final boolean recurring;
+        
+        JournalRequest(String delimiter, boolean regular, boolean standard, boolean recurring) {
+            this.delimiter = delimiter;
+            this.regular = regular;
+            this.standard = standard;
+            this.recurring = recurring;
+        }
+        
+        JournalExtractOptions options(String pov, List<String> labels, List<String> groups) {
             JournalExtractOptions options = new JournalExtractOptions();
             options.setDelimiter(delimiter);
             options.setPov(pov);
             options.setRegular(regular);
             options.setStandard(standard);
             options.setRecurring(recurring);
-            
-            // Set labels if provided
-            if (labelsStr != null && !labelsStr.isEmpty()) {
-                List<String> labels = Arrays.asList(labelsStr.split("[;,]"));
-                options.setLabels(labels);
+            if (labels != null) options.setLabels(labels);
+            if (groups != null) options.setGroups(groups);
+            return options;
+        }
+    }
+    
+    // One shard's outcome
+    private static final class JournalShardRun {
+        final JournalShards.Shard shard;
+        long ms;
+        String file;
+        Exception error;
+        
+        JournalShardRun(JournalShards.Shard shard) {
+            this.shard = shard;
+        }
+    }
+    
+    /**
+     * --journalShards: runs the shards concurrently (--journalParallel, one
+     * session each) and merges their files into --extractFile (default
+     * <app>_journals.jlf next to the first shard). With --journalCheck the
+     * unsharded extract is run too and must normalize to the same bytes.
+     * When any shard fails the job fails (EXIT_TASK_FAILED) and the files of
+     * the other shards are deleted.
+     */
+    private static int extractJournalsSharded(CommandLine cl, final String username, final String password,
+            final String cluster, final String application, final JournalRequest request,
+            List<JournalShards.Shard> shards, String pov, List<String> labels, List<String> groups,
+            long startTime, PhaseTimer timer) throws Exception {
+        int parallel = Integer.parseInt(cl.getOptionValue("journalParallel", "4"));
+        final Semaphore running = new Semaphore(Math.max(1, parallel));
+        final List<JournalShardRun> runs = new ArrayList<JournalShardRun>();
+        
+        timer.start("shards");
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < shards.size(); i++) {
+            final JournalShardRun run = new JournalShardRun(shards.get(i));
+            runs.add(run);
+            threads.add(HfmThreads.start("hfmcli-journals-" + (i + 1), new Runnable() {
+                public void run() {
+                    HfmSession session = null;
+                    try {
+                        running.acquire();
+                        try {
+                            long t0 = System.currentTimeMillis();
+                            PhaseTimer shardTimer = new PhaseTimer();
+                            session = createSession(cl, username, password, cluster, application, shardTimer);
+                            HfmBackend.ExtractResult result = session.hfm.extractJournals(
+                                    request.options(run.shard.pov, run.shard.labels, run.shard.groups));
+                            closeSession(session, shardTimer);
+                            session = null;
+                            run.ms = System.currentTimeMillis() - t0;
+                            run.file = result.file;
+                            if (run.file == null) throw new IOException("HFM did not report the file of shard " + run.shard.name);
+                        } finally {
+                            running.release();
+                        }
+                    } catch (InterruptedException e) {
+                        run.error = e;
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        run.error = e;
+                    } finally {
+                        if (session != null) session.close();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        timer.stop();
+        
+        int failed = 0;
+        String firstError = null;
+        List<File> files = new ArrayList<File>();
+        StringBuilder details = new StringBuilder("\"shards\":[");
+        for (int i = 0; i < runs.size(); i++) {
+            JournalShardRun run = runs.get(i);
+            if (run.error != null) {
+                failed++;
+                if (firstError == null) firstError = run.shard.name + ": " + run.error.getMessage();
+            } else {
+                files.add(new File(run.file));
             }
-            
-            // Set groups if provided
-            if (groupsStr != null && !groupsStr.isEmpty()) {
-                List<String> groups = Arrays.asList(groupsStr.split("[;,]"));
-                options.setGroups(groups);
+            if (i > 0) details.append(",");
+            details.append("{\"shard\":\"").append(escapeJson(run.shard.name))
+                   .append("\",\"ms\":").append(run.ms)
+                   .append(",\"ok\":").append(run.error == null).append("}");
+        }
+        details.append("]");
+        
+        if (failed > 0) {
+            // Half a journal extract is no extract: drop the shards that did come back
+            for (File f : files) {
+                f.delete();
+            }
+            long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Failed", failed + " of " + runs.size() + " journal shards failed; first: " + firstError,
+                    "ExtractJournals", application, elapsed, null, timer, details.toString());
+            return EXIT_TASK_FAILED;
+        }
+        
+        File out = cl.hasOption("extractFile") ? new File(cl.getOptionValue("extractFile"))
+                : new File(files.get(0).getAbsoluteFile().getParentFile(), application + "_journals.jlf");
+        timer.start("merge");
+        JournalShards.Merged merged = JournalShards.merge(files, out);
+        timer.stop();
+        for (File f : files) {
+            if (!f.equals(out)) f.delete();
+        }
+        details.append(",\"merged\":{\"file\":\"").append(escapeJson(out.getPath()))
+               .append("\",\"bytes\":").append(merged.bytes)
+               .append(",\"journals\":").append(merged.journals)
+               .append(",\"groups\":").append(merged.groups).append("}");
+        
+        if (cl.hasOption("journalCheck")) {
+            timer.start("check");
+            HfmSession session = createSession(cl, username, password, cluster, application, new PhaseTimer());
+            String whole;
+            try {
+                whole = session.hfm.extractJournals(request.options(pov, labels, groups)).file;
+            } finally {
+                session.close();
+            }
+            boolean same = whole != null
+                    && JournalShards.normalize(new File(whole)).equals(JournalShards.normalize(out));
+            if (whole != null) new File(whole).delete();
+            timer.stop();
+            details.append(",\"journal_check\":\"").append(whole == null ? "no file" : same ? "match" : "differs").append("\"");
+            if (!same) {
+                long elapsed = System.currentTimeMillis() - startTime;
+                jsonOutput("Failed", "Merged journal extract does not match the unsharded extract", "ExtractJournals",
+                        application, elapsed, null, timer, details.toString());
+                return EXIT_TASK_FAILED;
+            }
+        }
+        
+        ExtractVerifier.Result verified = verifyExtract(cl, "ExtractJournals", out.getPath(), false, timer);
+        long elapsed = System.currentTimeMillis() - startTime;
+        return extractDone("Journals extract completed in " + runs.size() + " shards", "ExtractJournals",
+                application, elapsed, null, timer, verified, details.toString());
+    }
+    
+    // ==================== Operation: Diff Extracts ====================
+    
+    // Compares two ExtractData flatfiles locally (no HFM session); see ExtractDiff
+    private static int doDiffExtracts(CommandLine cl, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        
+        try {
+            String before = cl.getOptionValue("before");
+            String after = cl.getOptionValue("after");
+            if (before == null || after == null) {
+                jsonError("Missing required parameters: --before, --after", "DiffExtracts", application);
+                return EXIT_INVALID_ARGS;
             }
+            File diffFile = new File(cl.getOptionValue("diffFile", after + ".diff.tsv"));
+            int top = Integer.parseInt(cl.getOptionValue("diffTop", "50"));
             
-            // Execute extract - returns LoadExtractInfo
-            LoadExtractOM extractOM = new LoadExtractOM(session.sessionInfo);
-            LoadExtractInfo info = extractOM.extractJournals(options);
+            ExtractDiff.Summary summary = newSorter(cl).diff(new File(before), new File(after), diffFile, timer);
+            metrics.recordFileBytes("DiffExtracts", "extract", new File(before).length() + new File(after).length());
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            String message = summary.differences() == 0 ? "Extracts match"
+                    : summary.added + " added, " + summary.removed + " removed, " + summary.changed + " changed cells";
+            jsonOutput("OK", message, "DiffExtracts", application, elapsed, null, timer, summary.toJson(top));
+            return EXIT_SUCCESS;
             
+        } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "DiffExtracts", application, elapsed, null, timer);
+            if (verbose) e.printStackTrace(System.err);
+            return EXIT_OPERATION_FAILED;
+        }
+    }
+    
+    // External sort settings shared by DiffExtracts and snapshots: -d, --tolerance, --sortMemoryMb, --tempDir
+    private static ExtractDiff newSorter(CommandLine cl) {
+        BigDecimal tolerance = new BigDecimal(cl.getOptionValue("tolerance", "0"));
+        long memoryBytes = Long.parseLong(cl.getOptionValue("sortMemoryMb", "256")) * 1024 * 1024;
+        File tempDir = new File(cl.getOptionValue("tempDir", System.getProperty("java.io.tmpdir")));
+        return new ExtractDiff(delimiter(cl), tolerance, memoryBytes, Runtime.getRuntime().availableProcessors(), tempDir);
+    }
+    
+    private static char delimiter(CommandLine cl) {
+        String d = cl.getOptionValue("d", ";");
+        return d.isEmpty() ? ';' : d.charAt(0);
+    }
+    
+    // ==================== Operation: Lookup ====================
+    
+    /**
+     * With --snapshot, converts the data extract (--extractFile) into a
+     * binary snapshot for Lookup; null without --snapshot.
+     */
+    private static ExtractSnapshot.Built snapshotExtract(CommandLine cl, PhaseTimer timer) throws Exception {
+        if (!cl.hasOption("snapshot")) return null;
+        if (!cl.hasOption("extractFile")) throw new IOException("no extract file to snapshot; pass --extractFile");
+        return ExtractSnapshot.build(new File(cl.getOptionValue("extractFile")), new File(cl.getOptionValue("snapshot")),
+                newSorter(cl), delimiter(cl), timer);
+    }
+    
+    // Answers a POV query from a snapshot (no HFM session); builds the snapshot first if --extractFile is newer
+    private static int doLookup(CommandLine cl, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        PhaseTimer timer = new PhaseTimer();
+        String application = cl.getOptionValue("a");
+        
+        try {
+            String pov = cl.getOptionValue("s");
+            if (!cl.hasOption("snapshot") || pov == null) {
+                jsonError("Missing required parameters: --snapshot, -s", "Lookup", application);
+                return EXIT_INVALID_ARGS;
+            }
+            File snapshotFile = new File(cl.getOptionValue("snapshot"));
+            ExtractSnapshot.Built built = null;
+            if (cl.hasOption("extractFile")) {
+                File extract = new File(cl.getOptionValue("extractFile"));
+                if (!snapshotFile.isFile() || snapshotFile.lastModified() < extract.lastModified()) {
+                    built = snapshotExtract(cl, timer);
+                }
+            }
+            int max = Integer.parseInt(cl.getOptionValue("lookupMax", "100"));
+            
+            timer.start("open");
+            ExtractSnapshot snapshot = ExtractSnapshot.open(snapshotFile);
+            timer.start("lookup");
+            ExtractSnapshot.Lookup found = snapshot.lookup(pov, max);
+            timer.stop();
             
-            String statusMsg = info != null ? "Journals extract completed" : "Journals extract returned null";
-            jsonSuccess(statusMsg, "ExtractJournals", application, elapsed, null);
+            long elapsed = System.currentTimeMillis() - startTime;
+            String details = joinDetails(built != null ? built.toJson() : null, found.toJson());
+            if (found.matches == 0) {
+                jsonOutput("NotFound", "No cells match the POV in " + snapshot, "Lookup", application, elapsed, null, timer, details);
+                return EXIT_TASK_FAILED;
+            }
+            jsonOutput("OK", found.matches + " cells", "Lookup", application, elapsed, null, timer, details);
             return EXIT_SUCCESS;
             
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startTime;
-            jsonOutput(System.out, "Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    "ExtractJournals", application, elapsed, null);
+            jsonOutput("Error", e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    "Lookup", application, elapsed, null, timer);
             if (verbose) e.printStackTrace(System.err);
             return EXIT_OPERATION_FAILED;
-        } finally {
-            if (session != null) session.close();
         }
     }
-
+    
     // ==================== Command Line Options ====================
     
+    // OptionBuilder keeps its state in static fields, so concurrent execute() calls must not interleave
     @SuppressWarnings("static-access")
-    private static Options buildOptions() {
+    private static synchronized Options buildOptions() {
         Options options = new Options();
         
         // Common options using Commons CLI 1.2 OptionBuilder syntax
@@ -889,7 +2514,7 @@ public class HfmCli {
         
         options.addOption(OptionBuilder
                 .withLongOpt("type")
-                .withDescription("Consolidation type: AllWithData, All, Impacted, ForceCalculate")
+                .withDescription("Consolidation type: AllWithData, All, Impacted, ForceCalculate, Auto (per-slice from calc status)")
                 .hasArg()
                 .withArgName("TYPE")
                 .create("t"));
@@ -993,10 +2618,152 @@ public class HfmCli {
         options.addOption(OptionBuilder.withLongOpt("groups")
                 .hasArg().withDescription("Journal groups filter (comma-separated)").create());
         
+        // Hierarchy planner
+        options.addOption(OptionBuilder.withLongOpt("planEntities")
+                .hasArg().withDescription("Consolidate: target entities (comma-separated), planned over --hierarchy; Workflow: entities to pipeline instead of --periods").create());
+        options.addOption(OptionBuilder.withLongOpt("hierarchy")
+                .hasArg().withDescription("Metadata extract (.app) with the Entity hierarchy").create());
+        options.addOption(OptionBuilder.withLongOpt("parallel")
+                .hasArg().withDescription("Units to run side by side at the bottom level (default: 4)").create());
+        options.addOption(OptionBuilder.withLongOpt("planOnly")
+                .withDescription("Print the consolidation plan without logging in or submitting").create());
+        
+        // Workflow
+        options.addOption(OptionBuilder.withLongOpt("periods")
+                .hasArg().withDescription("Workflow: periods to pipeline (comma-separated), replacing P# in -s").create());
+        options.addOption(OptionBuilder.withLongOpt("stages")
+                .hasArg().withDescription("Workflow stages (default: load,translate,consolidate,extract)").create());
+        options.addOption(OptionBuilder.withLongOpt("stageLimits")
+                .hasArg().withDescription("Workflow: concurrent items per stage, e.g. load=2,consolidate=1 (default: 1 each)").create());
+        
+        // Calc status pre-check
+        options.addOption(OptionBuilder.withLongOpt("precheck")
+                .withDescription("Consolidate: skip entity/period slices whose calc status is already OK").create());
+        
+        // Fan-out
+        options.addOption(OptionBuilder.withLongOpt("targets")
+                .hasArg().withDescription("Run against every <cluster> <application> line of this file (-a/-c also take comma lists)").create());
+        options.addOption(OptionBuilder.withLongOpt("fanOut")
+                .hasArg().withDescription("Targets run at the same time (default: all)").create());
+        
+        // Batch
+        options.addOption(OptionBuilder.withLongOpt("batchFile")
+                .hasArg().withDescription("Batch: file with one operation per line, [critical|normal|bulk] [deadline=HH:mm] <operation> [options]").create());
+        options.addOption(OptionBuilder.withLongOpt("concurrency")
+                .hasArg().withDescription("Batch: operations run at the same time (default: 4)").create());
+        options.addOption(OptionBuilder.withLongOpt("classWeights")
+                .hasArg().withDescription("Batch: fair-share weights, e.g. critical=8,normal=4,bulk=1 (the default)").create());
+        
+        // Admission control
+        options.addOption(OptionBuilder.withLongOpt("admitLimits")
+                .hasArg().withDescription("Concurrent jobs per cluster/application by class, e.g. consolidate=2,load=4,extract=4").create());
+        options.addOption(OptionBuilder.withLongOpt("admitDir")
+                .hasArg().withDescription("Directory of the admission slot files shared by all jobs on this server (default: <tmp>/hfmcli-admission)").create());
+        
+        // Asynchronous submission
+        options.addOption(OptionBuilder.withLongOpt("async")
+                .withDescription("Return the task IDs right after submitting instead of waiting").create());
+        options.addOption(OptionBuilder.withLongOpt("taskIds")
+                .hasArg().withDescription("Task IDs for Wait/Status (comma-separated)").create());
+        
+        // Task journal
+        options.addOption(OptionBuilder.withLongOpt("journal")
+                .hasArg().withDescription("Task journal file; reruns and identical requests from other jobs attach to tasks already submitted").create());
+        options.addOption(OptionBuilder.withLongOpt("journalWindow")
+                .hasArg().withDescription("Minutes after success that an identical request still attaches (default: 30)").create());
+        options.addOption(OptionBuilder.withLongOpt("resubmit")
+                .withDescription("Submit even if the journal has tasks for this request").create());
+        
         // Poll interval
         options.addOption(OptionBuilder.withLongOpt("pollInterval")
                 .hasArg().withDescription("Task polling interval in ms (default: 2000)").create());
         
+        // Deadlines
+        options.addOption(OptionBuilder.withLongOpt("timeout")
+                .hasArg().withDescription("Minutes to wait for the tasks before stopping them (exit 7)").create());
+        options.addOption(OptionBuilder.withLongOpt("queueTimeout")
+                .hasArg().withDescription("Minutes a task may stay queued before all tasks are stopped (exit 7)").create());
+        options.addOption(OptionBuilder.withLongOpt("stallTimeout")
+                .hasArg().withDescription("Minutes a running task's percent complete may stay unchanged (exit 7)").create());
+        options.addOption(OptionBuilder.withLongOpt("keepTasksOnExit")
+                .withDescription("On SIGTERM leave in-flight tasks running on the server instead of stopping them").create());
+        
+        // Extract verification
+        options.addOption(OptionBuilder.withLongOpt("verify")
+                .withDescription("Check the extract file: SHA-256, CRC32, rows, members per dimension; fail if empty or truncated").create());
+        options.addOption(OptionBuilder.withLongOpt("extractFile")
+                .hasArg().withDescription("Extract file to verify (default: the file reported by HFM, if any)").create());
+        options.addOption(OptionBuilder.withLongOpt("store")
+                .hasArg().withDescription("Content-addressed backup store for rules, member list and security extracts; unchanged content is linked, not copied").create());
+        options.addOption(OptionBuilder.withLongOpt("minRows")
+                .hasArg().withDescription("Fewest data rows a verified extract may have (default: 1)").create());
+        
+        // DiffExtracts
+        options.addOption(OptionBuilder.withLongOpt("before")
+                .hasArg().withDescription("DiffExtracts: extract taken before the change").create());
+        options.addOption(OptionBuilder.withLongOpt("after")
+                .hasArg().withDescription("DiffExtracts: extract taken after the change").create());
+        options.addOption(OptionBuilder.withLongOpt("tolerance")
+                .hasArg().withDescription("DiffExtracts: ignore amount changes up to this size (default: 0)").create());
+        options.addOption(OptionBuilder.withLongOpt("diffFile")
+                .hasArg().withDescription("DiffExtracts: TSV of added, removed and changed cells (default: <after>.diff.tsv)").create());
+        options.addOption(OptionBuilder.withLongOpt("sortMemoryMb")
+                .hasArg().withDescription("DiffExtracts: memory for the external sort, in MB (default: 256)").create());
+        options.addOption(OptionBuilder.withLongOpt("tempDir")
+                .hasArg().withDescription("DiffExtracts: directory for sorted runs (default: java.io.tmpdir)").create());
+        options.addOption(OptionBuilder.withLongOpt("diffTop")
+                .hasArg().withDescription("DiffExtracts: entities and accounts listed in the result, by size of change (default: 50)").create());
+        
+        // Snapshots and Lookup
+        options.addOption(OptionBuilder.withLongOpt("snapshot")
+                .hasArg().withDescription("Binary snapshot of the data extract: written by ExtractData (with --extractFile), read by Lookup").create());
+        options.addOption(OptionBuilder.withLongOpt("lookupMax")
+                .hasArg().withDescription("Lookup: most cells to return (default: 100); all matches are counted").create());
+        
+        // Sharded journal extracts
+        options.addOption(OptionBuilder.withLongOpt("journalShards")
+                .hasArg().withDescription("ExtractJournals: split by period, group or label[:N] and merge into one file").create());
+        options.addOption(OptionBuilder.withLongOpt("journalParallel")
+                .hasArg().withDescription("ExtractJournals: shards extracted at once (default: 4)").create());
+        options.addOption(OptionBuilder.withLongOpt("journalCheck")
+                .withDescription("ExtractJournals: also run the unsharded extract and fail unless the merged file matches it").create());
+        
+        // Task history
+        options.addOption(OptionBuilder.withLongOpt("history")
+                .hasArg().withDescription("File of past run times; predicts this run's duration and paces polling").create());
+        
+        // Retries of transient HFM failures
+        options.addOption(OptionBuilder.withLongOpt("retries")
+                .hasArg().withDescription("Retries of an HFM call after a transient failure (default: 4, 0 = none); submits are only repeated if never sent").create());
+        options.addOption(OptionBuilder.withLongOpt("retryBackoff")
+                .hasArg().withDescription("Base retry delay in ms, doubled per attempt with jitter, at most 30 s (default: 1000)").create());
+        
+        // Metrics export
+        options.addOption(OptionBuilder.withLongOpt("metricsFile")
+                .hasArg().withDescription("Write Prometheus metrics to this .prom file (node-exporter textfile collector)").create());
+        options.addOption(OptionBuilder.withLongOpt("metricsInterval")
+                .hasArg().withDescription("Also rewrite the metrics file every N ms while the operation runs").create());
+        
+        // Event sinks
+        options.addOption(OptionBuilder.withLongOpt("eventLog")
+                .hasArg().withDescription("Also append every event to this NDJSON file").create());
+        options.addOption(OptionBuilder.withLongOpt("eventLogMaxBytes")
+                .hasArg().withDescription("Rotate the event log at this size (default: 67108864)").create());
+        options.addOption(OptionBuilder.withLongOpt("eventLogFiles")
+                .hasArg().withDescription("Rotated event logs to keep (default: 5)").create());
+        options.addOption(OptionBuilder.withLongOpt("eventFifo")
+                .hasArg().withDescription("Stream events to this named pipe for live dashboards (best effort)").create());
+        
+        // Execution engine
+        options.addOption(OptionBuilder.withLongOpt("threads")
+                .hasArg().withDescription("Threads for Workflow/Batch/fan-out: auto (virtual on Java 21+), virtual, platform").create());
+        options.addOption(OptionBuilder.withLongOpt("maxRpc")
+                .hasArg().withDescription("At most this many HFM calls in flight at once from this JVM").create());
+        
+        // Backend selection
+        options.addOption(OptionBuilder.withLongOpt("backend")
+                .hasArg().withDescription("HFM backend: oracle[:stopTasks=M,calcStatus=M,extractFile=G] (default) or sim[:key=value,...] for the in-process simulator").create());
+        
         return options;
     }
 
@@ -1022,6 +2789,12 @@ public class HfmCli {
         System.out.println("  ExtractMemberLists     Extract member lists");
         System.out.println("  ExtractSecurity        Extract security");
         System.out.println("  ExtractJournals        Extract journals");
+        System.out.println("  Wait                   Wait for tasks submitted earlier (--taskIds)");
+        System.out.println("  Status                 Report the progress of tasks once (--taskIds)");
+        System.out.println("  Workflow               Load, translate, consolidate and extract, pipelined over --periods");
+        System.out.println("  Batch                  Run the operations in --batchFile by priority class and deadline");
+        System.out.println("  DiffExtracts           Compare two ExtractData flatfiles (--before, --after); no HFM login");
+        System.out.println("  Lookup                 Read cells for a POV (-s) from a --snapshot; no HFM login");
         System.out.println();
         
         HelpFormatter formatter = new HelpFormatter();
@@ -1042,6 +2815,36 @@ public class HfmCli {
         System.out.println("    java project1.HfmCli ExtractData -u admin -p pass -a HCHFM -c HCHFMP \\");
         System.out.println("      -s \"S#Actual.Y#2025...\" --extractFormat flatfile");
         System.out.println();
+        System.out.println("  Extract data and fail unless the file has at least 1000 rows:");
+        System.out.println("    java project1.HfmCli ExtractData -u admin -p pass -a HCHFM -c HCHFMP \\");
+        System.out.println("      -s \"S#Actual.Y#2025...\" --verify --extractFile \"\\\\hfmshare\\extract\\actual.dat\" --minRows 1000");
+        System.out.println();
+        System.out.println("  Compare extracts taken before and after a re-consolidation:");
+        System.out.println("    java project1.HfmCli DiffExtracts --before pre.dat --after post.dat --tolerance 0.01");
+        System.out.println();
+        System.out.println("  Look up values locally from a snapshot of the last extract:");
+        System.out.println("    java project1.HfmCli ExtractData ... --extractFile actual.dat --snapshot actual.hfs");
+        System.out.println("    java project1.HfmCli Lookup --snapshot actual.hfs -s \"S#Actual.Y#2025.P#Jan.E#CO_J00000.A#Sales\"");
+        System.out.println();
+        System.out.println("  Extract journals of a quarter in one shard per period, 3 at a time:");
+        System.out.println("    java project1.HfmCli ExtractJournals -u admin -p pass -a HCHFM -c HCHFMP \\");
+        System.out.println("      -s \"S#Actual.Y#2025.P#Jan;Feb;Mar\" --journalShards period --journalParallel 3");
+        System.out.println();
+        System.out.println("  Workflow:");
+        System.out.println("    java project1.HfmCli Workflow -u admin -p pass -a HCHFM -c HCHFMP \\");
+        System.out.println("      -s \"S#Actual.Y#2025.E#CO_J00000...\" --periods Jan,Feb,Mar \\");
+        System.out.println("      -f \"C:\\data\\load_{period}.dat\" --stageLimits load=2,consolidate=1");
+        System.out.println();
+        System.out.println("  Give up on a hung consolidation after 2 hours, or 20 minutes without progress:");
+        System.out.println("    java project1.HfmCli Consolidate -u admin -p pass -a HCHFM -c HCHFMP \\");
+        System.out.println("      -s \"S#Actual.Y#2025...\" --timeout 120 --stallTimeout 20");
+        System.out.println();
+        System.out.println("  Backup extracts of several applications at once:");
+        System.out.println("    java project1.HfmCli ExtractSecurity -u admin -p pass -c HCHFMP -a HCHFM,HCPLAN,HCTAX");
+        System.out.println("    java project1.HfmCli ExtractRules -u admin -p pass --targets targets.txt --fanOut 6");
+        System.out.println("    java project1.HfmCli ExtractRules -u admin -p pass -a HCHFM -c HCHFMP \\");
+        System.out.println("      --extractFile \"\\\\hfmshare\\extract\\HCHFM.xml\" --store D:\\hfmbackup");
+        System.out.println();
         System.out.println("Exit Codes:");
         System.out.println("  0 - Success");
         System.out.println("  1 - Invalid arguments");
@@ -1049,6 +2852,9 @@ public class HfmCli {
         System.out.println("  3 - Operation failed");
         System.out.println("  4 - Task failed");
         System.out.println("  5 - Unknown error");
+        System.out.println("  6 - Tasks still running (Status)");
+        System.out.println("  7 - Timed out (--timeout, --queueTimeout, --stallTimeout); tasks stopped");
+        System.out.println("  8 - Terminated by signal while waiting; tasks stopped unless --keepTasksOnExit");
     }
 
     // ==================== Main Entry Point ====================
@@ -1058,7 +2864,7 @@ public class HfmCli {
      * Operation can be at the START or END of args (for compatibility with existing HFMcons usage).
      * Returns null if no valid operation found.
      */
-    private static String findOperation(String[] args) {
+    static String findOperation(String[] args) {
         String[] validOps = {
             "consolidate", "loaddata", "load", "translate",
             "extractdata", "extract", "extractdatatodatabase", "extractdatatoflatfile",
@@ -1066,7 +2872,8 @@ public class HfmCli {
             "extractrules", "rules",
             "extractmemberlists", "memberlists",
             "extractsecurity", "security",
-            "extractjournals", "journals"
+            "extractjournals", "journals",
+            "wait", "status", "workflow", "batch", "diffextracts", "diff", "lookup"
         };
         
         // Check each argument for a valid operation
@@ -1085,7 +2892,7 @@ public class HfmCli {
     /**
      * Removes the operation from args array for parsing remaining options.
      */
-    private static String[] removeOperation(String[] args, String operation) {
+    static String[] removeOperation(String[] args, String operation) {
         List<String> result = new ArrayList<String>();
         boolean removed = false;
         for (String arg : args) {
@@ -1099,33 +2906,76 @@ public class HfmCli {
     }
     
     public static void main(String[] args) {
-        Options options = buildOptions();
-        CommandLineParser parser = new GnuParser();  // Commons CLI 1.2 parser
+        // Check for help or version first
+        if (args.length == 0) {
+            printHelp(buildOptions());
+            System.exit(EXIT_SUCCESS);
+        }
         
-        try {
-            // Check for help or version first
-            if (args.length == 0) {
-                printHelp(options);
+        for (String arg : args) {
+            if (arg.equals("-h") || arg.equals("--help")) {
+                printHelp(buildOptions());
                 System.exit(EXIT_SUCCESS);
             }
-            
-            for (String arg : args) {
-                if (arg.equals("-h") || arg.equals("--help")) {
-                    printHelp(options);
-                    System.exit(EXIT_SUCCESS);
-                }
-                if (arg.equals("-V") || arg.equals("--version")) {
-                    System.out.println("{\"version\":\"" + VERSION + "\"}");
-                    System.exit(EXIT_SUCCESS);
-                }
+            if (arg.equals("-V") || arg.equals("--version")) {
+                System.out.println("{\"version\":\"" + VERSION + "\"}");
+                System.exit(EXIT_SUCCESS);
             }
-            
+        }
+        
+        Runtime.getRuntime().addShutdownHook(new Thread("hfmcli-shutdown") {
+            @Override public void run() {
+                onShutdown();
+            }
+        });
+        System.exit(execute(args));
+    }
+    
+    // Set once the backend stack is built; nested and concurrent execute() calls share that stack
+    private static boolean backendConfigured;
+    
+    /**
+     * Builds the backend stack on the first execute() of the JVM: the
+     * simulator for --backend sim, a configured OracleHfmBackend for
+     * --backend oracle:..., else the backend already set, under --maxRpc and
+     * the retry layer. Later calls (Batch lines, fan-out
+     * targets, HfmLoadTest jobs) run on the same stack, so one call cannot
+     * swap the limiter or the simulator under another one in flight.
+     */
+    private static synchronized void configureBackend(CommandLine cl, String backendSpec) {
+        if (backendConfigured) return;
+        HfmBackend base;
+        if (SimulatedHfmBackend.isSimulatorSpec(backendSpec)) {
+            base = new SimulatedHfmBackend(backendSpec);
+        } else if (backendSpec.indexOf(':') >= 0) {
+            base = new OracleHfmBackend(backendSpec);
+        } else {
+            base = ResilientHfmBackend.unwrap(backend);
+        }
+        // Retries go outermost, so a call backing off does not hold a --maxRpc permit
+        if (cl.hasOption("maxRpc")) {
+            base = LimitedHfmBackend.wrap(base, Integer.parseInt(cl.getOptionValue("maxRpc")));
+        }
+        backend = ResilientHfmBackend.wrap(base, cl);
+        backendConfigured = true;
+    }
+    
+    /**
+     * Parses the arguments, runs one operation and returns its exit code.
+     * Used by main and by in-process drivers such as HfmLoadTest.
+     */
+    static int execute(String[] args) {
+        Options options = buildOptions();
+        CommandLineParser parser = new GnuParser();  // Commons CLI 1.2 parser
+        
+        try {
             // Find operation (can be at START or END of args for compatibility)
             String operation = findOperation(args);
             if (operation == null) {
-                jsonError("No valid operation specified. Use: Consolidate, LoadData, Translate, ExtractData, ExtractDataToDatabase, ExtractMetadata, ExtractRules, ExtractMemberLists, ExtractSecurity, ExtractJournals", "Unknown", null);
+                jsonError("No valid operation specified. Use: Consolidate, LoadData, Translate, ExtractData, ExtractDataToDatabase, ExtractMetadata, ExtractRules, ExtractMemberLists, ExtractSecurity, ExtractJournals, Wait, Status, Workflow, Batch, DiffExtracts, Lookup", "Unknown", null);
+                bus.flush(EVENT_FLUSH_TIMEOUT_MS);
                 printHelp(options);
-                System.exit(EXIT_INVALID_ARGS);
+                return EXIT_INVALID_ARGS;
             }
             
             // Remove operation from args and parse remaining options
@@ -1138,12 +2988,44 @@ public class HfmCli {
             if (cl.hasOption("pollInterval")) {
                 pollInterval = Integer.parseInt(cl.getOptionValue("pollInterval"));
             }
+            String backendSpec = cl.getOptionValue("backend", "oracle");
+            if (!SimulatedHfmBackend.isSimulatorSpec(backendSpec) && !OracleHfmBackend.isOracleSpec(backendSpec)) {
+                jsonError("Unknown backend: " + backendSpec, operation, null);
+                return EXIT_INVALID_ARGS;
+            }
+            configureBackend(cl, backendSpec);
+            if (cl.hasOption("threads")) {
+                HfmThreads.configure(cl.getOptionValue("threads"));
+            }
+            
+            if (cl.hasOption("eventLog")) {
+                File eventLog = new File(cl.getOptionValue("eventLog"));
+                long maxBytes = Long.parseLong(cl.getOptionValue("eventLogMaxBytes", "67108864"));
+                int keep = Integer.parseInt(cl.getOptionValue("eventLogFiles", "5"));
+                bus.addSink("file:" + eventLog.getAbsolutePath(),
+                        new EventBus.RotatingFileSink(eventLog, maxBytes, keep), true);
+            }
+            if (cl.hasOption("eventFifo")) {
+                File fifo = new File(cl.getOptionValue("eventFifo"));
+                bus.addSink("fifo:" + fifo.getAbsolutePath(), new EventBus.FifoSink(fifo), false);
+            }
+            
+            File metricsFile = cl.hasOption("metricsFile") ? new File(cl.getOptionValue("metricsFile")) : null;
+            Thread exporter = null;
+            if (metricsFile != null && cl.hasOption("metricsInterval")) {
+                exporter = metrics.startExporter(metricsFile, Long.parseLong(cl.getOptionValue("metricsInterval")));
+            }
             
             // Route to appropriate operation handler
             int exitCode;
             String op = operation.toLowerCase().replace("_", "");
+            List<Target> targets = op.equals("batch") ? null : fanOutTargets(cl);
             
-            if (op.equals("consolidate")) {
+            if (targets != null) {
+                exitCode = doFanOut(operation, cl, targets, verbose);
+            } else if (op.equals("consolidate") && cl.hasOption("planEntities")) {
+                exitCode = doConsolidatePlan(cl, pollInterval, verbose);
+            } else if (op.equals("consolidate")) {
                 exitCode = doConsolidate(cl, pollInterval, verbose);
             } else if (op.equals("loaddata") || op.equals("load")) {
                 exitCode = doLoadData(cl, pollInterval, verbose);
@@ -1163,21 +3045,47 @@ public class HfmCli {
                 exitCode = doExtractSecurity(cl, pollInterval, verbose);
             } else if (op.equals("extractjournals") || op.equals("journals")) {
                 exitCode = doExtractJournals(cl, pollInterval, verbose);
+            } else if (op.equals("wait")) {
+                exitCode = doWait(cl, pollInterval, verbose);
+            } else if (op.equals("status")) {
+                exitCode = doStatus(cl, verbose);
+            } else if (op.equals("workflow")) {
+                exitCode = doWorkflow(cl, pollInterval, verbose);
+            } else if (op.equals("batch")) {
+                exitCode = doBatch(cl, verbose);
+            } else if (op.equals("diffextracts") || op.equals("diff")) {
+                exitCode = doDiffExtracts(cl, verbose);
+            } else if (op.equals("lookup")) {
+                exitCode = doLookup(cl, verbose);
             } else {
                 jsonError("Unknown operation: " + operation, operation, null);
+                bus.flush(EVENT_FLUSH_TIMEOUT_MS);
                 printHelp(options);
                 exitCode = EXIT_INVALID_ARGS;
             }
             
-            System.exit(exitCode);
+            // Results reach stdout and the metrics registry asynchronously
+            bus.flush(EVENT_FLUSH_TIMEOUT_MS);
+            if (exporter != null) exporter.interrupt();
+            if (metricsFile != null) {
+                try {
+                    metrics.writeTextfile(metricsFile);
+                } catch (Exception e) {
+                    System.err.println("WARN: cannot write metrics file " + metricsFile + ": " + e.getMessage());
+                }
+            }
+            
+            return exitCode;
             
         } catch (ParseException e) {
             jsonError("Failed to parse arguments: " + e.getMessage(), "Unknown", null);
-            System.exit(EXIT_INVALID_ARGS);
+            return EXIT_INVALID_ARGS;
         } catch (Exception e) {
             jsonError("Unexpected error: " + e.getMessage(), "Unknown", null);
             e.printStackTrace(System.err);
-            System.exit(EXIT_UNKNOWN_ERROR);
+            return EXIT_UNKNOWN_ERROR;
+        } finally {
+            bus.flush(EVENT_FLUSH_TIMEOUT_MS);
         }
     }
 }
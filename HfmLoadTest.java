@@ -0,0 +1,359 @@
+/*
+ * HfmLoadTest.java - Replays a close-night schedule of HfmCli operations
+ *
+ * Runs HfmCli operations in-process against the HFM simulator, with jobs
+ * arriving on a recorded or synthetic schedule and at most --concurrency of
+ * them in flight (the Control-M slot limit). Reports throughput, makespan,
+ * job latency percentiles from a histogram, and progress-polling RPC counts,
+ * so concurrency limits and poll intervals can be sized before close.
+ *
+ * All times in the schedule and in the report are simulated milliseconds;
+ * the simulator's timeScale compresses them into real time, retry backoff
+ * and circuit breaker cooldowns included (see ResilientHfmBackend).
+ *
+ * Schedule file (one job per line, # comments allowed):
+ *   <offset_ms> <duration_ms|-> <operation> [HfmCli options...]
+ *   0      3600000 Consolidate -s "S#Actual.Y#2025.P#Dec.E#Group" -t AllWithData
+ *   60000  -       LoadData -f "C:\data\dec_us.dat"
+ *
+ * Usage examples:
+ *   java project1.HfmLoadTest --schedule close.txt --concurrency 8 \
+ *        --backend "sim:workers=6,timeScale=0.01"
+ *   java project1.HfmLoadTest --synthetic 200 --arrivalMs 20000 \
+ *        --mix consolidate=0.5,load=0.3,extract=0.2 --pollInterval 5000
+ */
+
+package project1;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+public class HfmLoadTest {
+
+    private static final String DEFAULT_BACKEND = "sim:timeScale=0.01";
+    private static final String DEFAULT_MIX = "consolidate=0.4,translate=0.1,load=0.3,extract=0.2";
+    private static final String[] PERIODS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    // ==================== Jobs ====================
+
+    private static class Job {
+        int index;
+        long offsetMs;
+        Long durationMs;
+        String operation;
+        String[] args;
+
+        // Real nanoTime stamps, filled in while running
+        long arrivedAt;
+        long startedAt;
+        long finishedAt;
+        int exitCode = -1;
+    }
+
+    private static List<Job> readSchedule(String file) throws Exception {
+        List<Job> jobs = new ArrayList<Job>();
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                List<String> tokens = tokenize(line);
+                if (tokens.size() < 3) {
+                    throw new IllegalArgumentException("Schedule line " + lineNo + ": expected <offset_ms> <duration_ms|-> <operation> [options]");
+                }
+                Job job = new Job();
+                job.index = jobs.size();
+                job.offsetMs = Long.parseLong(tokens.get(0));
+                job.durationMs = "-".equals(tokens.get(1)) ? null : Long.valueOf(tokens.get(1));
+                job.operation = tokens.get(2);
+                job.args = tokens.subList(2, tokens.size()).toArray(new String[0]);
+                jobs.add(job);
+            }
+        } finally {
+            r.close();
+        }
+        return jobs;
+    }
+
+    /** Splits on whitespace, honouring double quotes. */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder cur = new StringBuilder();
+        boolean inQuotes = false;
+        boolean hasToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+                hasToken = true;
+            } else if (Character.isWhitespace(c) && !inQuotes) {
+                if (hasToken) {
+                    tokens.add(cur.toString());
+                    cur.setLength(0);
+                    hasToken = false;
+                }
+            } else {
+                cur.append(c);
+                hasToken = true;
+            }
+        }
+        if (hasToken) tokens.add(cur.toString());
+        return tokens;
+    }
+
+    private static List<Job> syntheticSchedule(int count, long meanArrivalMs, String mixSpec, long seed) {
+        Map<String, Double> mix = new LinkedHashMap<String, Double>();
+        double total = 0;
+        for (String kv : mixSpec.split(",")) {
+            String[] p = kv.split("=");
+            double w = Double.parseDouble(p[1].trim());
+            mix.put(p[0].trim().toLowerCase(Locale.ENGLISH), w);
+            total += w;
+        }
+
+        Random r = new Random(seed);
+        List<Job> jobs = new ArrayList<Job>();
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            // Poisson arrivals: exponential inter-arrival times
+            offset += (long) (-Math.log(1.0 - r.nextDouble()) * meanArrivalMs);
+            double pick = r.nextDouble() * total;
+            String kind = null;
+            for (Map.Entry<String, Double> e : mix.entrySet()) {
+                kind = e.getKey();
+                pick -= e.getValue();
+                if (pick <= 0) break;
+            }
+            String pov = "S#Actual.Y#2025.P#" + PERIODS[r.nextInt(PERIODS.length)] + ".E#E" + (r.nextInt(50) + 1);
+
+            Job job = new Job();
+            job.index = i;
+            job.offsetMs = offset;
+            if ("consolidate".equals(kind)) {
+                job.args = new String[] {"Consolidate", "-s", pov, "-t", "AllWithData"};
+            } else if ("translate".equals(kind)) {
+                job.args = new String[] {"Translate", "-s", pov};
+            } else if ("load".equals(kind)) {
+                job.args = new String[] {"LoadData", "-f", "load_" + i + ".dat"};
+            } else if ("extract".equals(kind)) {
+                job.args = new String[] {"ExtractData", "-s", pov};
+            } else {
+                throw new IllegalArgumentException("Unknown operation in --mix: " + kind);
+            }
+            job.operation = job.args[0];
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    // ==================== Main Entry Point ====================
+
+    public static void main(String[] args) {
+        try {
+            Options opt = new Options();
+            opt.addOption("h", "help", false, "Help");
+            opt.addOption(null, "schedule", true, "Schedule file to replay");
+            opt.addOption(null, "synthetic", true, "Generate N synthetic jobs instead of reading a schedule");
+            opt.addOption(null, "arrivalMs", true, "Mean synthetic inter-arrival time in simulated ms (default 30000)");
+            opt.addOption(null, "mix", true, "Synthetic operation mix (default " + DEFAULT_MIX + ")");
+            opt.addOption(null, "seed", true, "Synthetic schedule seed (default 1)");
+            opt.addOption(null, "concurrency", true, "Maximum jobs in flight (default 10)");
+            opt.addOption(null, "pollInterval", true, "HfmCli polling interval in simulated ms (default 2000)");
+            opt.addOption(null, "backend", true, "Simulator spec (default " + DEFAULT_BACKEND + ")");
+            opt.addOption("a", "app", true, "Application name passed to jobs (default APP)");
+            opt.addOption("c", "cluster", true, "Cluster name passed to jobs (default CLUSTER)");
+            opt.addOption("v", "verbose", false, "Print one JSON line per finished job");
+
+            CommandLine cl = new BasicParser().parse(opt, args);
+            if (cl.hasOption('h') || (!cl.hasOption("schedule") && !cl.hasOption("synthetic"))) {
+                new HelpFormatter().printHelp("HfmLoadTest", opt);
+                System.exit(cl.hasOption('h') ? 0 : 1);
+            }
+
+            String backendSpec = cl.getOptionValue("backend", DEFAULT_BACKEND);
+            if (!SimulatedHfmBackend.isSimulatorSpec(backendSpec)) {
+                System.err.println("Error: --backend must be a simulator spec (sim[:key=value,...])");
+                System.exit(1);
+            }
+            SimulatedHfmBackend sim = new SimulatedHfmBackend(backendSpec);
+            double scale = sim.config.timeScale;
+
+            List<Job> jobs = cl.hasOption("schedule")
+                    ? readSchedule(cl.getOptionValue("schedule"))
+                    : syntheticSchedule(Integer.parseInt(cl.getOptionValue("synthetic")),
+                            Long.parseLong(cl.getOptionValue("arrivalMs", "30000")),
+                            cl.getOptionValue("mix", DEFAULT_MIX),
+                            Long.parseLong(cl.getOptionValue("seed", "1")));
+
+            int concurrency = Integer.parseInt(cl.getOptionValue("concurrency", "10"));
+            long pollSimMs = Long.parseLong(cl.getOptionValue("pollInterval", "2000"));
+            int pollRealMs = (int) Math.max(1, Math.round(pollSimMs * scale));
+            String app = cl.getOptionValue("a", "APP");
+            String cluster = cl.getOptionValue("c", "CLUSTER");
+            boolean verbose = cl.hasOption('v');
+
+            Report report = run(sim, jobs, concurrency, pollRealMs, app, cluster, verbose);
+            System.out.println(report.toJson(sim, concurrency, pollSimMs));
+            System.exit(report.failed == 0 ? 0 : 4);
+
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // ==================== Replay ====================
+
+    private static Report run(final SimulatedHfmBackend sim, List<Job> jobs, int concurrency,
+            final int pollRealMs, final String app, final String cluster, final boolean verbose) throws Exception {
+        final double scale = sim.config.timeScale;
+        final PrintStream console = System.out;
+
+        // Job JSON results are not interesting here; keep them off the console
+        HfmCli.backend = sim;
+        HfmCli.out = new PrintStream(new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        });
+
+        final Report report = new Report(scale);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        report.startedAt = start;
+
+        for (final Job job : jobs) {
+            long due = start + (long) (job.offsetMs * scale * 1000000.0);
+            long wait = due - System.nanoTime();
+            if (wait > 0) Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            job.arrivedAt = System.nanoTime();
+
+            pool.execute(new Runnable() {
+                public void run() {
+                    job.startedAt = System.nanoTime();
+                    sim.setDurationHint(job.durationMs);
+                    try {
+                        List<String> a = new ArrayList<String>();
+                        for (String s : job.args) a.add(s);
+                        // Defaults go last so options given in the schedule win
+                        String[] defaults = {"-u", "loadtest", "-p", "loadtest", "-a", app, "-c", cluster,
+                                "--pollInterval", String.valueOf(pollRealMs)};
+                        for (String s : defaults) a.add(s);
+                        job.exitCode = HfmCli.execute(a.toArray(new String[0]));
+                    } finally {
+                        sim.setDurationHint(null);
+                        job.finishedAt = System.nanoTime();
+                        report.add(job);
+                        if (verbose) {
+                            synchronized (console) {
+                                console.println("{\"type\":\"job\",\"index\":" + job.index
+                                        + ",\"operation\":\"" + HfmCli.escapeJson(job.operation) + "\""
+                                        + ",\"exit_code\":" + job.exitCode
+                                        + ",\"queue_ms\":" + report.simMs(job.startedAt - job.arrivedAt)
+                                        + ",\"latency_ms\":" + report.simMs(job.finishedAt - job.arrivedAt) + "}");
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) { }
+        report.finishedAt = System.nanoTime();
+        return report;
+    }
+
+    // ==================== Report ====================
+
+    private static class Report {
+        final double scale;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final Map<String, LatencyHistogram> byOperation = new LinkedHashMap<String, LatencyHistogram>();
+        long startedAt;
+        long finishedAt;
+        int ok;
+        int failed;
+
+        Report(double scale) {
+            this.scale = scale;
+        }
+
+        long simMs(long realNanos) {
+            return Math.round(realNanos / 1000000.0 / scale);
+        }
+
+        synchronized void add(Job job) {
+            long latencyMs = simMs(job.finishedAt - job.arrivedAt);
+            latency.record(latencyMs);
+            queueWait.record(simMs(job.startedAt - job.arrivedAt));
+            String op = job.operation.toLowerCase(Locale.ENGLISH);
+            LatencyHistogram h = byOperation.get(op);
+            if (h == null) {
+                h = new LatencyHistogram();
+                byOperation.put(op, h);
+            }
+            h.record(latencyMs);
+            if (job.exitCode == 0) ok++; else failed++;
+        }
+
+        synchronized String toJson(SimulatedHfmBackend sim, int concurrency, long pollSimMs) {
+            long makespanMs = simMs(finishedAt - startedAt);
+            int jobs = ok + failed;
+            double perHour = makespanMs > 0 ? jobs * 3600000.0 / makespanMs : 0;
+            long polls = sim.pollCalls.get();
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"type\":\"loadtest\"");
+            sb.append(",\"jobs\":").append(jobs);
+            sb.append(",\"ok\":").append(ok);
+            sb.append(",\"failed\":").append(failed);
+            sb.append(",\"concurrency\":").append(concurrency);
+            sb.append(",\"poll_interval_ms\":").append(pollSimMs);
+            sb.append(",\"sim_workers\":").append(sim.config.workers);
+            sb.append(",\"makespan_ms\":").append(makespanMs);
+            sb.append(",\"throughput_per_hour\":").append(String.format(Locale.ROOT, "%.1f", perHour));
+            sb.append(",\"latency_ms\":").append(latency.toJson());
+            sb.append(",\"client_queue_ms\":").append(queueWait.toJson());
+            sb.append(",\"by_operation\":{");
+            boolean first = true;
+            for (Map.Entry<String, LatencyHistogram> e : byOperation.entrySet()) {
+                if (!first) sb.append(",");
+                first = false;
+                sb.append("\"").append(HfmCli.escapeJson(e.getKey())).append("\":").append(e.getValue().toJson());
+            }
+            sb.append("}");
+            sb.append(",\"rpc\":{\"auth\":").append(sim.authCalls.get());
+            sb.append(",\"session\":").append(sim.sessionCalls.get());
+            sb.append(",\"submit\":").append(sim.submitCalls.get());
+            sb.append(",\"poll\":").append(polls);
+            sb.append(",\"extract\":").append(sim.extractCalls.get());
+            sb.append(",\"injected_errors\":").append(sim.injectedErrors.get());
+            sb.append("}");
+            sb.append(",\"polls_per_job\":").append(String.format(Locale.ROOT, "%.1f", jobs > 0 ? (double) polls / jobs : 0));
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * HfmMetrics.java - Client-side metrics with a Prometheus textfile exporter
+ *
+ * Counters and histograms for operations by type and status, session
+ * creation latency, task queue wait and run time, progress polls, and bytes
+ * of load/extract files. Recording only touches LongAdder/DoubleAdder cells
+ * (no locks), so it is cheap enough to leave on in production.
+ *
+ * writeTextfile renders the OpenMetrics/Prometheus text format into a
+ * temporary file next to the target and renames it into place, so the
+ * node-exporter textfile collector never sees a half-written file. Jobs that
+ * may run concurrently should each write their own .prom file.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+class HfmMetrics {
+
+    // Upper bounds in seconds; covers sub-second RPCs up to multi-hour consolidations
+    static final double[] BUCKETS = {
+        0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1200, 1800, 3600, 7200, 14400
+    };
+
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    // ==================== Recording ====================
+
+    /** Records a finished operation from its status and phase timings. */
+    void recordOperation(String operation, String status, long elapsedMs, PhaseTimer phases) {
+        String op = operation != null ? operation : "Unknown";
+        counter("hfmcli_operations_total", "Operations finished, by operation and status.",
+                "operation", op, "status", status).increment();
+        histogram("hfmcli_operation_duration_seconds", "End-to-end operation time.",
+                "operation", op).observe(elapsedMs / 1000.0);
+        if (phases == null) return;
+
+        long auth = phases.phaseNanos("authenticate");
+        long session = phases.phaseNanos("create_session");
+        long queue = phases.phaseNanos("queue_wait");
+        long run = phases.phaseNanos("run");
+        long admission = phases.phaseNanos("admission_wait");
+        if (auth > 0) {
+            histogram("hfmcli_authenticate_seconds", "Shared Services authentication latency.")
+                    .observe(auth / 1e9);
+        }
+        if (session > 0) {
+            histogram("hfmcli_session_create_seconds", "HFM session creation latency.")
+                    .observe(session / 1e9);
+        }
+        if (queue > 0) {
+            histogram("hfmcli_task_queue_wait_seconds", "Time until the server started a submitted task.",
+                    "operation", op).observe(queue / 1e9);
+        }
+        if (admission > 0) {
+            histogram("hfmcli_admission_wait_seconds", "Time waiting for an --admitLimits slot before submitting.",
+                    "operation", op).observe(admission / 1e9);
+        }
+        if (run > 0) {
+            histogram("hfmcli_task_run_seconds", "Server task run time after it left the queue.",
+                    "operation", op).observe(run / 1e9);
+        }
+        if (phases.polls() > 0) {
+            counter("hfmcli_poll_calls_total", "getCurrentTaskProgress calls.",
+                    "operation", op).add(phases.polls());
+        }
+    }
+
+    /** Records the size of a load file read or an extract file produced. */
+    void recordFileBytes(String operation, String direction, long bytes) {
+        if (bytes <= 0) return;
+        counter("hfmcli_file_bytes_total", "Bytes of load and extract files handled.",
+                "operation", operation, "direction", direction).add(bytes);
+    }
+
+    LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").series(labels);
+    }
+
+    /** A value that goes up and down (add a negative delta to decrease). */
+    LongAdder gauge(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "gauge").series(labels);
+    }
+
+    Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").series(labels);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family f = families.get(name);
+        if (f == null) {
+            Family created = new Family(name, help, type);
+            f = families.putIfAbsent(name, created);
+            if (f == null) f = created;
+        }
+        return f;
+    }
+
+    // ==================== Metric Types ====================
+
+    static class Histogram {
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        final LongAdder count = new LongAdder();
+        final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(double value) {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (value <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+    }
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final ConcurrentHashMap<String, Object> series = new ConcurrentHashMap<String, Object>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Object series(String... labels) {
+            String key = labelString(labels);
+            Object s = series.get(key);
+            if (s == null) {
+                Object created = "histogram".equals(type) ? new Histogram() : new LongAdder();
+                s = series.putIfAbsent(key, created);
+                if (s == null) s = created;
+            }
+            return s;
+        }
+    }
+
+    // Renders name/value pairs as the inside of a Prometheus label set: a="x",b="y"
+    private static String labelString(String... labels) {
+        if (labels.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) sb.append(",");
+            sb.append(labels[i]).append("=\"");
+            String v = labels[i + 1] != null ? labels[i + 1] : "";
+            for (int j = 0; j < v.length(); j++) {
+                char c = v.charAt(j);
+                if (c == '\\') sb.append("\\\\");
+                else if (c == '"') sb.append("\\\"");
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+            sb.append("\"");
+        }
+        return sb.toString();
+    }
+
+    // ==================== Exposition ====================
+
+    /** The registry in Prometheus text exposition format. */
+    String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family f : families.values()) {
+            sb.append("# HELP ").append(f.name).append(" ").append(f.help).append("\n");
+            sb.append("# TYPE ").append(f.name).append(" ").append(f.type).append("\n");
+            for (Map.Entry<String, Object> e : new ConcurrentSkipListMap<String, Object>(f.series).entrySet()) {
+                String labels = e.getKey();
+                if (e.getValue() instanceof Histogram) {
+                    Histogram h = (Histogram) e.getValue();
+                    String prefix = labels.isEmpty() ? "" : labels + ",";
+                    long cumulative = 0;
+                    for (int i = 0; i < BUCKETS.length; i++) {
+                        cumulative += h.buckets[i].sum();
+                        sb.append(f.name).append("_bucket{").append(prefix).append("le=\"")
+                                .append(formatBound(BUCKETS[i])).append("\"} ").append(cumulative).append("\n");
+                    }
+                    long count = Math.max(h.count.sum(), cumulative);
+                    sb.append(f.name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count).append("\n");
+                    sb.append(f.name).append("_sum").append(braces(labels)).append(" ")
+                            .append(String.format(Locale.ROOT, "%.6f", h.sum.sum())).append("\n");
+                    sb.append(f.name).append("_count").append(braces(labels)).append(" ").append(count).append("\n");
+                } else {
+                    sb.append(f.name).append(braces(labels)).append(" ")
+                            .append(((LongAdder) e.getValue()).sum()).append("\n");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String formatBound(double b) {
+        return b == Math.rint(b) ? String.valueOf((long) b) : String.valueOf(b);
+    }
+
+    /** Writes the registry to a temporary file beside the target and renames it into place. */
+    void writeTextfile(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile("." + file.getName(), ".tmp", dir);
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(render().getBytes("UTF-8"));
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tmp.exists()) tmp.delete();
+        }
+    }
+
+    /** Rewrites the textfile every intervalMs from a daemon thread (long-running mode). */
+    Thread startExporter(final File file, final long intervalMs) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                boolean warned = false;
+                while (true) {
+                    try {
+                        Thread.sleep(intervalMs);
+                        writeTextfile(file);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        if (!warned) {
+                            System.err.println("WARN: cannot write metrics file " + file + ": " + e.getMessage());
+                            warned = true;
+                        }
+                    }
+                }
+            }
+        }, "hfmcli-metrics-exporter");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * HfmThreads.java - Threads for concurrent operations: virtual where the JVM
+ * has them, platform threads otherwise
+ *
+ * Workflow items, Batch jobs, fan-out targets and the task monitor spend
+ * nearly all their time blocked in HFM calls or sleeping between polls. On
+ * Java 21+ they run on virtual threads, so hundreds of them cost a few KB
+ * each instead of a platform stack each. The code is compiled for Java 8,
+ * so Thread.ofVirtual() is looked up by reflection; on older JVMs (or with
+ * --threads platform) daemon platform threads are used instead.
+ *
+ * Code that runs on these threads blocks through java.util.concurrent
+ * locks, semaphores and latches rather than synchronized/wait, which would
+ * pin a virtual thread to its carrier. How many HFM calls are in flight at
+ * once is capped separately by LimitedHfmBackend (--maxRpc).
+ */
+
+package project1;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+final class HfmThreads {
+
+    private static final ThreadFactory VIRTUAL = virtualFactory();
+    private static volatile boolean useVirtual = VIRTUAL != null;
+    private static volatile boolean warned;
+
+    private HfmThreads() { }
+
+    // Thread.ofVirtual().factory(), or null before Java 21 (or 19/20 without --enable-preview)
+    private static ThreadFactory virtualFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /** --threads: auto (default), virtual or platform. */
+    static void configure(String mode) {
+        if ("platform".equalsIgnoreCase(mode)) {
+            useVirtual = false;
+        } else if ("virtual".equalsIgnoreCase(mode) && VIRTUAL == null) {
+            // Nested execute() calls (Batch, fan-out) configure again; say it once
+            if (!warned) System.err.println("WARN: virtual threads need Java 21+; using platform threads");
+            warned = true;
+            useVirtual = false;
+        } else if ("auto".equalsIgnoreCase(mode) || "virtual".equalsIgnoreCase(mode)) {
+            useVirtual = VIRTUAL != null;
+        } else {
+            throw new IllegalArgumentException("Unknown --threads mode: " + mode + " (use auto, virtual, platform)");
+        }
+    }
+
+    static boolean virtual() {
+        return useVirtual;
+    }
+
+    /** Starts a named thread; it never keeps the JVM alive on its own. */
+    static Thread start(String name, Runnable task) {
+        Thread t;
+        if (useVirtual) {
+            t = VIRTUAL.newThread(task);
+            t.setName(name);
+        } else {
+            t = new Thread(task, name);
+            t.setDaemon(true);
+        }
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * JournalShards.java - Splits a journal extract into shards and merges the
+ * shard files back into one
+ *
+ * ExtractJournals normally asks HFM for every journal of the POV, labels
+ * and groups in one call, and on applications with many journals that one
+ * call is among the slowest close tasks. With --journalShards the request
+ * is split:
+ *
+ *   period     one shard per period of the POV's P# list
+ *   group      one shard per group of --groups
+ *   label[:N]  --labels in batches of N (default 10)
+ *
+ * HfmCli runs the shards concurrently (--journalParallel, default 4, each
+ * shard on its own session) and this class merges the shard files, in
+ * shard order, into one file with a single header:
+ *
+ *   header   the leading comment and '!' lines of the first shard, up to the
+ *            first !GROUP or !JOURNAL line
+ *   groups   every !GROUP line once, in first-seen order
+ *   journals each shard's journal blocks, copied line by line
+ *
+ * Shards do not overlap, so the merged file holds the same lines as the
+ * unsharded extract. Only the order of the blocks can differ, and
+ * normalize() (groups sorted, journal blocks sorted) makes the two
+ * byte-for-byte equal.
+ */
+
+package project1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+class JournalShards {
+
+    static final int DEFAULT_LABEL_BATCH = 10;
+    private static final int IO_BUFFER = 64 * 1024;
+
+    /** One slice of the journal request. */
+    static final class Shard {
+        final String name;
+        final String pov;
+        final List<String> labels;     // null: as requested
+        final List<String> groups;     // null: as requested
+
+        Shard(String name, String pov, List<String> labels, List<String> groups) {
+            this.name = name;
+            this.pov = pov;
+            this.labels = labels;
+            this.groups = groups;
+        }
+    }
+
+    /**
+     * Splits the request by mode ("period", "group" or "label[:N]"). Throws
+     * IllegalArgumentException when the request has nothing to split by.
+     */
+    static List<Shard> plan(String mode, String pov, List<String> labels, List<String> groups) {
+        String m = mode.trim().toLowerCase(Locale.ROOT);
+        List<Shard> shards = new ArrayList<Shard>();
+        if (m.equals("period")) {
+            HFMpovInfo.PovTokens tokens = HFMpovInfo.parsePov(pov);
+            List<String> periods = tokens.periods;
+            if (periods.isEmpty()) throw new IllegalArgumentException("--journalShards period needs P# in the POV");
+            for (String period : periods) {
+                HFMpovInfo.PovTokens one = HFMpovInfo.parsePov(pov);
+                one.periods = Arrays.asList(period.trim());
+                shards.add(new Shard("P#" + period.trim(), one.format(), labels, groups));
+            }
+        } else if (m.equals("group")) {
+            if (groups == null || groups.isEmpty()) throw new IllegalArgumentException("--journalShards group needs --groups");
+            for (String group : groups) {
+                shards.add(new Shard("group " + group, pov, labels, Arrays.asList(group)));
+            }
+        } else if (m.startsWith("label")) {
+            if (labels == null || labels.isEmpty()) throw new IllegalArgumentException("--journalShards label needs --labels");
+            int batch = m.contains(":") ? Integer.parseInt(m.substring(m.indexOf(':') + 1).trim()) : DEFAULT_LABEL_BATCH;
+            batch = Math.max(1, batch);
+            for (int i = 0; i < labels.size(); i += batch) {
+                List<String> slice = new ArrayList<String>(labels.subList(i, Math.min(labels.size(), i + batch)));
+                shards.add(new Shard("labels " + slice.get(0) + (slice.size() > 1 ? ".." + slice.get(slice.size() - 1) : ""),
+                        pov, slice, groups));
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown --journalShards mode: " + mode + " (period, group, label[:N])");
+        }
+        return shards;
+    }
+
+    // ==================== Merge ====================
+
+    /** What went into the merged file. */
+    static final class Merged {
+        long bytes;
+        int journals;
+        int groups;
+    }
+
+    /** Merges shard files, in the given order, into out. */
+    static Merged merge(List<File> shardFiles, File out) throws IOException {
+        Merged merged = new Merged();
+        List<String> header = new ArrayList<String>();
+        Set<String> groups = new LinkedHashSet<String>();
+        // First pass over each file: header (first shard only) and group lines; both are small
+        for (int i = 0; i < shardFiles.size(); i++) {
+            BufferedReader in = reader(shardFiles.get(i));
+            try {
+                boolean inHeader = true;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (isGroup(line)) {
+                        groups.add(line);
+                        inHeader = false;
+                    } else if (isJournal(line)) {
+                        inHeader = false;
+                    } else if (inHeader && i == 0) {
+                        header.add(line);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        File dir = out.getAbsoluteFile().getParentFile();
+        if (dir != null) dir.mkdirs();
+        File part = new File(dir, out.getName() + ".part");
+        Writer w = writer(part);
+        try {
+            for (String line : header) writeLine(w, line);
+            for (String line : groups) writeLine(w, line);
+            // Second pass: journal blocks, streamed shard by shard
+            for (File f : shardFiles) {
+                BufferedReader in = reader(f);
+                try {
+                    boolean body = false;
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (isJournal(line)) {
+                            body = true;
+                            merged.journals++;
+                        }
+                        if (body && !isGroup(line)) writeLine(w, line);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            w.close();
+        }
+        if (out.exists() && !out.delete()) throw new IOException("cannot replace " + out);
+        if (!part.renameTo(out)) throw new IOException("cannot rename " + part + " to " + out);
+        merged.groups = groups.size();
+        merged.bytes = out.length();
+        return merged;
+    }
+
+    /**
+     * Canonical form of a journal file for comparing a merged extract with an
+     * unsharded one: header as is, group lines sorted, journal blocks sorted.
+     * Holds the file in memory; meant for checks, not for production volumes.
+     */
+    static String normalize(File file) throws IOException {
+        List<String> header = new ArrayList<String>();
+        List<String> groups = new ArrayList<String>();
+        List<String> blocks = new ArrayList<String>();
+        StringBuilder block = null;
+        BufferedReader in = reader(file);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (isGroup(line)) {
+                    groups.add(line);
+                } else if (isJournal(line)) {
+                    if (block != null) blocks.add(block.toString());
+                    block = new StringBuilder();
+                    block.append(line).append('\n');
+                } else if (block != null) {
+                    block.append(line).append('\n');
+                } else if (groups.isEmpty()) {
+                    header.add(line);
+                }
+            }
+            if (block != null) blocks.add(block.toString());
+        } finally {
+            in.close();
+        }
+        Collections.sort(groups);
+        Collections.sort(blocks);
+        StringBuilder sb = new StringBuilder();
+        for (String line : header) sb.append(line).append('\n');
+        for (String line : groups) sb.append(line).append('\n');
+        for (String b : blocks) sb.append(b);
+        return sb.toString();
+    }
+
+    private static boolean isGroup(String line) {
+        return line.regionMatches(true, 0, "!GROUP", 0, 6);
+    }
+
+    private static boolean isJournal(String line) {
+        return line.regionMatches(true, 0, "!JOURNAL", 0, 8);
+    }
+
+    private static BufferedReader reader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), IO_BUFFER);
+    }
+
+    private static Writer writer(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), IO_BUFFER);
+    }
+
+    private static void writeLine(Writer w, String line) throws IOException {
+        w.write(line);
+        w.write('\n');
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JsonEventWriter.java - Renders HfmCli result and progress events as JSON lines
+ *
+ * Every event is built in a StringBuilder taken from a shared pool and put
+ * back once rendered (a per-thread one would mean one per virtual thread;
+ * see HfmThreads), strings are escaped in a single pass, and timestamps come from one
+ * cached (thread-safe) DateTimeFormatter instead of a new SimpleDateFormat
+ * per record.
+ *
+ * The schema is the one HfmCli has always printed; events only gain a
+ * trailing "seq" field, a per-process sequence number, so existing Control-M
+ * output parsing keeps working. Events are rendered without that field and
+ * the closing brace: EventBus.publish adds both, numbering events in the
+ * order they are queued. Progress events are suppressed unless a
+ * task's status or percent changed since it was last reported; tasks are
+ * told apart by scope (cluster/application, as task IDs are per server)
+ * and forgotten once their wait is over.
+ */
+
+package project1;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class JsonEventWriter {
+
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ROOT);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Builders grown past this (a huge message) are left to the GC rather than pooled
+    private static final int MAX_POOLED_CHARS = 16384;
+
+    // Idle builders; holds as many as events were ever rendered at once
+    private static final ConcurrentLinkedQueue<StringBuilder> BUFFERS = new ConcurrentLinkedQueue<StringBuilder>();
+
+    // Last reported (status ordinal, percent) per scope and task ID, packed into one long
+    private final ConcurrentHashMap<String, Long> lastProgress = new ConcurrentHashMap<String, Long>();
+
+    // ==================== Events ====================
+
+    /** Renders an operation result line. */
+    String result(String status, String message, String operation, String application,
+            long elapsedMs, List<Integer> taskIds, PhaseTimer phases) {
+        return result(status, message, operation, application, elapsedMs, taskIds, phases, null);
+    }
+
+    /**
+     * Renders an operation result line with extra operation-specific fields;
+     * details is a JSON fragment such as "calc_status":{...} (null for none).
+     */
+    String result(String status, String message, String operation, String application,
+            long elapsedMs, List<Integer> taskIds, PhaseTimer phases, String details) {
+        StringBuilder sb = buffer();
+        sb.append("{\"status\":\"");
+        escape(status, sb);
+        sb.append("\",\"message\":\"");
+        escape(message, sb);
+        sb.append("\",\"operation\":\"");
+        escape(operation, sb);
+        sb.append("\",\"application\":\"");
+        escape(application, sb);
+        sb.append("\",\"elapsed_ms\":").append(elapsedMs);
+        sb.append(",\"timestamp\":\"");
+        TIMESTAMP.formatTo(ZonedDateTime.now(), sb);
+        sb.append("\"");
+        if (taskIds != null && !taskIds.isEmpty()) {
+            sb.append(",\"task_ids\":[");
+            for (int i = 0; i < taskIds.size(); i++) {
+                if (i > 0) sb.append(",");
+                sb.append(taskIds.get(i));
+            }
+            sb.append("]");
+        }
+        if (phases != null) {
+            sb.append(",\"phases\":").append(phases.toJson());
+        }
+        if (details != null) {
+            sb.append(",").append(details);
+        }
+        return release(sb);
+    }
+
+    /**
+     * Renders a progress line, or returns null when the task's status and
+     * percent are unchanged since the last line rendered for it in scope.
+     */
+    String progress(String scope, int taskId, String description, int percent, Enum<?> status) {
+        long state = ((long) (status != null ? status.ordinal() : -1) << 32) | (percent & 0xffffffffL);
+        Long previous = lastProgress.put(scope + "#" + taskId, state);
+        if (previous != null && previous == state) {
+            return null;
+        }
+        StringBuilder sb = buffer();
+        sb.append("{\"type\":\"progress\",\"task_id\":").append(taskId);
+        sb.append(",\"description\":\"");
+        escape(description, sb);
+        sb.append("\",\"percent\":").append(percent);
+        sb.append(",\"status\":\"");
+        escape(status != null ? status.toString() : null, sb);
+        sb.append("\"");
+        return release(sb);
+    }
+
+    /** Drops the last reported state of tasks that are no longer watched. */
+    void forget(String scope, List<Integer> taskIds) {
+        for (Integer id : taskIds) lastProgress.remove(scope + "#" + id);
+    }
+
+    /** Renders the predicted duration of tasks just submitted; prediction is a "prediction":{...} fragment. */
+    String prediction(String operation, List<Integer> taskIds, String prediction) {
+        StringBuilder sb = buffer();
+        sb.append("{\"type\":\"prediction\",\"operation\":\"");
+        escape(operation, sb);
+        sb.append("\",\"task_ids\":[");
+        for (int i = 0; i < taskIds.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(taskIds.get(i));
+        }
+        sb.append("],").append(prediction);
+        return release(sb);
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFERS.poll();
+        return sb != null ? sb : new StringBuilder(512);
+    }
+
+    // The rendered line; the builder goes back to the pool
+    private static String release(StringBuilder sb) {
+        String line = sb.toString();
+        if (sb.capacity() <= MAX_POOLED_CHARS) {
+            sb.setLength(0);
+            BUFFERS.offer(sb);
+        }
+        return line;
+    }
+
+    // ==================== Escaping ====================
+
+    /** Appends s as the body of a JSON string (null becomes empty), in one pass. */
+    static void escape(String s, StringBuilder sb) {
+        if (s == null) return;
+        int len = s.length();
+        int run = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            sb.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    sb.append("\\u00").append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            }
+        }
+        sb.append(s, run, len);
+    }
+
+    /** True if s contains nothing that escape() would change. */
+    static boolean isPlain(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * LatencyHistogram.java - Lock-free log-linear histogram for latency percentiles
+ *
+ * Buckets are exact below 128 and then split every power of two into 64
+ * linear sub-buckets, so any recorded value is reported within 1.6% of its
+ * true value across the whole long range, in a fixed 3776-slot array.
+ * Recording is a single atomic increment; percentiles are computed on read.
+ * Units are whatever the caller records (ms, us, ...).
+ */
+
+package project1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;        // 128 exact values
+    private static final int HALF_COUNT = SUB_COUNT >> 1;      // 64 sub-buckets per octave
+    private static final int SLOTS = (63 - (SUB_BITS - 1)) * HALF_COUNT + SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    static int indexFor(long value) {
+        if (value < SUB_COUNT) return (int) Math.max(0, value);
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - (SUB_BITS - 1);
+        return shift * HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /** Highest value that maps to the given slot. */
+    static long highestEquivalent(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / HALF_COUNT - 1;
+        long sub = index - (long) shift * HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexFor(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) { }
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long max() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    long min() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Value at the given percentile (0-100), never above the recorded maximum. */
+    long percentile(double pct) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(pct / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max());
+            }
+        }
+        return max();
+    }
+
+    /** JSON object with count, min, mean, p50, p95, p99 and max. */
+    String toJson() {
+        return "{\"count\":" + count()
+                + ",\"min\":" + min()
+                + ",\"mean\":" + Math.round(mean())
+                + ",\"p50\":" + percentile(50)
+                + ",\"p95\":" + percentile(95)
+                + ",\"p99\":" + percentile(99)
+                + ",\"max\":" + max() + "}";
+    }
+}
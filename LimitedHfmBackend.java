@@ -0,0 +1,189 @@
+/*
+ * LimitedHfmBackend.java - Caps the number of HFM calls in flight (--maxRpc)
+ *
+ * Wraps another backend; every call (authenticate, create session, submit,
+ * progress poll, extract, close) first takes a permit from one fair
+ * semaphore shared by all sessions of this JVM. Hundreds of concurrent
+ * operations on virtual threads then still put at most maxRpc requests on
+ * the HFM web tier at a time; the rest queue here.
+ *
+ * Time spent waiting for a permit is counted in hfmcli_rpc_wait_seconds.
+ */
+
+package project1;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import oracle.epm.fm.common.datatype.transport.DataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.DataLoadOptions;
+import oracle.epm.fm.common.datatype.transport.JournalExtractOptions;
+import oracle.epm.fm.common.datatype.transport.MetadataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.RULESEXTRACT_FILE_FORMAT;
+import oracle.epm.fm.common.datatype.transport.SecurityExtractOptions;
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+class LimitedHfmBackend implements HfmBackend {
+
+    final HfmBackend delegate;
+    final int limit;
+    private final Semaphore permits;
+
+    private LimitedHfmBackend(HfmBackend delegate, int limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+        this.permits = new Semaphore(limit, true);
+    }
+
+    /** Wraps a backend; an existing limiter with the same limit is kept rather than stacked. */
+    static HfmBackend wrap(HfmBackend backend, int limit) {
+        if (backend instanceof LimitedHfmBackend) {
+            LimitedHfmBackend limited = (LimitedHfmBackend) backend;
+            if (limited.limit == limit) return limited;
+            backend = limited.delegate;
+        }
+        return new LimitedHfmBackend(backend, limit);
+    }
+
+    private void acquire() throws InterruptedException {
+        if (permits.tryAcquire()) return;
+        long start = System.nanoTime();
+        permits.acquire();
+        HfmCli.metrics.histogram("hfmcli_rpc_wait_seconds", "Time HFM calls waited for a --maxRpc permit.")
+                .observe((System.nanoTime() - start) / 1e9);
+    }
+
+    public String authenticateUser(String username, String password) throws Exception {
+        acquire();
+        try {
+            return delegate.authenticateUser(username, password);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public Session createSession(String ssoToken, String cluster, String application) throws Exception {
+        acquire();
+        try {
+            return new LimitedSession(delegate.createSession(ssoToken, cluster, application));
+        } finally {
+            permits.release();
+        }
+    }
+
+    private class LimitedSession implements Session {
+        private final Session session;
+
+        LimitedSession(Session session) {
+            this.session = session;
+        }
+
+        public List<Integer> executeServerTask(WEBOMDATAGRIDTASKMASKENUM type, List<String> povs) throws Exception {
+            acquire();
+            try {
+                return session.executeServerTask(type, povs);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public List<Integer> loadData(List<String> files, List<DataLoadOptions> options) throws Exception {
+            acquire();
+            try {
+                return session.loadData(files, options);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public int extractData(DataExtractOptions options) throws Exception {
+            acquire();
+            try {
+                return session.extractData(options);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public ExtractResult extractMetadata(MetadataExtractOptions options) throws Exception {
+            acquire();
+            try {
+                return session.extractMetadata(options);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public ExtractResult extractRules(RULESEXTRACT_FILE_FORMAT format) throws Exception {
+            acquire();
+            try {
+                return session.extractRules(format);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public ExtractResult extractMemberLists() throws Exception {
+            acquire();
+            try {
+                return session.extractMemberLists();
+            } finally {
+                permits.release();
+            }
+        }
+
+        public ExtractResult extractSecurity(SecurityExtractOptions options) throws Exception {
+            acquire();
+            try {
+                return session.extractSecurity(options);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public ExtractResult extractJournals(JournalExtractOptions options) throws Exception {
+            acquire();
+            try {
+                return session.extractJournals(options);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public List<TaskProgress> getCurrentTaskProgress(List<Integer> taskIds) throws Exception {
+            acquire();
+            try {
+                return session.getCurrentTaskProgress(taskIds);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public boolean cancelTasks(List<Integer> taskIds) throws Exception {
+            acquire();
+            try {
+                return session.cancelTasks(taskIds);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public List<String> getCalcStatus(List<String> povs) throws Exception {
+            acquire();
+            try {
+                return session.getCalcStatus(povs);
+            } finally {
+                permits.release();
+            }
+        }
+
+        public void closeSession() throws Exception {
+            acquire();
+            try {
+                session.closeSession();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * LockFiles.java - One FileChannel per lock file for the life of the JVM
+ *
+ * AdmissionControl slots and TaskJournal submit stripes are byte-range
+ * FileLocks that several threads of one JVM hold on the same file at once.
+ * On POSIX, closing any descriptor of a file drops every lock the process
+ * holds on it, including ranges other threads still hold. So each lock file
+ * is opened once, on first use, and its channel is never closed; the OS
+ * releases the locks when the JVM exits.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class LockFiles {
+
+    private static final ConcurrentHashMap<String, FileChannel> CHANNELS = new ConcurrentHashMap<String, FileChannel>();
+    // Serializes opening only; callers may be virtual threads, so not a monitor around the open (see HfmThreads)
+    private static final ReentrantLock OPEN_LOCK = new ReentrantLock();
+
+    private LockFiles() { }
+
+    /** The JVM-wide channel of a lock file, created (and the file with it) on first use. */
+    static FileChannel channel(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        FileChannel channel = CHANNELS.get(path);
+        if (channel != null) return channel;
+        OPEN_LOCK.lock();
+        try {
+            channel = CHANNELS.get(path);
+            if (channel == null) {
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                CHANNELS.put(path, channel);
+            }
+            return channel;
+        } finally {
+            OPEN_LOCK.unlock();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * OperationScheduler.java - Priority classes with weighted fair sharing for
+ * operations queued in one process (Batch)
+ *
+ * Jobs wait in a queue per priority class (critical, normal, bulk) and, in
+ * each class, per flow (cluster/application). When a slot frees up:
+ *
+ *   1. Jobs with a deadline go first, earliest deadline first; a deadline
+ *      marks the job as critical path, so it overtakes bulk work.
+ *   2. Otherwise the class is picked by weighted fair queuing, implemented
+ *      as stride scheduling: every class has a pass value that advances by
+ *      1/weight per dispatched job and the lowest pass wins. With weights
+ *      8/4/1 a long bulk backlog still gets 1 slot in 13, but can no longer
+ *      starve consolidations.
+ *   3. In the class, flows take turns the same way (equal weights), so one
+ *      application's backlog does not hold up another application.
+ *
+ * A queue that was idle starts at the current pass instead of its old one,
+ * so it cannot save up credit while empty.
+ *
+ * Per class the scheduler tracks jobs, current and maximum queue depth and
+ * queue wait; depth and wait are also exported as metrics.
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class OperationScheduler {
+
+    static final String[] CLASSES = {"critical", "normal", "bulk"};
+    static final String DEFAULT_WEIGHTS = "critical=8,normal=4,bulk=1";
+
+    /** One queued operation. */
+    static final class Job {
+        final int index;
+        final String name;
+        final String priorityClass;
+        final String flow;
+        final long deadline;          // epoch ms, 0 = none
+        final Callable<Integer> work;
+        long queuedAt;
+        long startedAt;
+        long finishedAt;
+        int exitCode = -1;
+        String error;
+
+        Job(int index, String name, String priorityClass, String flow, long deadline, Callable<Integer> work) {
+            this.index = index;
+            this.name = name;
+            this.priorityClass = priorityClass;
+            this.flow = flow;
+            this.deadline = deadline;
+            this.work = work;
+        }
+
+        long waitMs() {
+            return startedAt > 0 ? startedAt - queuedAt : 0;
+        }
+    }
+
+    // Stride-scheduled queue: a pass value and FIFO jobs (or sub-queues)
+    private static final class Lane {
+        final double stride;
+        double pass;
+        final LinkedList<Job> jobs = new LinkedList<Job>();
+        final Map<String, Lane> flows = new LinkedHashMap<String, Lane>();
+        int depth;
+        int maxDepth;
+        int submitted;
+        long waitMsTotal;
+        long waitMsMax;
+
+        Lane(double weight) {
+            this.stride = 1.0 / weight;
+        }
+    }
+
+    private final int slots;
+    private final HfmMetrics metrics;
+    // runAll() waits on operation threads' completions: a ReentrantLock, not a monitor (see HfmThreads)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Lane> classes = new LinkedHashMap<String, Lane>();
+    private final List<Job> deadlineJobs = new ArrayList<Job>();
+    private final List<Job> all = new ArrayList<Job>();
+    private int running;
+    private int queued;
+    private double classPass;
+
+    OperationScheduler(int slots, Map<String, Integer> weights, HfmMetrics metrics) {
+        this.slots = Math.max(1, slots);
+        this.metrics = metrics;
+        for (String c : CLASSES) {
+            Integer w = weights.get(c);
+            classes.put(c, new Lane(w != null && w > 0 ? w : 1));
+        }
+    }
+
+    static boolean isClass(String name) {
+        for (String c : CLASSES) {
+            if (c.equals(name)) return true;
+        }
+        return false;
+    }
+
+    // ==================== Queueing ====================
+
+    void submit(Job job) {
+        if (!classes.containsKey(job.priorityClass)) {
+            throw new IllegalArgumentException("Unknown priority class: " + job.priorityClass);
+        }
+        lock.lock();
+        try {
+            enqueue(job);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Job job) {
+        job.queuedAt = System.currentTimeMillis();
+        all.add(job);
+        Lane lane = classes.get(job.priorityClass);
+        if (job.deadline > 0) {
+            deadlineJobs.add(job);
+        } else {
+            if (!hasFlowJobs(lane)) lane.pass = Math.max(lane.pass, classPass);
+            Lane flow = lane.flows.get(job.flow);
+            if (flow == null) {
+                flow = new Lane(1);
+                lane.flows.put(job.flow, flow);
+            }
+            if (flow.jobs.isEmpty()) flow.pass = Math.max(flow.pass, minPass(lane.flows));
+            flow.jobs.add(job);
+        }
+        lane.depth++;
+        lane.maxDepth = Math.max(lane.maxDepth, lane.depth);
+        lane.submitted++;
+        queued++;
+        depthGauge(job.priorityClass, 1);
+    }
+
+    // Lowest pass among non-empty flows; an idle flow rejoins there
+    private static double minPass(Map<String, Lane> flows) {
+        double min = Double.MAX_VALUE;
+        for (Lane f : flows.values()) {
+            if (!f.jobs.isEmpty()) min = Math.min(min, f.pass);
+        }
+        return min == Double.MAX_VALUE ? 0 : min;
+    }
+
+    // Next job per the rules in the header; caller holds the lock and queued > 0
+    private Job next() {
+        if (!deadlineJobs.isEmpty()) {
+            Job best = null;
+            for (Job j : deadlineJobs) {
+                if (best == null || j.deadline < best.deadline) best = j;
+            }
+            deadlineJobs.remove(best);
+            return best;
+        }
+        Lane bestClass = null;
+        for (Lane c : classes.values()) {
+            if (hasFlowJobs(c) && (bestClass == null || c.pass < bestClass.pass)) bestClass = c;
+        }
+        Lane bestFlow = null;
+        for (Lane f : bestClass.flows.values()) {
+            if (!f.jobs.isEmpty() && (bestFlow == null || f.pass < bestFlow.pass)) bestFlow = f;
+        }
+        classPass = bestClass.pass;
+        bestClass.pass += bestClass.stride;
+        bestFlow.pass += bestFlow.stride;
+        return bestFlow.jobs.removeFirst();
+    }
+
+    private static boolean hasFlowJobs(Lane c) {
+        for (Lane f : c.flows.values()) {
+            if (!f.jobs.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // ==================== Running ====================
+
+    /** Runs every submitted job with at most `slots` at a time; returns when all are done. */
+    void runAll() throws InterruptedException {
+        while (true) {
+            final Job job;
+            lock.lock();
+            try {
+                while (running >= slots || (queued == 0 && running > 0)) {
+                    changed.await();
+                }
+                if (queued == 0) return;
+                job = next();
+                queued--;
+                running++;
+                Lane lane = classes.get(job.priorityClass);
+                lane.depth--;
+                job.startedAt = System.currentTimeMillis();
+                lane.waitMsTotal += job.waitMs();
+                lane.waitMsMax = Math.max(lane.waitMsMax, job.waitMs());
+                depthGauge(job.priorityClass, -1);
+            } finally {
+                lock.unlock();
+            }
+            if (metrics != null) {
+                metrics.histogram("hfmcli_scheduler_wait_seconds", "Time a Batch job waited for a slot, by priority class.",
+                        "class", job.priorityClass).observe(job.waitMs() / 1000.0);
+            }
+            HfmThreads.start("hfmcli-batch-" + job.index, new Runnable() {
+                public void run() {
+                    try {
+                        job.exitCode = job.work.call();
+                    } catch (Exception e) {
+                        job.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                    } finally {
+                        lock.lock();
+                        try {
+                            job.finishedAt = System.currentTimeMillis();
+                            running--;
+                            changed.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void depthGauge(String priorityClass, int delta) {
+        if (metrics != null) {
+            metrics.gauge("hfmcli_scheduler_queue_depth", "Batch jobs waiting for a slot, by priority class.",
+                    "class", priorityClass).add(delta);
+        }
+    }
+
+    // ==================== Results ====================
+
+    List<Job> jobs() {
+        lock.lock();
+        try {
+            return new ArrayList<Job>(all);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** JSON fragment for the result line: per-class statistics and every job. */
+    String toJson() {
+        lock.lock();
+        try {
+            return json();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String json() {
+        StringBuilder sb = new StringBuilder("\"scheduler\":{");
+        boolean first = true;
+        for (Map.Entry<String, Lane> e : classes.entrySet()) {
+            Lane c = e.getValue();
+            if (c.submitted == 0) continue;
+            if (!first) sb.append(",");
+            first = false;
+            sb.append("\"").append(e.getKey()).append("\":{\"jobs\":").append(c.submitted)
+              .append(",\"max_depth\":").append(c.maxDepth)
+              .append(",\"wait_ms_avg\":").append(c.waitMsTotal / c.submitted)
+              .append(",\"wait_ms_max\":").append(c.waitMsMax).append("}");
+        }
+        sb.append("},\"jobs\":[");
+        for (int i = 0; i < all.size(); i++) {
+            Job j = all.get(i);
+            if (i > 0) sb.append(",");
+            sb.append("{\"line\":").append(j.index).append(",\"operation\":\"");
+            JsonEventWriter.escape(j.name, sb);
+            sb.append("\",\"class\":\"").append(j.priorityClass).append("\",\"exit_code\":").append(j.exitCode)
+              .append(",\"wait_ms\":").append(j.waitMs())
+              .append(",\"run_ms\":").append(j.finishedAt > 0 ? j.finishedAt - j.startedAt : 0);
+            if (j.deadline > 0) {
+                sb.append(",\"deadline_missed\":").append(j.finishedAt > j.deadline);
+            }
+            if (j.error != null) {
+                sb.append(",\"error\":\"");
+                JsonEventWriter.escape(j.error, sb);
+                sb.append("\"");
+            }
+            sb.append("}");
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * OracleHfmBackend.java - HfmBackend implementation on the Oracle HFM Java API
+ *
+ * The task stop call (deadlines, SIGTERM), the calc status call (--precheck,
+ * -t Auto) and the extract file getter (--verify, --store) are not part of
+ * the API every 11.1.2.x patch level ships. Rather than guess at names that
+ * may mean something else on a given level, each one is only used when it
+ * is named explicitly:
+ *
+ *   --backend oracle:stopTasks=<AdministrationOM method>,
+ *                    calcStatus=<DataOM method>,extractFile=<LoadExtractInfo getter>
+ *
+ *   stopTasks    takes the list of task IDs, or one task ID (int/Integer)
+ *   calcStatus   takes the list of single-entity POVs and returns a list of
+ *                calc status labels, or takes one POV and returns one label
+ *   extractFile  returns the extract's path as a String or File
+ *
+ * A setting left out disables that feature: tasks keep running on the
+ * server when given up on, the pre-check consolidates the full POV, and
+ * --verify/--store need --extractFile. A configured call whose signature or
+ * result does not match is an error, never a silent guess.
+ */
+
+package project1;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import oracle.epm.fm.common.datatype.transport.*;
+import oracle.epm.fm.domainobject.administration.AdministrationOM;
+import oracle.epm.fm.domainobject.application.SessionOM;
+import oracle.epm.fm.domainobject.data.DataOM;
+import oracle.epm.fm.domainobject.loadextract.LoadExtractOM;
+import oracle.epm.fm.hssservice.HSSUtilManager;
+
+class OracleHfmBackend implements HfmBackend {
+
+    // ==================== Configuration ====================
+
+    static class Config {
+        String stopTasks;
+        String calcStatus;
+        String extractFile;
+
+        static Config parse(String spec) {
+            Config c = new Config();
+            int colon = spec.indexOf(':');
+            if (colon < 0) return c;
+            for (String kv : spec.substring(colon + 1).split(",")) {
+                if (kv.trim().isEmpty()) continue;
+                int eq = kv.indexOf('=');
+                if (eq < 0) throw new IllegalArgumentException("Invalid oracle backend setting: " + kv);
+                String key = kv.substring(0, eq).trim();
+                String value = kv.substring(eq + 1).trim();
+                if (value.isEmpty()) value = null;
+                if (key.equals("stopTasks")) c.stopTasks = value;
+                else if (key.equals("calcStatus")) c.calcStatus = value;
+                else if (key.equals("extractFile")) c.extractFile = value;
+                else throw new IllegalArgumentException("Unknown oracle backend setting: " + key);
+            }
+            return c;
+        }
+    }
+
+    /** True if the --backend value selects this backend. */
+    static boolean isOracleSpec(String spec) {
+        return spec != null && (spec.equalsIgnoreCase("oracle") || spec.toLowerCase(Locale.ENGLISH).startsWith("oracle:"));
+    }
+
+    final Config config;
+
+    OracleHfmBackend() {
+        this("oracle");
+    }
+
+    OracleHfmBackend(String spec) {
+        this.config = Config.parse(spec);
+    }
+
+    public String authenticateUser(String username, String password) throws Exception {
+        return HSSUtilManager.getSecurityManager().authenticateUser(username, password);
+    }
+
+    public Session createSession(String ssoToken, String cluster, String application) throws Exception {
+        SessionOM sessionOM = new SessionOM();
+        SessionInfo sessionInfo = sessionOM.createSession(ssoToken, Locale.ENGLISH, cluster, application);
+        return new OracleSession(config, sessionOM, sessionInfo);
+    }
+
+    // ==================== Configured Calls ====================
+
+    /**
+     * Stops tasks through the configured AdministrationOM method: its list
+     * overload, else its per-task int/Integer overload. False when no method
+     * is configured. Also used by HFMload.
+     */
+    static boolean stopTasks(AdministrationOM adminOM, String method, List<Integer> taskIds) throws Exception {
+        if (method == null) return false;
+        Method bulk = findMethod(adminOM.getClass(), method, List.class);
+        if (bulk != null) {
+            invoke(bulk, adminOM, taskIds);
+            return true;
+        }
+        Method single = findMethod(adminOM.getClass(), method, int.class);
+        if (single == null) single = findMethod(adminOM.getClass(), method, Integer.class);
+        if (single == null) {
+            throw new NoSuchMethodException("AdministrationOM has no " + method + "(List) or " + method + "(int)");
+        }
+        for (Integer id : taskIds) {
+            invoke(single, adminOM, id);
+        }
+        return true;
+    }
+
+    // One calc status label, checked; anything else means the configured call is not the calc status call
+    private static String calcStatusLabel(String method, Object value) {
+        if (!(value instanceof String) || !CalcStatusPlan.isLabel(
+                ((String) value).trim().toUpperCase(Locale.ROOT))) {
+            throw new IllegalStateException("DataOM." + method + " returned "
+                    + (value == null ? "null" : value.getClass().getName() + " " + value) + ", not a calc status label");
+        }
+        return (String) value;
+    }
+
+    private static ExtractResult extractResult(Config config, Object info) {
+        if (info == null || config.extractFile == null) return new ExtractResult(info);
+        Method getter = findMethod(info.getClass(), config.extractFile);
+        Object file;
+        try {
+            file = getter != null ? getter.invoke(info) : null;
+        } catch (Exception e) {
+            file = e;
+        }
+        if (file instanceof File) return new ExtractResult(info, ((File) file).getPath());
+        if (file instanceof String && ((String) file).length() > 0) return new ExtractResult(info, (String) file);
+        System.err.println("WARN: extractFile=" + config.extractFile + " on " + info.getClass().getSimpleName()
+                + (getter == null ? " does not exist" : " returned " + file) + "; no extract file reported");
+        return new ExtractResult(info);
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... params) {
+        try {
+            return type.getMethod(name, params);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // Unwraps InvocationTargetException so callers see the server's exception
+    private static Object invoke(Method m, Object target, Object arg) throws Exception {
+        try {
+            return m.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private static class OracleSession implements Session {
+        private final Config config;
+        private final SessionOM sessionOM;
+        private final SessionInfo sessionInfo;
+        private volatile AdministrationOM adminOM;
+
+        OracleSession(Config config, SessionOM sessionOM, SessionInfo sessionInfo) {
+            this.config = config;
+            this.sessionOM = sessionOM;
+            this.sessionInfo = sessionInfo;
+        }
+
+        public List<Integer> executeServerTask(WEBOMDATAGRIDTASKMASKENUM type, List<String> povs) throws Exception {
+            ServerTaskInfo taskInfo = new DataOM(sessionInfo).executeServerTask(type, povs);
+            return taskInfo != null ? taskInfo.getTaskIDs() : null;
+        }
+
+        public List<Integer> loadData(List<String> files, List<DataLoadOptions> options) throws Exception {
+            return new LoadExtractOM(sessionInfo).loadData(files, options);
+        }
+
+        public int extractData(DataExtractOptions options) throws Exception {
+            return new LoadExtractOM(sessionInfo).extractData(options);
+        }
+
+        public ExtractResult extractMetadata(MetadataExtractOptions options) throws Exception {
+            return extractResult(config, new LoadExtractOM(sessionInfo).extractMetadata(options));
+        }
+
+        public ExtractResult extractRules(RULESEXTRACT_FILE_FORMAT format) throws Exception {
+            return extractResult(config, new LoadExtractOM(sessionInfo).extractRules(format));
+        }
+
+        public ExtractResult extractMemberLists() throws Exception {
+            return extractResult(config, new LoadExtractOM(sessionInfo).extractMemberLists());
+        }
+
+        public ExtractResult extractSecurity(SecurityExtractOptions options) throws Exception {
+            return extractResult(config, new LoadExtractOM(sessionInfo).extractSecurity(options));
+        }
+
+        public ExtractResult extractJournals(JournalExtractOptions options) throws Exception {
+            return extractResult(config, new LoadExtractOM(sessionInfo).extractJournals(options));
+        }
+
+        public List<TaskProgress> getCurrentTaskProgress(List<Integer> taskIds) throws Exception {
+            if (adminOM == null) adminOM = new AdministrationOM(sessionInfo);
+            List<RunningTaskProgress> list = adminOM.getCurrentTaskProgress(taskIds);
+            List<TaskProgress> result = new ArrayList<TaskProgress>();
+            if (list == null) return result;
+            for (RunningTaskProgress p : list) {
+                result.add(new TaskProgress(p.getTaskID(), p.getDescription(),
+                        p.getPrecentCompleted(), p.getTaskStatus()));
+            }
+            return result;
+        }
+
+        public boolean cancelTasks(List<Integer> taskIds) throws Exception {
+            if (config.stopTasks == null) return false;
+            if (adminOM == null) adminOM = new AdministrationOM(sessionInfo);
+            return stopTasks(adminOM, config.stopTasks, taskIds);
+        }
+
+        public List<String> getCalcStatus(List<String> povs) throws Exception {
+            String method = config.calcStatus;
+            if (method == null) return null;
+            DataOM dataOM = new DataOM(sessionInfo);
+            List<String> result = new ArrayList<String>();
+            Method bulk = findMethod(DataOM.class, method, List.class);
+            if (bulk != null) {
+                Object r = invoke(bulk, dataOM, povs);
+                if (!(r instanceof List) || ((List<?>) r).size() != povs.size()) {
+                    throw new IllegalStateException("DataOM." + method + " returned "
+                            + (r == null ? "null" : r.getClass().getName()) + ", not one label per POV");
+                }
+                for (Object o : (List<?>) r) result.add(calcStatusLabel(method, o));
+                return result;
+            }
+            Method single = findMethod(DataOM.class, method, String.class);
+            if (single == null) {
+                throw new NoSuchMethodException("DataOM has no " + method + "(List) or " + method + "(String)");
+            }
+            for (String pov : povs) {
+                result.add(calcStatusLabel(method, invoke(single, dataOM, pov)));
+            }
+            return result;
+        }
+
+        public void closeSession() throws Exception {
+            sessionOM.closeSession(sessionInfo);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * PhaseTimer.java - Per-phase timing for one HfmCli operation
+ *
+ * Records how long an operation spent in each phase (authenticate,
+ * create_session, submit, queue_wait, run, close_session, ...) with
+ * System.nanoTime resolution, plus the number of progress polls and the
+ * time until the server first moved a task out of STARTING/SCHEDULED_START.
+ *
+ * One timer belongs to one operation thread. Phases live in small fixed
+ * arrays, so starting and stopping a phase does not allocate.
+ */
+
+package project1;
+
+class PhaseTimer {
+
+    private static final int MAX_PHASES = 16;
+
+    private final String[] names = new String[MAX_PHASES];
+    private final long[] nanos = new long[MAX_PHASES];
+    private int count;
+
+    private int current = -1;
+    private long currentStart;
+
+    private int polls;
+    private long waitStart = -1;
+    private long timeToStart = -1;
+    private boolean running;          // the current wait has left queue_wait
+
+    /** Ends the running phase (if any) and starts the named one. */
+    void start(String phase) {
+        long now = System.nanoTime();
+        end(now);
+        current = slot(phase);
+        currentStart = now;
+    }
+
+    /** Ends the running phase. */
+    void stop() {
+        end(System.nanoTime());
+    }
+
+    /** Adds time measured elsewhere to a phase. */
+    void add(String phase, long durationNanos) {
+        nanos[slot(phase)] += durationNanos;
+    }
+
+    /** Marks the start of task monitoring; tasks are queued until taskStarted is called. */
+    void waitStarted() {
+        start("queue_wait");
+        running = false;
+        if (waitStart < 0) waitStart = System.nanoTime();
+    }
+
+    /**
+     * Called on each poll that shows a task out of STARTING/SCHEDULED_START;
+     * switches the current wait to run. time_to_start is the first wait's.
+     */
+    void taskStarted() {
+        if (running) return;
+        running = true;
+        if (timeToStart < 0) timeToStart = waitStart >= 0 ? System.nanoTime() - waitStart : 0;
+        start("run");
+    }
+
+    void poll() {
+        polls++;
+    }
+
+    /** Adds polls made by another thread (Workflow's TaskMonitor). */
+    void addPolls(int n) {
+        polls += n;
+    }
+
+    int polls() {
+        return polls;
+    }
+
+    long phaseNanos(String phase) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(phase)) return nanos[i];
+        }
+        return 0;
+    }
+
+    /**
+     * JSON object: one "<phase>_ns" entry per phase, then polls and
+     * time_to_start_ns. A phase still running (e.g. after an exception) is ended.
+     */
+    String toJson() {
+        end(System.nanoTime());
+        StringBuilder sb = new StringBuilder(32 + count * 32);
+        sb.append("{");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(",");
+            sb.append("\"").append(names[i]).append("_ns\":").append(nanos[i]);
+        }
+        if (count > 0) sb.append(",");
+        sb.append("\"polls\":").append(polls);
+        if (timeToStart >= 0) {
+            sb.append(",\"time_to_start_ns\":").append(timeToStart);
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private void end(long now) {
+        if (current >= 0) {
+            nanos[current] += now - currentStart;
+            current = -1;
+        }
+    }
+
+    private int slot(String phase) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(phase)) return i;
+        }
+        if (count == MAX_PHASES) {
+            throw new IllegalStateException("Too many phases: " + phase);
+        }
+        names[count] = phase;
+        return count++;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * ResilientHfmBackend.java - Retries and a per-cluster circuit breaker
+ * around every HFM call
+ *
+ * Wraps another backend, outside LimitedHfmBackend so a call sleeping
+ * before its next attempt does not hold an RPC permit. Every failure is
+ * classified:
+ *
+ *   transient  network errors (java.net, SSL), timeouts, 502/503/504 from
+ *              the web tier, connection resets: worth another attempt
+ *   fatal      everything else (invalid POV, access denied, bad option...):
+ *              reported at once
+ *
+ * Local I/O errors (a load file that cannot be read, a full disk) are fatal
+ * and say nothing about the cluster, so the breaker does not count them.
+ *
+ * Idempotent calls (authenticate, session open/close, progress and calc
+ * status polls, task stop, synchronous extracts) are retried on transient
+ * errors with exponential backoff and full jitter: attempt n sleeps a
+ * random time up to min(MAX_BACKOFF_MS, base * 2^n). Calls that start
+ * server work (executeServerTask, loadData, extractData) are retried only
+ * when the request cannot have reached the server (connection refused,
+ * circuit open). After any other failure nobody knows whether the task
+ * started, and a blind resubmit could run the same consolidation twice, so
+ * the job fails; a rerun with --journal attaches to anything that was
+ * recorded as submitted.
+ *
+ * The circuit breaker is per cluster and shared by all sessions of the JVM.
+ * After BREAKER_THRESHOLD consecutive transient failures it opens for
+ * BREAKER_COOLDOWN_MS: calls fail without touching the network and retry
+ * loops wait the cooldown out. Then one trial call goes through; success
+ * closes the circuit, failure opens it again.
+ *
+ * Options: --retries (default 4, 0 = off), --retryBackoff (base ms, default 1000).
+ *
+ * On the simulator every wait here (backoff, its cap, the breaker cooldown)
+ * is multiplied by its timeScale, like the simulated durations, so a retry
+ * costs the same simulated time as it would real time on a cluster.
+ */
+
+package project1;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import oracle.epm.fm.common.datatype.transport.DataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.DataLoadOptions;
+import oracle.epm.fm.common.datatype.transport.JournalExtractOptions;
+import oracle.epm.fm.common.datatype.transport.MetadataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.RULESEXTRACT_FILE_FORMAT;
+import oracle.epm.fm.common.datatype.transport.SecurityExtractOptions;
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+import org.apache.commons.cli.CommandLine;
+
+class ResilientHfmBackend implements HfmBackend {
+
+    static final int DEFAULT_RETRIES = 4;
+    static final long DEFAULT_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 30000;
+    static final int BREAKER_THRESHOLD = 5;
+    static final long BREAKER_COOLDOWN_MS = 30000;
+
+    // Lower-case message fragments of errors that are worth retrying
+    private static final String[] TRANSIENT_MESSAGES = {
+        "timed out", "timeout", "connection reset", "connection refused", "connection closed",
+        "broken pipe", "temporarily unavailable", "service unavailable", "bad gateway",
+        "gateway timeout", " 502", " 503", " 504", "transient"
+    };
+
+    // Breakers by cluster (authentication goes to Shared Services: key "")
+    private static final ConcurrentHashMap<String, Breaker> BREAKERS = new ConcurrentHashMap<String, Breaker>();
+
+    final HfmBackend delegate;
+    final int retries;
+    final long backoffMs;
+    final double timeScale;
+
+    private ResilientHfmBackend(HfmBackend delegate, int retries, long backoffMs, double timeScale) {
+        this.delegate = delegate;
+        this.retries = retries;
+        this.backoffMs = backoffMs;
+        this.timeScale = timeScale;
+    }
+
+    /** Wraps a backend with the --retries/--retryBackoff policy; an existing wrapper is replaced. */
+    static HfmBackend wrap(HfmBackend backend, CommandLine cl) {
+        int retries = Integer.parseInt(cl.getOptionValue("retries", String.valueOf(DEFAULT_RETRIES)));
+        long backoff = Long.parseLong(cl.getOptionValue("retryBackoff", String.valueOf(DEFAULT_BACKOFF_MS)));
+        HfmBackend delegate = unwrap(backend);
+        return new ResilientHfmBackend(delegate, retries, backoff, timeScale(delegate));
+    }
+
+    // The simulator's clock factor (also under --maxRpc); 1 for a real cluster
+    private static double timeScale(HfmBackend backend) {
+        while (backend instanceof LimitedHfmBackend) backend = ((LimitedHfmBackend) backend).delegate;
+        return backend instanceof SimulatedHfmBackend ? ((SimulatedHfmBackend) backend).config.timeScale : 1.0;
+    }
+
+    private long scaled(long ms) {
+        return Math.max(1, Math.round(ms * timeScale));
+    }
+
+    /** The backend under the retry layer, so other layers can be rebuilt beneath it. */
+    static HfmBackend unwrap(HfmBackend backend) {
+        return backend instanceof ResilientHfmBackend ? ((ResilientHfmBackend) backend).delegate : backend;
+    }
+
+    // ==================== Classification ====================
+
+    /** True for errors another attempt may get past (anywhere in the cause chain). */
+    static boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (isNetwork(t)) return true;
+            String msg = t.getMessage();
+            if (msg != null) {
+                msg = msg.toLowerCase(Locale.ROOT);
+                for (String fragment : TRANSIENT_MESSAGES) {
+                    if (msg.contains(fragment)) return true;
+                }
+            }
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    /** True for a local I/O error: no network error in the cause chain, and no answer from the server. */
+    static boolean isLocalIo(Throwable e) {
+        boolean io = false;
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (isNetwork(t) || t instanceof RemoteException) return false;
+            if (t instanceof IOException) io = true;
+            if (t.getCause() == t) break;
+        }
+        return io;
+    }
+
+    private static boolean isNetwork(Throwable t) {
+        if (t instanceof CircuitOpenException || t instanceof TimeoutException) return true;
+        String name = t.getClass().getName();
+        return name.startsWith("java.net.") || name.startsWith("javax.net.ssl.") || name.endsWith("TimeoutException");
+    }
+
+    /** True when the request cannot have reached the server, so even a submit may be repeated. */
+    static boolean notSent(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException || t instanceof ConnectException) return true;
+            String msg = t.getMessage();
+            if (msg != null && msg.toLowerCase(Locale.ROOT).contains("connection refused")) return true;
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    /** Full-jitter exponential backoff: random in [0, min(MAX_BACKOFF_MS, base * 2^attempt)]. */
+    static long backoffMs(long baseMs, int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MS, baseMs << Math.min(attempt, 20));
+        return (long) (ThreadLocalRandom.current().nextDouble() * cap);
+    }
+
+    // ==================== Circuit Breaker ====================
+
+    /** Thrown instead of calling a cluster whose circuit is open. */
+    static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final long retryInMs;
+
+        CircuitOpenException(String cluster, long retryInMs) {
+            super("HFM cluster " + (cluster.isEmpty() ? "(Shared Services)" : cluster)
+                    + " unavailable after repeated failures; circuit open for another " + retryInMs + " ms");
+            this.retryInMs = retryInMs;
+        }
+    }
+
+    // Calls run on operation threads: a ReentrantLock, not a monitor (see HfmThreads)
+    private static final class Breaker {
+        final String cluster;
+        final ReentrantLock lock = new ReentrantLock();
+        int failures;
+        long openUntil;        // 0 = closed
+        boolean trial;         // half-open: one call is testing the cluster
+
+        Breaker(String cluster) {
+            this.cluster = cluster;
+        }
+
+        void admit(long trialWaitMs) throws CircuitOpenException {
+            lock.lock();
+            try {
+                if (openUntil == 0) return;
+                long now = System.currentTimeMillis();
+                if (now < openUntil) throw new CircuitOpenException(cluster, openUntil - now);
+                if (trial) throw new CircuitOpenException(cluster, trialWaitMs);
+                trial = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void success() {
+            lock.lock();
+            try {
+                if (openUntil != 0) circuitGauge(cluster, -1);
+                failures = 0;
+                openUntil = 0;
+                trial = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // The call never reached the cluster: the next one makes the trial
+        void untested() {
+            lock.lock();
+            try {
+                trial = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void failure(long cooldownMs) {
+            lock.lock();
+            try {
+                failures++;
+                if (trial || (openUntil == 0 && failures >= BREAKER_THRESHOLD)) {
+                    if (openUntil == 0) {
+                        circuitGauge(cluster, 1);
+                        System.err.println("WARN: " + failures + " consecutive failures on HFM cluster "
+                                + (cluster.isEmpty() ? "(Shared Services)" : cluster) + "; pausing calls for "
+                                + cooldownMs + " ms");
+                    }
+                    openUntil = System.currentTimeMillis() + cooldownMs;
+                    trial = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static Breaker breaker(String cluster) {
+        String key = cluster == null ? "" : cluster.trim().toUpperCase(Locale.ROOT);
+        Breaker b = BREAKERS.get(key);
+        if (b == null) {
+            Breaker created = new Breaker(key);
+            b = BREAKERS.putIfAbsent(key, created);
+            if (b == null) b = created;
+        }
+        return b;
+    }
+
+    private static void circuitGauge(String cluster, int delta) {
+        HfmCli.metrics.gauge("hfmcli_circuit_open", "1 while calls to the cluster are paused by the circuit breaker.",
+                "cluster", cluster).add(delta);
+    }
+
+    // ==================== Retry Loop ====================
+
+    private interface Call<T> {
+        T run() throws Exception;
+    }
+
+    private <T> T call(String name, String cluster, boolean idempotent, Call<T> call) throws Exception {
+        Breaker breaker = breaker(cluster);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                breaker.admit(scaled(1000));
+                T result = call.run();
+                breaker.success();
+                return result;
+            } catch (Exception e) {
+                boolean open = e instanceof CircuitOpenException;
+                boolean retryable = isTransient(e);
+                if (!open) {
+                    // A fatal error is still an answer: the cluster is reachable; a local one never asked it
+                    if (retryable) {
+                        breaker.failure(scaled(BREAKER_COOLDOWN_MS));
+                    } else if (isLocalIo(e)) {
+                        breaker.untested();
+                    } else {
+                        breaker.success();
+                    }
+                }
+                if (!retryable || attempt >= retries || !(idempotent || notSent(e))) throw e;
+                long sleep = Math.round(backoffMs(backoffMs, attempt) * timeScale);
+                if (open) sleep = Math.max(sleep, ((CircuitOpenException) e).retryInMs);
+                HfmCli.metrics.counter("hfmcli_retries_total", "HFM calls repeated after a transient failure.",
+                        "call", name).increment();
+                System.err.println("WARN: " + name + " failed (attempt " + (attempt + 1) + " of " + (retries + 1)
+                        + "), retrying in " + sleep + " ms: " + e.getMessage());
+                Thread.sleep(sleep);
+            }
+        }
+    }
+
+    // ==================== HfmBackend ====================
+
+    public String authenticateUser(final String username, final String password) throws Exception {
+        return call("authenticateUser", "", true, new Call<String>() {
+            public String run() throws Exception {
+                return delegate.authenticateUser(username, password);
+            }
+        });
+    }
+
+    public Session createSession(final String ssoToken, final String cluster, final String application) throws Exception {
+        return new ResilientSession(cluster, call("createSession", cluster, true, new Call<Session>() {
+            public Session run() throws Exception {
+                return delegate.createSession(ssoToken, cluster, application);
+            }
+        }));
+    }
+
+    private class ResilientSession implements Session {
+        private final String cluster;
+        private final Session session;
+
+        ResilientSession(String cluster, Session session) {
+            this.cluster = cluster;
+            this.session = session;
+        }
+
+        // Submits: repeated only when the request was never sent (see header)
+        public List<Integer> executeServerTask(final WEBOMDATAGRIDTASKMASKENUM type, final List<String> povs) throws Exception {
+            return call("executeServerTask", cluster, false, new Call<List<Integer>>() {
+                public List<Integer> run() throws Exception {
+                    return session.executeServerTask(type, povs);
+                }
+            });
+        }
+
+        public List<Integer> loadData(final List<String> files, final List<DataLoadOptions> options) throws Exception {
+            return call("loadData", cluster, false, new Call<List<Integer>>() {
+                public List<Integer> run() throws Exception {
+                    return session.loadData(files, options);
+                }
+            });
+        }
+
+        public int extractData(final DataExtractOptions options) throws Exception {
+            return call("extractData", cluster, false, new Call<Integer>() {
+                public Integer run() throws Exception {
+                    return session.extractData(options);
+                }
+            });
+        }
+
+        public ExtractResult extractMetadata(final MetadataExtractOptions options) throws Exception {
+            return call("extractMetadata", cluster, true, new Call<ExtractResult>() {
+                public ExtractResult run() throws Exception {
+                    return session.extractMetadata(options);
+                }
+            });
+        }
+
+        public ExtractResult extractRules(final RULESEXTRACT_FILE_FORMAT format) throws Exception {
+            return call("extractRules", cluster, true, new Call<ExtractResult>() {
+                public ExtractResult run() throws Exception {
+                    return session.extractRules(format);
+                }
+            });
+        }
+
+        public ExtractResult extractMemberLists() throws Exception {
+            return call("extractMemberLists", cluster, true, new Call<ExtractResult>() {
+                public ExtractResult run() throws Exception {
+                    return session.extractMemberLists();
+                }
+            });
+        }
+
+        public ExtractResult extractSecurity(final SecurityExtractOptions options) throws Exception {
+            return call("extractSecurity", cluster, true, new Call<ExtractResult>() {
+                public ExtractResult run() throws Exception {
+                    return session.extractSecurity(options);
+                }
+            });
+        }
+
+        public ExtractResult extractJournals(final JournalExtractOptions options) throws Exception {
+            return call("extractJournals", cluster, true, new Call<ExtractResult>() {
+                public ExtractResult run() throws Exception {
+                    return session.extractJournals(options);
+                }
+            });
+        }
+
+        public List<TaskProgress> getCurrentTaskProgress(final List<Integer> taskIds) throws Exception {
+            return call("getCurrentTaskProgress", cluster, true, new Call<List<TaskProgress>>() {
+                public List<TaskProgress> run() throws Exception {
+                    return session.getCurrentTaskProgress(taskIds);
+                }
+            });
+        }
+
+        public boolean cancelTasks(final List<Integer> taskIds) throws Exception {
+            return call("cancelTasks", cluster, true, new Call<Boolean>() {
+                public Boolean run() throws Exception {
+                    return session.cancelTasks(taskIds);
+                }
+            });
+        }
+
+        public List<String> getCalcStatus(final List<String> povs) throws Exception {
+            return call("getCalcStatus", cluster, true, new Call<List<String>>() {
+                public List<String> run() throws Exception {
+                    return session.getCalcStatus(povs);
+                }
+            });
+        }
+
+        public void closeSession() throws Exception {
+            call("closeSession", cluster, true, new Call<Void>() {
+                public Void run() throws Exception {
+                    session.closeSession();
+                    return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * SimulatedHfmBackend.java - In-process HFM cluster simulator
+ *
+ * Models just enough of an HFM cluster to exercise the client without a
+ * server: authentication and session creation latency, a per-cluster task
+ * queue served by a fixed number of workers, percent-complete progression,
+ * injected task aborts, hung tasks and transient RPC failures, and
+ * cancellation of queued or running tasks.
+ *
+ * Outcomes are seeded, not replayed: the duration and fate of a task depend
+ * only on the seed and its task ID, and an injected RPC failure on the seed
+ * and the call's position in the simulator-wide call sequence. Task IDs and
+ * call positions follow the order in which calls arrive, so a sequential run
+ * gets the same task outcomes again, but concurrent jobs (and the number of
+ * progress polls, which follows the real clock) can move an outcome to a
+ * different job or call between runs. Reruns see the same mix, not the same
+ * assignment.
+ * The clock is real time multiplied by timeScale, so timeScale=0.01 runs a
+ * one hour consolidation in 36 seconds.
+ *
+ * Spec syntax (used by --backend):
+ *   sim
+ *   sim:workers=4,consolidateMs=600000,failRate=0.05,timeScale=0.01,seed=7
+ *
+ * Keys: authMs, sessionMs, rpcMs, workers, consolidateMs, translateMs, calcMs,
+ *       loadMs, extractMs, jitter, failRate, rpcErrorRate, timeScale, seed,
+ *       cleanRate (share of entity/period slices whose calc status starts OK),
+ *       hangRate (share of tasks that stop progressing and never finish),
+ *       extractDir (synchronous extracts write a small sample file there)
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.epm.fm.common.datatype.transport.DataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.DataLoadOptions;
+import oracle.epm.fm.common.datatype.transport.JournalExtractOptions;
+import oracle.epm.fm.common.datatype.transport.MetadataExtractOptions;
+import oracle.epm.fm.common.datatype.transport.RULESEXTRACT_FILE_FORMAT;
+import oracle.epm.fm.common.datatype.transport.SecurityExtractOptions;
+import oracle.epm.fm.common.datatype.transport.USERACTIVITYSTATUS;
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+class SimulatedHfmBackend implements HfmBackend {
+
+    // ==================== Configuration ====================
+
+    static class Config {
+        long authMs = 150;
+        long sessionMs = 400;
+        long rpcMs = 20;
+        int workers = 4;
+        long consolidateMs = 60000;
+        long translateMs = 20000;
+        long calcMs = 30000;
+        long loadMs = 30000;
+        long extractMs = 15000;
+        double jitter = 0.2;
+        double failRate = 0.0;
+        double hangRate = 0.0;
+        double rpcErrorRate = 0.0;
+        double timeScale = 1.0;
+        long seed = 42;
+        double cleanRate = 0.5;
+        String extractDir;
+
+        static Config parse(String spec) {
+            Config c = new Config();
+            int colon = spec.indexOf(':');
+            if (colon < 0) return c;
+            for (String kv : spec.substring(colon + 1).split(",")) {
+                if (kv.trim().isEmpty()) continue;
+                int eq = kv.indexOf('=');
+                if (eq < 0) throw new IllegalArgumentException("Invalid simulator setting: " + kv);
+                String key = kv.substring(0, eq).trim();
+                String value = kv.substring(eq + 1).trim();
+                if (key.equals("authMs")) c.authMs = Long.parseLong(value);
+                else if (key.equals("sessionMs")) c.sessionMs = Long.parseLong(value);
+                else if (key.equals("rpcMs")) c.rpcMs = Long.parseLong(value);
+                else if (key.equals("workers")) c.workers = Integer.parseInt(value);
+                else if (key.equals("consolidateMs")) c.consolidateMs = Long.parseLong(value);
+                else if (key.equals("translateMs")) c.translateMs = Long.parseLong(value);
+                else if (key.equals("calcMs")) c.calcMs = Long.parseLong(value);
+                else if (key.equals("loadMs")) c.loadMs = Long.parseLong(value);
+                else if (key.equals("extractMs")) c.extractMs = Long.parseLong(value);
+                else if (key.equals("jitter")) c.jitter = Double.parseDouble(value);
+                else if (key.equals("failRate")) c.failRate = Double.parseDouble(value);
+                else if (key.equals("hangRate")) c.hangRate = Double.parseDouble(value);
+                else if (key.equals("rpcErrorRate")) c.rpcErrorRate = Double.parseDouble(value);
+                else if (key.equals("timeScale")) c.timeScale = Double.parseDouble(value);
+                else if (key.equals("seed")) c.seed = Long.parseLong(value);
+                else if (key.equals("cleanRate")) c.cleanRate = Double.parseDouble(value);
+                else if (key.equals("extractDir")) c.extractDir = value;
+                else throw new IllegalArgumentException("Unknown simulator setting: " + key);
+            }
+            if (c.workers < 1) throw new IllegalArgumentException("Simulator workers must be >= 1");
+            return c;
+        }
+    }
+
+    /** True if the --backend value selects this simulator. */
+    static boolean isSimulatorSpec(String spec) {
+        return spec != null && (spec.equalsIgnoreCase("sim") || spec.toLowerCase(Locale.ENGLISH).startsWith("sim:"));
+    }
+
+    final Config config;
+    private final Map<String, SimCluster> clusters = new HashMap<String, SimCluster>();
+
+    // RPC counters, read by the load-test harness
+    final AtomicLong authCalls = new AtomicLong();
+    final AtomicLong sessionCalls = new AtomicLong();
+    final AtomicLong submitCalls = new AtomicLong();
+    final AtomicLong pollCalls = new AtomicLong();
+    final AtomicLong extractCalls = new AtomicLong();
+    final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong rpcSequence = new AtomicLong();
+
+    // Per-thread duration override, set by HfmLoadTest when replaying a recorded schedule
+    private final ThreadLocal<Long> durationHint = new ThreadLocal<Long>();
+
+    SimulatedHfmBackend(Config config) {
+        this.config = config;
+    }
+
+    SimulatedHfmBackend(String spec) {
+        this(Config.parse(spec));
+    }
+
+    // ==================== HfmBackend ====================
+
+    public String authenticateUser(String username, String password) throws Exception {
+        authCalls.incrementAndGet();
+        rpc(config.authMs);
+        return "sim-token-" + username;
+    }
+
+    public Session createSession(String ssoToken, String cluster, String application) throws Exception {
+        sessionCalls.incrementAndGet();
+        rpc(config.sessionMs);
+        return new SimSession(cluster(cluster), application);
+    }
+
+    private synchronized SimCluster cluster(String name) {
+        SimCluster c = clusters.get(name);
+        if (c == null) {
+            c = new SimCluster();
+            clusters.put(name, c);
+        }
+        return c;
+    }
+
+    /** Makes tasks submitted from this thread last simMs (null to use the configured durations). */
+    void setDurationHint(Long simMs) {
+        if (simMs == null) durationHint.remove(); else durationHint.set(simMs);
+    }
+
+    private long nominal(long configuredMs) {
+        Long hint = durationHint.get();
+        return hint != null ? hint : configuredMs;
+    }
+
+    // ==================== Time and Fault Injection ====================
+
+    /** Simulated-time milliseconds to real nanoseconds. */
+    private long toNanos(long simMs) {
+        return (long) (simMs * config.timeScale * 1000000.0);
+    }
+
+    private long jittered(long nominalMs, Random r) {
+        double f = 1.0 + config.jitter * (2.0 * r.nextDouble() - 1.0);
+        return Math.max(0, (long) (nominalMs * f));
+    }
+
+    /** Sleeps for one RPC round trip and injects a transient failure if configured. */
+    private void rpc(long latencyMs) throws Exception {
+        long n = rpcSequence.incrementAndGet();
+        Random r = new Random(config.seed * 1000003L + n);
+        long nanos = toNanos(jittered(latencyMs, r));
+        if (nanos > 0) Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        if (config.rpcErrorRate > 0 && r.nextDouble() < config.rpcErrorRate) {
+            injectedErrors.incrementAndGet();
+            throw new IOException("Simulated transient RPC failure (call " + n + ")");
+        }
+    }
+
+    // ==================== Cluster Model ====================
+
+    private static class SimTask {
+        int id;
+        String description;
+        long durationNanos;
+        boolean fails;
+        boolean hangs;               // stops at failPoint and never ends unless cancelled
+        double failPoint;
+        long submitAt;
+        long startAt = -1;
+        long endAt = -1;
+        USERACTIVITYSTATUS finalStatus;
+        List<String> consolidates;   // calc status keys set to OK when this task completes
+    }
+
+    /**
+     * One cluster's task table. State is advanced lazily on every call: tasks
+     * whose end time has passed complete in end-time order, freeing workers
+     * for queued tasks at that instant, so no background threads are needed.
+     */
+    private class SimCluster {
+        private int nextTaskId = 1;
+        private long clock = System.nanoTime();
+        private final Map<Integer, SimTask> tasks = new HashMap<Integer, SimTask>();
+        private final ArrayDeque<SimTask> queue = new ArrayDeque<SimTask>();
+        private final List<SimTask> running = new ArrayList<SimTask>();
+
+        // Calc status per application and canonical entity/period slice
+        private final Map<String, String> calcStatus = new HashMap<String, String>();
+
+        synchronized String calcStatus(String key) {
+            advance(System.nanoTime());
+            String status = calcStatus.get(key);
+            if (status == null) {
+                Random r = new Random(config.seed * 17L + key.hashCode());
+                double x = r.nextDouble();
+                if (x < config.cleanRate) {
+                    status = r.nextDouble() < 0.8 ? "OK" : "NODATA";
+                } else {
+                    double y = r.nextDouble();
+                    status = y < 0.6 ? "CN" : y < 0.85 ? "OK SC" : "TR";
+                }
+                calcStatus.put(key, status);
+            }
+            return status;
+        }
+
+        synchronized int submit(String description, long nominalMs) {
+            return submit(description, nominalMs, null);
+        }
+
+        synchronized int submit(String description, long nominalMs, List<String> consolidates) {
+            long now = System.nanoTime();
+            advance(now);
+            SimTask t = new SimTask();
+            t.id = nextTaskId++;
+            Random r = new Random(config.seed * 31L + t.id);
+            t.description = description;
+            t.durationNanos = toNanos(jittered(nominalMs, r));
+            t.fails = r.nextDouble() < config.failRate;
+            t.failPoint = 0.1 + 0.8 * r.nextDouble();
+            t.hangs = !t.fails && r.nextDouble() < config.hangRate;
+            t.submitAt = now;
+            t.consolidates = consolidates;
+            tasks.put(t.id, t);
+            queue.add(t);
+            fillWorkers(now);
+            return t.id;
+        }
+
+        synchronized TaskProgress progress(int taskId) {
+            advance(System.nanoTime());
+            SimTask t = tasks.get(taskId);
+            if (t == null) {
+                // As HFM reports an ID it does not know; callers treat NOT_RUNNING as unknown, not as done
+                return new TaskProgress(taskId, "Unknown task", 0, USERACTIVITYSTATUS.USERACTIVITYSTATUS_NOT_RUNNING);
+            }
+            if (t.finalStatus != null) {
+                int pct = t.finalStatus == USERACTIVITYSTATUS.USERACTIVITYSTATUS_COMPLETED ? 100
+                        : (int) (t.failPoint * 100);
+                return new TaskProgress(t.id, t.description, pct, t.finalStatus);
+            }
+            if (t.startAt < 0) {
+                return new TaskProgress(t.id, t.description, 0, USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_START);
+            }
+            long done = clock - t.startAt;
+            int pct = t.durationNanos <= 0 ? 99 : (int) Math.min(99, done * 100 / t.durationNanos);
+            if (t.hangs) pct = Math.min(pct, (int) (t.failPoint * 100));
+            return new TaskProgress(t.id, t.description, pct, USERACTIVITYSTATUS.USERACTIVITYSTATUS_RUNNING);
+        }
+
+        /** Stops a queued or running task; false if it already finished or is unknown. */
+        synchronized boolean cancel(int taskId) {
+            long now = System.nanoTime();
+            advance(now);
+            SimTask t = tasks.get(taskId);
+            if (t == null || t.finalStatus != null) return false;
+            queue.remove(t);
+            running.remove(t);
+            t.finalStatus = USERACTIVITYSTATUS.USERACTIVITYSTATUS_STOPPED;
+            fillWorkers(now);
+            return true;
+        }
+
+        private void advance(long now) {
+            while (true) {
+                SimTask first = null;
+                for (SimTask t : running) {
+                    if (first == null || t.endAt < first.endAt) first = t;
+                }
+                if (first == null || first.endAt > now) break;
+                running.remove(first);
+                first.finalStatus = first.fails ? USERACTIVITYSTATUS.USERACTIVITYSTATUS_ABORTED
+                        : USERACTIVITYSTATUS.USERACTIVITYSTATUS_COMPLETED;
+                if (!first.fails && first.consolidates != null) {
+                    for (String key : first.consolidates) calcStatus.put(key, "OK");
+                }
+                fillWorkers(first.endAt);
+            }
+            clock = now;
+        }
+
+        private void fillWorkers(long at) {
+            while (running.size() < config.workers && !queue.isEmpty()) {
+                SimTask t = queue.poll();
+                t.startAt = Math.max(at, t.submitAt);
+                long runFor = t.fails ? (long) (t.durationNanos * t.failPoint) : t.durationNanos;
+                t.endAt = t.hangs ? Long.MAX_VALUE : t.startAt + runFor;
+                running.add(t);
+            }
+        }
+    }
+
+    // ==================== Session ====================
+
+    private class SimSession implements Session {
+        private final SimCluster cluster;
+        private final String application;
+
+        SimSession(SimCluster cluster, String application) {
+            this.cluster = cluster;
+            this.application = application;
+        }
+
+        public List<Integer> executeServerTask(WEBOMDATAGRIDTASKMASKENUM type, List<String> povs) throws Exception {
+            submitCalls.incrementAndGet();
+            rpc(config.rpcMs);
+            String name = type.name();
+            long nominal = nominal(name.contains("CONSOLIDATE") ? config.consolidateMs
+                    : name.contains("TRANSLATE") ? config.translateMs : config.calcMs);
+            List<Integer> ids = new ArrayList<Integer>();
+            for (String pov : povs) {
+                List<String> consolidates = name.contains("CONSOLIDATE") ? calcKeys(pov) : null;
+                ids.add(cluster.submit(application + ": " + name + " " + pov, nominal, consolidates));
+            }
+            return ids;
+        }
+
+        public List<Integer> loadData(List<String> files, List<DataLoadOptions> options) throws Exception {
+            submitCalls.incrementAndGet();
+            rpc(config.rpcMs);
+            List<Integer> ids = new ArrayList<Integer>();
+            for (String file : files) {
+                ids.add(cluster.submit(application + ": Load " + file, nominal(config.loadMs)));
+            }
+            return ids;
+        }
+
+        public int extractData(DataExtractOptions options) throws Exception {
+            submitCalls.incrementAndGet();
+            rpc(config.rpcMs);
+            return cluster.submit(application + ": Extract data", nominal(config.extractMs));
+        }
+
+        public ExtractResult extractMetadata(MetadataExtractOptions options) throws Exception {
+            return syncExtract("metadata");
+        }
+
+        public ExtractResult extractRules(RULESEXTRACT_FILE_FORMAT format) throws Exception {
+            return syncExtract("rules");
+        }
+
+        public ExtractResult extractMemberLists() throws Exception {
+            return syncExtract("member lists");
+        }
+
+        public ExtractResult extractSecurity(SecurityExtractOptions options) throws Exception {
+            return syncExtract("security");
+        }
+
+        public ExtractResult extractJournals(JournalExtractOptions options) throws Exception {
+            if (config.extractDir == null) return syncExtract("journals");
+            extractCalls.incrementAndGet();
+            rpc(nominal(config.extractMs));
+            return new ExtractResult("Simulated journals extract for " + application, writeJournals(options));
+        }
+
+        /**
+         * A journal file for the periods, labels and groups the options ask for:
+         * labels JE001..JE012 in groups G1..G3, one journal per label and
+         * period. Options are read through getters where the class has them.
+         */
+        private String writeJournals(JournalExtractOptions options) throws IOException {
+            HFMpovInfo.PovTokens pov = HFMpovInfo.parsePov((String) option(options, "getPov"));
+            List<String> periods = pov.periods.isEmpty() ? Arrays.asList("Jan", "Feb", "Mar") : pov.periods;
+            List<?> labels = (List<?>) option(options, "getLabels");
+            List<?> groups = (List<?>) option(options, "getGroups");
+            List<String> lines = new ArrayList<String>();
+            Set<String> usedGroups = new TreeSet<String>();
+            for (int l = 1; l <= 12; l++) {
+                String label = String.format("JE%03d", l);
+                String group = "G" + (l % 3 + 1);
+                if (labels != null && !labels.isEmpty() && !labels.contains(label)) continue;
+                if (groups != null && !groups.isEmpty() && !groups.contains(group)) continue;
+                usedGroups.add(group);
+                for (String period : periods) {
+                    lines.add("!JOURNAL=" + label + ";" + (pov.scenario != null ? pov.scenario : "Actual") + ";"
+                            + (pov.year != null ? pov.year : "2025") + ";" + period.trim() + ";" + group);
+                    lines.add("!DESC=Adjustment " + label + " " + period.trim());
+                    for (int e = 1; e <= 3; e++) {
+                        lines.add("E" + e + ";<Entity Curr Adjs>;A" + l + ";[ICP None];[None];[None];[None];[None];"
+                                + (l * 100 + e) + ".00;");
+                    }
+                    lines.add("!END");
+                }
+            }
+            File file = new File(config.extractDir, application + "_journals_" + rpcSequence.incrementAndGet() + ".jlf");
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                w.write("' Simulated journals extract for " + application + "\n!FILE_FORMAT=11.12\n!VERSION=11.1.2.4\n");
+                for (String g : usedGroups) w.write("!GROUP=" + g + ";Group " + g.substring(1) + "\n");
+                for (String line : lines) w.write(line + "\n");
+            } finally {
+                w.close();
+            }
+            return file.getPath();
+        }
+
+        private Object option(Object options, String getter) {
+            try {
+                return options.getClass().getMethod(getter).invoke(options);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private ExtractResult syncExtract(String what) throws Exception {
+            extractCalls.incrementAndGet();
+            rpc(nominal(config.extractMs));
+            String info = "Simulated " + what + " extract for " + application;
+            if (config.extractDir == null) return new ExtractResult(info);
+            File file = new File(config.extractDir, application + "_" + what.replace(' ', '_') + ".txt");
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                w.write("' " + info + "\n!FILE_FORMAT=11.12\n");
+                for (String section : new String[] {"Account", "Entity"}) {
+                    w.write("!MEMBERS=" + section + "\n");
+                    for (int i = 1; i <= 5; i++) w.write(section.charAt(0) + "" + i + ";" + section + " " + i + "\n");
+                }
+            } finally {
+                w.close();
+            }
+            return new ExtractResult(info, file.getPath());
+        }
+
+        public List<TaskProgress> getCurrentTaskProgress(List<Integer> taskIds) throws Exception {
+            pollCalls.incrementAndGet();
+            rpc(config.rpcMs);
+            List<TaskProgress> result = new ArrayList<TaskProgress>();
+            for (Integer id : taskIds) {
+                result.add(cluster.progress(id));
+            }
+            return result;
+        }
+
+        public boolean cancelTasks(List<Integer> taskIds) throws Exception {
+            rpc(config.rpcMs);
+            for (Integer id : taskIds) {
+                cluster.cancel(id);
+            }
+            return true;
+        }
+
+        public List<String> getCalcStatus(List<String> povs) throws Exception {
+            rpc(config.rpcMs);
+            List<String> result = new ArrayList<String>();
+            for (String pov : povs) {
+                result.add(cluster.calcStatus(calcKeys(pov).get(0)));
+            }
+            return result;
+        }
+
+        private List<String> calcKeys(String pov) {
+            List<String> keys = new ArrayList<String>();
+            for (String slice : CalcStatusPlan.slices(pov)) {
+                keys.add(application + "|" + HFMpovInfo.parsePov(slice).canonical());
+            }
+            return keys;
+        }
+
+        public void closeSession() throws Exception {
+            rpc(config.rpcMs);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * TaskDeadlines.java - Time limits for waiting on server tasks
+ *
+ * Without limits HfmCli polls for as long as a task reports RUNNING or
+ * STARTING, so a hung consolidation holds its Control-M slot and a share of
+ * the cluster until someone notices. Three limits, in minutes (fractions
+ * allowed), are checked on every poll:
+ *
+ *   --timeout       from the start of the wait until every task has finished
+ *   --queueTimeout  how long a task may stay queued (STARTING/SCHEDULED_START)
+ *                   after it was first polled
+ *   --stallTimeout  how long a running task's percent complete may stay the same
+ *
+ * When one is exceeded HfmCli stops the unfinished tasks on the server,
+ * closes the session and exits with 7 (TimedOut).
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import oracle.epm.fm.common.datatype.transport.USERACTIVITYSTATUS;
+
+import org.apache.commons.cli.CommandLine;
+
+class TaskDeadlines {
+
+    final long overallMs;
+    final long queueMs;
+    final long stallMs;
+
+    TaskDeadlines(long overallMs, long queueMs, long stallMs) {
+        this.overallMs = overallMs;
+        this.queueMs = queueMs;
+        this.stallMs = stallMs;
+    }
+
+    /** Limits from --timeout, --queueTimeout and --stallTimeout; null when none is set. */
+    static TaskDeadlines from(CommandLine cl) {
+        long overall = minutes(cl, "timeout");
+        long queue = minutes(cl, "queueTimeout");
+        long stall = minutes(cl, "stallTimeout");
+        if (overall <= 0 && queue <= 0 && stall <= 0) return null;
+        return new TaskDeadlines(overall, queue, stall);
+    }
+
+    private static long minutes(CommandLine cl, String option) {
+        if (!cl.hasOption(option)) return 0;
+        return Math.round(Double.parseDouble(cl.getOptionValue(option)) * 60 * 1000);
+    }
+
+    /** A watch over the command line's limits, or null when it sets none. */
+    static Watch watch(CommandLine cl) {
+        TaskDeadlines deadlines = from(cl);
+        return deadlines != null ? deadlines.watch() : null;
+    }
+
+    /** Starts tracking one wait. */
+    Watch watch() {
+        return new Watch();
+    }
+
+    /** State of one wait: when it started and when each task last moved. */
+    final class Watch {
+        private final long start = System.currentTimeMillis();
+        private final Map<Integer, Long> firstSeen = new HashMap<Integer, Long>();
+        private final Map<Integer, Integer> lastPercent = new HashMap<Integer, Integer>();
+        private final Map<Integer, Long> lastChange = new HashMap<Integer, Long>();
+
+        /**
+         * Checks one poll's progress rows. Returns the limit that was exceeded
+         * and why, or null while everything is within its limits.
+         */
+        String check(List<HfmBackend.TaskProgress> progressList, long now) {
+            if (overallMs > 0 && now - start > overallMs) {
+                return "timeout: tasks not finished after " + format(overallMs);
+            }
+            for (HfmBackend.TaskProgress p : progressList) {
+                if (!HfmCli.isActive(p.status)) continue;
+                boolean queued = p.status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_STARTING
+                        || p.status == USERACTIVITYSTATUS.USERACTIVITYSTATUS_SCHEDULED_START;
+                // Workflow registers tasks as it goes, so queue time counts from when a task first shows up
+                Long seen = firstSeen.get(p.taskId);
+                if (seen == null) firstSeen.put(p.taskId, seen = now);
+                if (queued) {
+                    if (queueMs > 0 && now - seen > queueMs) {
+                        return "queueTimeout: task " + p.taskId + " still queued after " + format(queueMs);
+                    }
+                    continue;
+                }
+                Integer before = lastPercent.put(p.taskId, p.percent);
+                if (before == null || before != p.percent) {
+                    lastChange.put(p.taskId, now);
+                } else if (stallMs > 0 && now - lastChange.get(p.taskId) > stallMs) {
+                    return "stallTimeout: task " + p.taskId + " stuck at " + p.percent + "% for " + format(stallMs);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static String format(long ms) {
+        if (ms % 60000 == 0) return (ms / 60000) + " min";
+        return ms < 10000 ? ms + " ms" : (ms / 1000) + " s";
+    }
+
+    /** The unfinished tasks in a progress list. */
+    static List<Integer> active(List<HfmBackend.TaskProgress> progressList) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (HfmBackend.TaskProgress p : progressList) {
+            if (HfmCli.isActive(p.status)) ids.add(p.taskId);
+        }
+        return ids;
+    }
+
+    /** A limit was exceeded; the unfinished tasks were stopped if the server allowed it. */
+    static final class ExpiredException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final List<Integer> taskIds;
+        final List<Integer> stopped;
+
+        ExpiredException(String reason, List<Integer> taskIds, List<Integer> stopped) {
+            super(reason);
+            this.taskIds = taskIds;
+            this.stopped = stopped;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * TaskHistory.java - Local history of finished operations, for runtime
+ * predictions
+ *
+ * With --history <file> every Consolidate, Translate, LoadData and
+ * ExtractData run appends one line once its tasks have finished: the
+ * operation key, queue wait, run time, file size and outcome. Before the
+ * next run of the same request starts waiting, the file answers "how long
+ * does this usually take": the median queue wait and run time of the last
+ * MAX_SAMPLES successful runs with the same key, and a spread of 1.4826 x
+ * the median absolute deviation (one standard deviation for normal data,
+ * but not thrown off by the one night a task hung).
+ *
+ * Keys leave out the year, so last year's December close predicts this
+ * year's. Loads are keyed by file name and scaled by file size; when a key
+ * has fewer than MIN_SAMPLES runs, a load falls back to every load of the
+ * application, scaled by size.
+ *
+ * HfmCli prints the prediction in the result ("prediction":{...}) and, with
+ * -v, as a line of its own right after the submit, so a scheduler can plan
+ * the critical path. The poller also uses it: until shortly before the
+ * predicted finish it polls at a slower rate (see Estimate.pollDelay).
+ *
+ * File format, one tab-separated record per line, appended in one write:
+ *   <time ms> <outcome> <queue ms> <run ms> <file bytes> <key>
+ * The file is append-only, so each JVM reads it once and then only the
+ * bytes added since.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+class TaskHistory {
+
+    static final int MAX_SAMPLES = 20;
+    static final int MIN_SAMPLES = 3;
+    static final long MAX_QUIET_POLL_MS = 60000;
+
+    // Parsed records per history file, shared by all operations of the JVM
+    private static final ConcurrentHashMap<String, Cache> CACHES = new ConcurrentHashMap<String, Cache>();
+
+    private static final class Record {
+        final String outcome;
+        final long queueMs;
+        final long runMs;
+        final long fileBytes;
+        final String key;
+
+        Record(String outcome, long queueMs, long runMs, long fileBytes, String key) {
+            this.outcome = outcome;
+            this.queueMs = queueMs;
+            this.runMs = runMs;
+            this.fileBytes = fileBytes;
+            this.key = key;
+        }
+    }
+
+    // Readers may be virtual threads: a ReentrantLock, not a monitor, around the file read (see HfmThreads)
+    private static final class Cache {
+        final ReentrantLock lock = new ReentrantLock();
+        long offset;                                        // guarded by lock
+        final List<Record> records = new ArrayList<Record>();  // guarded by lock
+    }
+
+    private final File file;
+
+    TaskHistory(File file) {
+        this.file = file;
+    }
+
+    // ==================== Keys ====================
+
+    /** Key of a POV-based operation: operation, application, variant (type or format) and the POV without its year. */
+    static String key(String operation, String application, String variant, String pov) {
+        HFMpovInfo.PovTokens tokens = HFMpovInfo.parsePov(pov);
+        tokens.year = null;
+        return operation + "|" + lower(application) + "|" + lower(variant) + "|" + tokens.canonical();
+    }
+
+    /** Key of a load: the file name stands in for the POV, the size scales the prediction. */
+    static String loadKey(String application, String variant, String dataFile) {
+        return "LoadData|" + lower(application) + "|" + lower(variant) + "|" + lower(new File(dataFile).getName());
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Operation and application: the fallback group for loads
+    private static String group(String key) {
+        int first = key.indexOf('|');
+        int second = first < 0 ? -1 : key.indexOf('|', first + 1);
+        return second < 0 ? key : key.substring(0, second);
+    }
+
+    // ==================== Recording ====================
+
+    /** Appends one finished run. */
+    void record(String key, long fileBytes, long queueMs, long runMs, String outcome) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        String line = System.currentTimeMillis() + "\t" + outcome + "\t" + queueMs + "\t" + runMs + "\t"
+                + fileBytes + "\t" + key.replace('\t', ' ').replace('\n', ' ') + "\n";
+        // One write to an O_APPEND stream: concurrent jobs cannot interleave within a line
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(line.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    // ==================== Prediction ====================
+
+    /** Expected duration of one run, from earlier runs. */
+    static final class Estimate {
+        final long queueMs;
+        final long runMs;
+        final long spreadMs;
+        final int samples;
+        final String basis;        // "request" or "application" (load fallback)
+
+        Estimate(long queueMs, long runMs, long spreadMs, int samples, String basis) {
+            this.queueMs = queueMs;
+            this.runMs = runMs;
+            this.spreadMs = spreadMs;
+            this.samples = samples;
+            this.basis = basis;
+        }
+
+        long expectedMs() {
+            return queueMs + runMs;
+        }
+
+        /**
+         * Delay before the next poll: pollInterval once within two spreads of
+         * the predicted finish, otherwise half the time left until then (at
+         * most MAX_QUIET_POLL_MS), so an early finish or failure is still seen
+         * after a few polls.
+         */
+        long pollDelay(long waitedMs, long pollInterval) {
+            long left = expectedMs() - 2 * spreadMs - waitedMs;
+            if (left <= 2 * pollInterval) return pollInterval;
+            return Math.min(MAX_QUIET_POLL_MS, left / 2);
+        }
+
+        String toJson() {
+            return "\"prediction\":{\"expected_ms\":" + expectedMs() + ",\"spread_ms\":" + spreadMs
+                    + ",\"queue_ms\":" + queueMs + ",\"run_ms\":" + runMs
+                    + ",\"samples\":" + samples + ",\"basis\":\"" + basis + "\"}";
+        }
+    }
+
+    /** Prediction for a run of key (fileBytes > 0 scales by size), or null without enough history. */
+    Estimate predict(String key, long fileBytes) throws IOException {
+        List<Record> records = load();
+        List<Record> same = new ArrayList<Record>();
+        List<Record> group = new ArrayList<Record>();
+        String groupKey = group(key);
+        for (int i = records.size() - 1; i >= 0 && same.size() < MAX_SAMPLES; i--) {
+            Record r = records.get(i);
+            if (!"OK".equals(r.outcome)) continue;
+            if (r.key.equals(key)) {
+                same.add(r);
+            } else if (fileBytes > 0 && r.fileBytes > 0 && group.size() < MAX_SAMPLES && group(r.key).equals(groupKey)) {
+                group.add(r);
+            }
+        }
+        if (same.size() >= MIN_SAMPLES) return estimate(same, fileBytes, "request");
+        if (fileBytes > 0) {
+            group.addAll(same);
+            if (group.size() >= MIN_SAMPLES) return estimate(group, fileBytes, "application");
+        }
+        return null;
+    }
+
+    private static Estimate estimate(List<Record> samples, long fileBytes, String basis) {
+        int n = samples.size();
+        long[] queue = new long[n];
+        long[] run = new long[n];
+        long[] total = new long[n];
+        for (int i = 0; i < n; i++) {
+            Record r = samples.get(i);
+            // Run time grows with the file; queue wait does not
+            double scale = fileBytes > 0 && r.fileBytes > 0 ? (double) fileBytes / r.fileBytes : 1.0;
+            queue[i] = r.queueMs;
+            run[i] = Math.round(r.runMs * scale);
+            total[i] = queue[i] + run[i];
+        }
+        long medianTotal = median(total);
+        long[] deviation = new long[n];
+        for (int i = 0; i < n; i++) {
+            deviation[i] = Math.abs(total[i] - medianTotal);
+        }
+        return new Estimate(median(queue), median(run), Math.round(1.4826 * median(deviation)), n, basis);
+    }
+
+    private static long median(long[] values) {
+        long[] v = values.clone();
+        Arrays.sort(v);
+        int mid = v.length / 2;
+        return v.length % 2 == 1 ? v[mid] : (v[mid - 1] + v[mid]) / 2;
+    }
+
+    // ==================== Reading ====================
+
+    // Reads the bytes appended since the last call; a line still being written is left for later
+    private List<Record> load() throws IOException {
+        String path = file.getCanonicalPath();
+        Cache cache = CACHES.get(path);
+        if (cache == null) {
+            Cache created = new Cache();
+            cache = CACHES.putIfAbsent(path, created);
+            if (cache == null) cache = created;
+        }
+        cache.lock.lock();
+        try {
+            if (file.exists() && file.length() > cache.offset) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    byte[] bytes = new byte[(int) (raf.length() - cache.offset)];
+                    raf.seek(cache.offset);
+                    raf.readFully(bytes);
+                    int end = bytes.length;
+                    while (end > 0 && bytes[end - 1] != '\n') end--;
+                    for (String line : new String(bytes, 0, end, "UTF-8").split("\n")) {
+                        Record r = parse(line);
+                        if (r != null) cache.records.add(r);
+                    }
+                    cache.offset += end;
+                } finally {
+                    raf.close();
+                }
+            }
+            return new ArrayList<Record>(cache.records);
+        } finally {
+            cache.lock.unlock();
+        }
+    }
+
+    private static Record parse(String line) {
+        String[] f = line.split("\t", 6);
+        if (f.length < 6) return null;
+        try {
+            return new Record(f[1], Long.parseLong(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4]), f[5]);
+        } catch (NumberFormatException e) {
+            return null;       // torn or foreign line
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * TaskJournal.java - Local append-only journal of submitted HFM tasks
+ *
+ * Every task-based operation appends a submit record (operation key,
+ * cluster, task IDs, time) and fsyncs it before polling starts, then a done
+ * record with the final status. When Control-M reruns a job whose JVM was
+ * killed mid-wait, the rerun finds the submit record for the same key and
+ * re-attaches to those task IDs instead of starting a second multi-hour
+ * consolidation on the same subcubes.
+ *
+ * File format, one tab-separated record per line:
+ *   S <time ms> <cluster> <task ids> <key>
+ *   D <time ms> <cluster> <task ids> <status>
+ *
+ * Appends are done under an exclusive FileLock so several jobs on one agent
+ * can share a journal. Records older than MAX_AGE_MS are dropped when the
+ * file is compacted.
+ *
+ * Jobs sharing a journal also coalesce: lock(key) is held across find() and
+ * the submit, so a request identical to one in flight (same canonical key,
+ * see coalesceKey) attaches to its task IDs instead of submitting again.
+ */
+
+package project1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+class TaskJournal {
+
+    // A submit with no done record is treated as in flight for this long
+    static final long MAX_IN_FLIGHT_MS = 24L * 60 * 60 * 1000;
+    static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long COMPACT_BYTES = 4L * 1024 * 1024;
+
+    private final File file;
+    private final long windowMs;
+
+    /**
+     * @param windowMs how long after a successful finish a rerun still
+     *                 re-attaches to the finished tasks instead of resubmitting
+     */
+    TaskJournal(File file, long windowMs) {
+        this.file = file;
+        this.windowMs = windowMs;
+    }
+
+    /** A submit record found for a key. */
+    static final class Entry {
+        final long submittedAt;
+        final List<Integer> taskIds;
+        final String doneStatus;   // null while in flight
+
+        Entry(long submittedAt, List<Integer> taskIds, String doneStatus) {
+            this.submittedAt = submittedAt;
+            this.taskIds = taskIds;
+            this.doneStatus = doneStatus;
+        }
+    }
+
+    // ==================== Lookup ====================
+
+    /**
+     * The tasks a rerun with this key should re-attach to: the latest submit
+     * that is still in flight, or finished OK within the window. Null means
+     * submit again.
+     */
+    Entry find(String key) throws IOException {
+        long now = System.currentTimeMillis();
+        String[] latest = null;
+        Map<String, String[]> done = new HashMap<String, String[]>();
+        for (String[] r : readShared()) {
+            if (r[0].equals("S") && r[4].equals(key)) {
+                latest = r;
+            } else if (r[0].equals("D")) {
+                done.put(r[2] + "\t" + r[3], r);
+            }
+        }
+        if (latest == null) return null;
+
+        long submittedAt = Long.parseLong(latest[1]);
+        String[] d = done.get(latest[2] + "\t" + latest[3]);
+        if (d != null && Long.parseLong(d[1]) >= submittedAt) {
+            if (!"OK".equals(d[4]) || now - Long.parseLong(d[1]) > windowMs) return null;
+            return new Entry(submittedAt, HfmCli.parseTaskIds(latest[3]), d[4]);
+        }
+        if (now - submittedAt > MAX_IN_FLIGHT_MS) return null;
+        return new Entry(submittedAt, HfmCli.parseTaskIds(latest[3]), null);
+    }
+
+    // ==================== Coalescing ====================
+
+    private static final int LOCK_STRIPES = 1024;
+
+    // FileLock only excludes other processes (and throws within one JVM); threads use these
+    private static final ConcurrentHashMap<String, ReentrantLock> LOCAL_LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    private static ReentrantLock localLock(String name) {
+        ReentrantLock local = LOCAL_LOCKS.get(name);
+        if (local == null) {
+            ReentrantLock created = new ReentrantLock();
+            local = LOCAL_LOCKS.putIfAbsent(name, created);
+            if (local == null) local = created;
+        }
+        return local;
+    }
+
+    /** Held from find() through submitted() so identical requests never both submit. */
+    static final class SubmitLock {
+        private final ReentrantLock local;
+        private final FileLock lock;
+
+        private SubmitLock(ReentrantLock local, FileLock lock) {
+            this.local = local;
+            this.lock = lock;
+        }
+
+        void release() {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // The channel stays open; the lock goes with it at exit
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    /**
+     * Locks the key's stripe: one byte of the sidecar file <journal>.lock, so
+     * unrelated requests rarely wait on each other.
+     */
+    SubmitLock lock(String key) throws IOException {
+        File lockFile = new File(file.getAbsolutePath() + ".lock");
+        File dir = lockFile.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        int stripe = (key.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+
+        ReentrantLock local = localLock(lockFile.getPath() + "#" + stripe);
+        local.lock();
+        try {
+            return new SubmitLock(local, LockFiles.channel(lockFile).lock(stripe, 1, false));
+        } catch (IOException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    // ==================== Recording ====================
+
+    /** Records a submit; returns once the record is on disk. */
+    void submitted(String key, String cluster, List<Integer> taskIds) throws IOException {
+        append("S\t" + System.currentTimeMillis() + "\t" + clean(cluster) + "\t"
+                + HfmCli.joinIds(taskIds) + "\t" + clean(key));
+    }
+
+    /** Records the final status of tasks (from the submitting job or a later Wait). */
+    void finished(String cluster, List<Integer> taskIds, String status) throws IOException {
+        append("D\t" + System.currentTimeMillis() + "\t" + clean(cluster) + "\t"
+                + HfmCli.joinIds(taskIds) + "\t" + clean(status));
+    }
+
+    private void append(String record) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        ReentrantLock local = localLock(file.getAbsolutePath());
+        local.lock();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileLock lock = raf.getChannel().lock();
+            try {
+                if (raf.length() > COMPACT_BYTES) {
+                    compact(raf);
+                }
+                long end = raf.length();
+                if (end > 0) {
+                    // Terminate a line torn by a crash so it cannot swallow this record
+                    raf.seek(end - 1);
+                    if (raf.read() != '\n') record = "\n" + record;
+                }
+                raf.seek(end);
+                raf.write((record + "\n").getBytes("UTF-8"));
+                raf.getChannel().force(true);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            if (raf != null) raf.close();
+            local.unlock();
+        }
+    }
+
+    // Rewrites the locked file in place with only the records newer than MAX_AGE_MS
+    private void compact(RandomAccessFile raf) throws IOException {
+        long cutoff = System.currentTimeMillis() - MAX_AGE_MS;
+        StringBuilder kept = new StringBuilder();
+        for (String[] r : parse(readAll(raf))) {
+            if (Long.parseLong(r[1]) >= cutoff) {
+                kept.append(join(r)).append("\n");
+            }
+        }
+        byte[] bytes = kept.toString().getBytes("UTF-8");
+        raf.setLength(0);
+        raf.write(bytes);
+    }
+
+    // Reads every record under a shared lock (file locks are mandatory on Windows)
+    private List<String[]> readShared() throws IOException {
+        if (!file.exists()) return new ArrayList<String[]>();
+        ReentrantLock local = localLock(file.getAbsolutePath());
+        local.lock();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileLock lock = raf.getChannel().lock(0, Long.MAX_VALUE, true);
+            try {
+                return parse(readAll(raf));
+            } finally {
+                lock.release();
+            }
+        } finally {
+            if (raf != null) raf.close();
+            local.unlock();
+        }
+    }
+
+    private static String readAll(RandomAccessFile raf) throws IOException {
+        byte[] bytes = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static List<String[]> parse(String text) {
+        List<String[]> records = new ArrayList<String[]>();
+        for (String line : text.split("\n")) {
+            String[] r = line.split("\t", 5);
+            // A torn last line from a crash is skipped
+            if (r.length == 5 && (r[0].equals("S") || r[0].equals("D")) && r[1].matches("\\d+")) {
+                records.add(r);
+            }
+        }
+        return records;
+    }
+
+    private static String join(String[] r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < r.length; i++) {
+            if (i > 0) sb.append("\t");
+            sb.append(r[i]);
+        }
+        return sb.toString();
+    }
+
+    private static String clean(String s) {
+        if (s == null) return "";
+        return s.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    // ==================== Keys ====================
+
+    /**
+     * Key for Consolidate/Translate that ignores how the request was spelled:
+     * the task type enum (so "awd" and "AllWithData" match) and the POV in
+     * canonical dimension order and case. mode (e.g. "auto", "precheck"; null
+     * for none) marks requests that submit different work for the same type.
+     */
+    static String coalesceKey(String operation, String cluster, String application,
+            Enum<?> taskType, String mode, String pov) {
+        return operation + " " + (cluster != null ? cluster.trim().toLowerCase(Locale.ROOT) : "")
+                + "/" + (application != null ? application.trim().toLowerCase(Locale.ROOT) : "")
+                + " " + taskType.name() + (mode != null ? "+" + mode : "")
+                + " " + HFMpovInfo.parsePov(pov).canonical();
+    }
+
+    /** Options that do not change what the server is asked to do. */
+    private static final String[] NOT_PART_OF_KEY = {
+        "u", "p", "v", "pollInterval", "async", "resubmit", "backend",
+        "journal", "journalWindow", "metricsFile", "metricsInterval",
+        "eventLog", "eventLogMaxBytes", "eventLogFiles", "eventFifo", "admitLimits", "admitDir",
+        "timeout", "queueTimeout", "stallTimeout", "keepTasksOnExit", "retries", "retryBackoff",
+        "history", "verify", "extractFile", "minRows", "store", "snapshot",
+        "journalParallel", "journalCheck"
+    };
+
+    /**
+     * Normalized identity of a request: the operation plus every option that
+     * affects the server work, sorted by name, plus any extra detail (such as
+     * the size and timestamp of a load file).
+     */
+    static String key(String operation, CommandLine cl, String extra) {
+        TreeMap<String, String> params = new TreeMap<String, String>();
+        outer:
+        for (Option o : cl.getOptions()) {
+            String name = o.getLongOpt() != null ? o.getLongOpt() : o.getOpt();
+            for (String skip : NOT_PART_OF_KEY) {
+                if (skip.equals(o.getOpt()) || skip.equals(o.getLongOpt())) continue outer;
+            }
+            // The value the operation reads: the first occurrence, as getOptionValue returns it
+            String value = cl.getOptionValue(name);
+            params.put(name, value != null ? value.trim() : "true");
+        }
+        StringBuilder sb = new StringBuilder(operation);
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            sb.append(" ").append(e.getKey()).append("=").append(e.getValue());
+        }
+        if (extra != null) sb.append(" ").append(extra);
+        return sb.toString();
+    }
+}
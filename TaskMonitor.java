@@ -0,0 +1,201 @@
+/*
+ * TaskMonitor.java - One poller for all tasks of a multi-stage operation
+ *
+ * Workflow runs several stages at once on one session. Instead of every
+ * stage polling its own task IDs, each stage registers them here and blocks
+ * in await(); a single daemon thread asks getCurrentTaskProgress for the
+ * union of all pending IDs once per poll interval and wakes the waiters
+ * whose tasks finished.
+ *
+ * After MAX_POLL_ERRORS consecutive failed polls every pending task is
+ * reported as failed, so a dropped session cannot hang the workflow.
+ * With deadlines (--timeout, --queueTimeout, --stallTimeout) the poller
+ * also stops every unfinished task once a limit is exceeded and reports
+ * them as failed; expired() then says which limit it was.
+ *
+ * Waiters block on a Condition rather than Object.wait so they do not pin
+ * virtual threads (see HfmThreads).
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class TaskMonitor implements Runnable {
+
+    static final int MAX_POLL_ERRORS = 5;
+
+    /** Receives every progress row polled (HfmCli prints them with -v). */
+    interface Listener {
+        void progress(HfmBackend.TaskProgress progress);
+    }
+
+    private final HfmBackend.Session session;
+    private final int pollInterval;
+    private final Listener listener;
+    private final TaskDeadlines.Watch watch;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Set<Integer> pending = new LinkedHashSet<Integer>();
+    private final Map<Integer, Boolean> finished = new HashMap<Integer, Boolean>();
+    private int polls;
+    private boolean closed;
+    private volatile String expired;
+    private Thread thread;
+
+    TaskMonitor(HfmBackend.Session session, int pollInterval, Listener listener) {
+        this(session, pollInterval, listener, null);
+    }
+
+    TaskMonitor(HfmBackend.Session session, int pollInterval, Listener listener, TaskDeadlines deadlines) {
+        this.session = session;
+        this.pollInterval = pollInterval;
+        this.listener = listener;
+        this.watch = deadlines != null ? deadlines.watch() : null;
+    }
+
+    /** Blocks until all of the tasks have finished; true when none failed. */
+    boolean await(List<Integer> taskIds) throws InterruptedException {
+        if (taskIds == null || taskIds.isEmpty()) return true;
+        lock.lock();
+        try {
+            if (closed) throw new IllegalStateException("Task monitor is closed");
+            for (Integer id : taskIds) {
+                if (expired != null) finished.put(id, false);
+                else if (!finished.containsKey(id)) pending.add(id);
+            }
+            if (thread == null) {
+                thread = HfmThreads.start("hfmcli-task-monitor", this);
+            }
+            changed.signalAll();
+            boolean ok = true;
+            for (Integer id : taskIds) {
+                while (!finished.containsKey(id)) {
+                    changed.await();
+                }
+                ok &= finished.get(id);
+            }
+            return ok;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int polls() {
+        lock.lock();
+        try {
+            return polls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The deadline that was exceeded, or null. */
+    String expired() {
+        return expired;
+    }
+
+    /** Tasks still being waited for (stopped by the shutdown hook). */
+    List<Integer> pending() {
+        lock.lock();
+        try {
+            return new ArrayList<Integer>(pending);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void run() {
+        int errors = 0;
+        while (true) {
+            List<Integer> ids;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    changed.await();
+                }
+                if (closed) return;
+                ids = new ArrayList<Integer>(pending);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            List<HfmBackend.TaskProgress> progressList = null;
+            try {
+                progressList = session.getCurrentTaskProgress(ids);
+                errors = 0;
+            } catch (Exception e) {
+                errors++;
+                System.err.println("WARN: task progress poll failed (" + errors + "/" + MAX_POLL_ERRORS + "): " + e.getMessage());
+            }
+
+            String reason = null;
+            if (watch != null && progressList != null) {
+                reason = watch.check(progressList, System.currentTimeMillis());
+                if (reason != null) stop(TaskDeadlines.active(progressList), reason);
+            }
+
+            boolean idle;
+            lock.lock();
+            try {
+                polls++;
+                if (progressList != null) {
+                    for (HfmBackend.TaskProgress progress : progressList) {
+                        if (listener != null) listener.progress(progress);
+                        if (!HfmCli.isActive(progress.status) && pending.remove(progress.taskId)) {
+                            finished.put(progress.taskId, !HfmCli.isFailed(progress.status));
+                        }
+                    }
+                }
+                if (reason != null || (progressList == null && errors >= MAX_POLL_ERRORS)) {
+                    for (Integer id : pending) finished.put(id, false);
+                    pending.clear();
+                    errors = 0;
+                }
+                if (reason != null) expired = reason;
+                changed.signalAll();
+                idle = pending.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+            if (idle) continue;
+
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void stop(List<Integer> ids, String reason) {
+        System.err.println("WARN: " + reason + "; stopping tasks " + ids);
+        try {
+            if (!ids.isEmpty() && !session.cancelTasks(ids)) {
+                System.err.println("WARN: this HFM version has no task stop call; tasks " + ids + " keep running");
+            }
+        } catch (Exception e) {
+            System.err.println("WARN: cannot stop tasks " + ids + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * WorkflowPipeline.java - Runs Load -> Translate -> Consolidate -> Extract
+ * pipelined across periods (or entities)
+ *
+ * Every item (a period or an entity) goes through the stages in order, but
+ * different items are in different stages at the same time: while Feb
+ * consolidates, Mar loads and Jan extracts. Each stage has its own
+ * concurrency cap (a fair semaphore), so the cluster is kept busy without
+ * e.g. running three consolidations at once.
+ *
+ * Items enter a stage in item order: stage s of item i starts only after
+ * item i-1 has started stage s. A stage that needs an admission slot (see
+ * AdmissionControl) takes it after its own cap and holds it until its
+ * tasks are done, so other jobs on the cluster count it too. When a stage fails, the later stages of that
+ * item are skipped; other items carry on.
+ *
+ * The timeline records start and end of every stage per item, in ms since
+ * the pipeline started.
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+class WorkflowPipeline {
+
+    /** Submits one stage for one item and returns its task IDs (empty when there is nothing to do). */
+    interface Stages {
+        /** Waits for the stage's admission slot; null when no limit applies. */
+        AdmissionControl.Slot admit(String stage) throws Exception;
+
+        List<Integer> submit(String stage, String item) throws Exception;
+    }
+
+    static final class StageRun {
+        final String stage;
+        long startMs = -1;
+        long endMs = -1;
+        String status = "Skipped";
+        String error;
+        List<Integer> taskIds = new ArrayList<Integer>();
+
+        StageRun(String stage) {
+            this.stage = stage;
+        }
+    }
+
+    private final List<String> stages;
+    private final List<String> items;
+    private final Stages submitter;
+    private final TaskMonitor monitor;
+    private final Semaphore[] limits;
+    private final CountDownLatch[][] entered;
+    private final StageRun[][] runs;
+    private long startNanos;
+
+    /** @param limits concurrency cap per stage name; stages not listed get 1 */
+    WorkflowPipeline(List<String> stages, Map<String, Integer> limits, List<String> items,
+            Stages submitter, TaskMonitor monitor) {
+        this.stages = stages;
+        this.items = items;
+        this.submitter = submitter;
+        this.monitor = monitor;
+        this.limits = new Semaphore[stages.size()];
+        this.entered = new CountDownLatch[stages.size()][items.size()];
+        this.runs = new StageRun[items.size()][stages.size()];
+        for (int s = 0; s < stages.size(); s++) {
+            Integer cap = limits.get(stages.get(s));
+            this.limits[s] = new Semaphore(cap != null && cap > 0 ? cap : 1, true);
+            for (int i = 0; i < items.size(); i++) {
+                entered[s][i] = new CountDownLatch(1);
+                runs[i][s] = new StageRun(stages.get(s));
+            }
+        }
+    }
+
+    // ==================== Running ====================
+
+    /** Runs every item through every stage; true when all stages succeeded. */
+    boolean run() throws InterruptedException {
+        startNanos = System.nanoTime();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < items.size(); i++) {
+            final int item = i;
+            threads.add(HfmThreads.start("hfmcli-workflow-" + items.get(i), new Runnable() {
+                public void run() {
+                    runItem(item);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (StageRun[] row : runs) {
+            for (StageRun r : row) {
+                if (!"OK".equals(r.status)) return false;
+            }
+        }
+        return true;
+    }
+
+    private void runItem(int i) {
+        boolean failed = false;
+        for (int s = 0; s < stages.size(); s++) {
+            StageRun r = runs[i][s];
+            try {
+                if (failed) continue;
+                if (i > 0) entered[s][i - 1].await();
+                limits[s].acquire();
+                AdmissionControl.Slot slot = null;
+                try {
+                    slot = submitter.admit(stages.get(s));
+                    r.startMs = elapsedMs();
+                    entered[s][i].countDown();
+                    List<Integer> ids = submitter.submit(stages.get(s), items.get(i));
+                    if (ids != null) r.taskIds = ids;
+                    boolean ok = monitor.await(r.taskIds);
+                    r.status = ok ? "OK" : "Failed";
+                    failed = !ok;
+                } finally {
+                    if (r.startMs >= 0) r.endMs = elapsedMs();
+                    if (slot != null) slot.release();
+                    limits[s].release();
+                }
+            } catch (InterruptedException e) {
+                r.status = "Error";
+                r.error = "interrupted";
+                failed = true;
+            } catch (Exception e) {
+                r.status = "Error";
+                r.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                failed = true;
+            } finally {
+                // A skipped stage still lets the next item in
+                entered[s][i].countDown();
+            }
+        }
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    // ==================== Results ====================
+
+    List<Integer> taskIds() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (StageRun[] row : runs) {
+            for (StageRun r : row) ids.addAll(r.taskIds);
+        }
+        return ids;
+    }
+
+    /** Number of item stages with the given status. */
+    int count(String status) {
+        int n = 0;
+        for (StageRun[] row : runs) {
+            for (StageRun r : row) {
+                if (status.equals(r.status)) n++;
+            }
+        }
+        return n;
+    }
+
+    /** JSON fragment for the result line. */
+    String toJson() {
+        StringBuilder sb = new StringBuilder("\"timeline\":[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append("{\"item\":\"");
+            JsonEventWriter.escape(items.get(i), sb);
+            sb.append("\",\"stages\":[");
+            for (int s = 0; s < stages.size(); s++) {
+                StageRun r = runs[i][s];
+                if (s > 0) sb.append(",");
+                sb.append("{\"stage\":\"").append(r.stage).append("\",\"status\":\"").append(r.status).append("\"");
+                if (r.startMs >= 0) {
+                    sb.append(",\"start_ms\":").append(r.startMs).append(",\"end_ms\":").append(r.endMs);
+                }
+                if (!r.taskIds.isEmpty()) {
+                    sb.append(",\"task_ids\":[").append(HfmCli.joinIds(r.taskIds)).append("]");
+                }
+                if (r.error != null) {
+                    sb.append(",\"error\":\"");
+                    JsonEventWriter.escape(r.error, sb);
+                    sb.append("\"");
+                }
+                sb.append("}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * HfmBench.java - Micro-benchmarks for the client's CPU hot paths
+ *
+ * Measures the pure client-side code that runs on every job (argument
+ * parsing, POV parsing, JSON rendering). Nothing here logs in or talks to an
+ * HFM server, so it builds and runs against bench/stub, a compile-only stub
+ * of the HFM Java API classes the tree references (enums with the constants
+ * used, option classes with no-op setters, OM classes that throw). With the
+ * stub no EPM jars are needed; bench/baseline.txt is recorded against it.
+ *
+ * Each benchmark runs warmup iterations, then timed measurement iterations,
+ * JMH-style, and reports ns/op, the error (one standard deviation across
+ * iterations) and bytes allocated per op where the JVM exposes it. Like JMH,
+ * every benchmark runs in its own forked JVM so JIT profiles gathered for one
+ * benchmark cannot slow down the next (--noFork runs them all in-process).
+ *
+ * Usage:
+ *   javac -encoding UTF-8 -d out -cp commons-cli.jar *.java bench/HfmBench.java \
+ *         $(find bench/stub -name '*.java')
+ *   java -cp out:commons-cli.jar project1.HfmBench [--filter NAME] [--write FILE]
+ *        [--baseline FILE] [--threshold PCT]
+ *
+ * On the EPM host, compile against the EPM jars instead of bench/stub to
+ * measure with the real enum classes.
+ *
+ * With --baseline the results are compared against a previous run and the
+ * exit code is 1 when any benchmark is slower than the threshold (default
+ * 20%) by more than the two runs' errors explain: the run's mean minus its
+ * error must exceed the baseline's mean plus its error by the threshold.
+ */
+
+package project1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import oracle.epm.fm.common.datatype.transport.USERACTIVITYSTATUS;
+
+public class HfmBench {
+
+    // ==================== Settings ====================
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200L * 1000 * 1000;
+    private static final double DEFAULT_THRESHOLD_PCT = 20.0;
+    private static final String FORK_HEAP = "512m";
+
+    // Results are folded into this field so the JIT cannot drop the work
+    private static volatile int blackhole;
+
+    // ==================== Benchmark Inputs ====================
+
+    private static final String POV =
+            "S#Actual.Y#2025.P#Jan;Feb;Mar.Vw#YTD.E#CO_J00000.V#<Entity Currency>"
+            + ".A#NetIncome.I#[ICP None].C1#[None].C2#Products.C3#[None].C4#[None]";
+
+    private static final String MESSAGE =
+            "Consolidation completed successfully\r\n\tTask \"Consolidate\" on C:\\HFM\\apps";
+
+    private static final String[] ARGS_OP_FIRST = {
+        "Consolidate", "-u", "admin", "-p", "secret", "-a", "HCHFM", "-c", "HCHFMP",
+        "-s", POV, "-t", "AllWithData", "-v"
+    };
+
+    private static final String[] ARGS_OP_LAST = {
+        "-u", "admin", "-p", "secret", "-a", "HCHFM", "-c", "HCHFMP",
+        "-f", "C:\\data\\load.dat", "-d", ";", "--loadMode", "Merge", "LoadData"
+    };
+
+    private static final String[] TYPE_ALIASES = {
+        "allwithdata", "awd", "all", "impacted", "entityonly", "WEBOM_DATAGRID_TASK_CONSOLIDATEALL"
+    };
+
+    private static final List<Integer> TASK_IDS = Arrays.asList(101, 102, 103, 104);
+
+    private static final PhaseTimer PHASES = new PhaseTimer();
+    static {
+        PHASES.add("authenticate", 180000000L);
+        PHASES.add("create_session", 420000000L);
+        PHASES.add("submit", 35000000L);
+        PHASES.add("queue_wait", 4000000000L);
+        PHASES.add("run", 600000000000L);
+        PHASES.add("close_session", 25000000L);
+    }
+
+    private static final JsonEventWriter RESULTS = new JsonEventWriter();
+    private static final JsonEventWriter PROGRESS = new JsonEventWriter();
+
+    // Publishing cost as seen by the polling thread; the sink discards lines
+    private static final EventBus BUS = new EventBus(EventBus.DEFAULT_CAPACITY, null);
+    private static final String PROGRESS_BODY =
+            "{\"type\":\"progress\",\"task_id\":7,\"percent\":42,\"status\":\"RUNNING\"";
+    static {
+        BUS.addSink("null", new EventBus.StreamSink(new PrintStream(new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        })), false);
+    }
+
+    // ==================== Benchmarks ====================
+
+    private interface Benchmark {
+        int run(int i);
+    }
+
+    private static Map<String, Benchmark> benchmarks() {
+        Map<String, Benchmark> b = new LinkedHashMap<String, Benchmark>();
+        b.put("HFMpovInfo.parsePov", new Benchmark() {
+            public int run(int i) {
+                return HFMpovInfo.parsePov(POV).periods.size();
+            }
+        });
+        b.put("HfmCli.escapeJson", new Benchmark() {
+            public int run(int i) {
+                return HfmCli.escapeJson(MESSAGE).length();
+            }
+        });
+        b.put("JsonEventWriter.result", new Benchmark() {
+            public int run(int i) {
+                return RESULTS.result("OK", MESSAGE, "Consolidate", "HCHFM", i, TASK_IDS, PHASES).length();
+            }
+        });
+        b.put("EventBus.publishProgress", new Benchmark() {
+            public int run(int i) {
+                return BUS.publish(EventBus.Event.progress(PROGRESS_BODY)).length();
+            }
+        });
+        b.put("JsonEventWriter.progressUnchanged", new Benchmark() {
+            public int run(int i) {
+                String line = PROGRESS.progress("HCHFMP/HCHFM", 7, "Consolidating", 42, USERACTIVITYSTATUS.USERACTIVITYSTATUS_RUNNING);
+                return line == null ? 0 : line.length();
+            }
+        });
+        // What result rendering used to do per record; kept as a reference point
+        b.put("SimpleDateFormat.newAndFormat", new Benchmark() {
+            public int run(int i) {
+                return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date()).length();
+            }
+        });
+        b.put("HfmCli.findOperation", new Benchmark() {
+            public int run(int i) {
+                String[] args = (i & 1) == 0 ? ARGS_OP_FIRST : ARGS_OP_LAST;
+                return HfmCli.findOperation(args).length();
+            }
+        });
+        b.put("HfmCli.removeOperation", new Benchmark() {
+            public int run(int i) {
+                return HfmCli.removeOperation(ARGS_OP_LAST, "LoadData").length;
+            }
+        });
+        b.put("HFMcons.mapTypeToEnum", new Benchmark() {
+            public int run(int i) {
+                return HFMcons.mapTypeToEnum(TYPE_ALIASES[i % TYPE_ALIASES.length]).length();
+            }
+        });
+        return b;
+    }
+
+    // ==================== Harness ====================
+
+    private static class Result {
+        String name;
+        double nsPerOp;
+        double error;
+        double bytesPerOp = -1;
+    }
+
+    private static Result measure(String name, Benchmark bench) {
+        // Warm up by time first: sizing the batch on a cold first call (class
+        // initialization, interpreted code) gives batches of a few ops
+        long warmupEnd = System.nanoTime() + WARMUP_ITERATIONS * ITERATION_NANOS;
+        for (int batch = 1; System.nanoTime() < warmupEnd; batch = Math.min(batch * 2, 1 << 20)) {
+            runBatch(bench, batch);
+        }
+
+        // Then size a batch on the compiled code so each iteration lasts roughly ITERATION_NANOS
+        int batch = 1;
+        while (true) {
+            long t0 = System.nanoTime();
+            runBatch(bench, batch);
+            long t = System.nanoTime() - t0;
+            if (t > ITERATION_NANOS / 10 || batch >= (1 << 28)) {
+                batch = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) batch * (ITERATION_NANOS / Math.max(1, t))));
+                break;
+            }
+            batch *= 2;
+        }
+        runBatch(bench, batch);
+
+        double[] samples = new double[MEASURE_ITERATIONS];
+        long allocBefore = threadAllocatedBytes();
+        for (int m = 0; m < MEASURE_ITERATIONS; m++) {
+            long t0 = System.nanoTime();
+            runBatch(bench, batch);
+            samples[m] = (System.nanoTime() - t0) / (double) batch;
+        }
+        long allocAfter = threadAllocatedBytes();
+
+        Result r = new Result();
+        r.name = name;
+        double sum = 0;
+        for (double s : samples) sum += s;
+        r.nsPerOp = sum / samples.length;
+        double var = 0;
+        for (double s : samples) var += (s - r.nsPerOp) * (s - r.nsPerOp);
+        r.error = Math.sqrt(var / Math.max(1, samples.length - 1));
+        if (allocBefore >= 0 && allocAfter >= 0) {
+            r.bytesPerOp = (allocAfter - allocBefore) / ((double) batch * MEASURE_ITERATIONS);
+        }
+        return r;
+    }
+
+    private static Result measureForked(String name) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        // A fixed heap keeps the collector from resizing it mid-measurement
+        ProcessBuilder pb = new ProcessBuilder(java, "-Xms" + FORK_HEAP, "-Xmx" + FORK_HEAP,
+                "-cp", System.getProperty("java.class.path"), HfmBench.class.getName(), "--child", name);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        Result r = null;
+        BufferedReader in = new BufferedReader(new java.io.InputStreamReader(p.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("RESULT\t")) {
+                    String[] cols = line.split("\t");
+                    r = new Result();
+                    r.name = cols[1];
+                    r.nsPerOp = Double.parseDouble(cols[2]);
+                    r.error = Double.parseDouble(cols[3]);
+                    r.bytesPerOp = Double.parseDouble(cols[4]);
+                } else {
+                    System.err.println(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (p.waitFor() != 0 || r == null) {
+            throw new IllegalStateException("Forked benchmark " + name + " failed");
+        }
+        return r;
+    }
+
+    private static void runBatch(Benchmark bench, int batch) {
+        int acc = 0;
+        for (int i = 0; i < batch; i++) {
+            acc += bench.run(i);
+        }
+        blackhole += acc;
+    }
+
+    // com.sun.management.ThreadMXBean is not available on every JVM, so use reflection
+    private static Method allocatedBytesMethod;
+    private static boolean allocatedBytesResolved;
+
+    private static long threadAllocatedBytes() {
+        try {
+            Object mx = ManagementFactory.getThreadMXBean();
+            if (!allocatedBytesResolved) {
+                allocatedBytesResolved = true;
+                Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+                if (c.isInstance(mx)) {
+                    allocatedBytesMethod = c.getMethod("getThreadAllocatedBytes", long.class);
+                }
+            }
+            if (allocatedBytesMethod == null) return -1;
+            return (Long) allocatedBytesMethod.invoke(mx, Thread.currentThread().getId());
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    // ==================== Baseline File ====================
+    // One line per benchmark: name <TAB> ns/op <TAB> error <TAB> bytes/op
+
+    private static void writeResults(File file, List<Result> results) throws Exception {
+        PrintWriter w = new PrintWriter(new FileWriter(file));
+        try {
+            w.println("# HfmBench results, java " + System.getProperty("java.version")
+                    + ", " + System.getProperty("os.name") + "/" + System.getProperty("os.arch"));
+            w.println("# benchmark\tns_per_op\terror\tbytes_per_op");
+            for (Result r : results) {
+                w.println(r.name + "\t" + format(r.nsPerOp) + "\t" + format(r.error) + "\t" + format(r.bytesPerOp));
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    // name -> {ns/op, error}; error is 0 in files that have no error column
+    private static Map<String, double[]> readBaseline(File file) throws Exception {
+        Map<String, double[]> baseline = new LinkedHashMap<String, double[]>();
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().isEmpty()) continue;
+                String[] cols = line.split("\t");
+                if (cols.length >= 2) {
+                    baseline.put(cols[0], new double[] {Double.parseDouble(cols[1]),
+                            cols.length >= 3 ? Double.parseDouble(cols[2]) : 0});
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return baseline;
+    }
+
+    private static String format(double d) {
+        return String.format(java.util.Locale.ROOT, "%.2f", d);
+    }
+
+    // ==================== Main Entry Point ====================
+
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        File writeFile = null;
+        File baselineFile = null;
+        double threshold = DEFAULT_THRESHOLD_PCT;
+        boolean fork = true;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--child".equals(args[i]) && i + 1 < args.length) {
+                // Forked JVM: run exactly one benchmark and report it on one line
+                String name = args[++i];
+                Result r = measure(name, benchmarks().get(name));
+                System.out.println("RESULT\t" + r.name + "\t" + r.nsPerOp + "\t" + r.error + "\t" + r.bytesPerOp);
+                return;
+            }
+            if ("--noFork".equals(args[i])) fork = false;
+            else if ("--filter".equals(args[i]) && i + 1 < args.length) filter = args[++i];
+            else if ("--write".equals(args[i]) && i + 1 < args.length) writeFile = new File(args[++i]);
+            else if ("--baseline".equals(args[i]) && i + 1 < args.length) baselineFile = new File(args[++i]);
+            else if ("--threshold".equals(args[i]) && i + 1 < args.length) threshold = Double.parseDouble(args[++i]);
+            else {
+                System.err.println("Usage: HfmBench [--filter NAME] [--write FILE] [--baseline FILE] [--threshold PCT] [--noFork]");
+                System.exit(1);
+            }
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        System.out.println(String.format("%-32s %12s %10s %12s", "Benchmark", "ns/op", "error", "B/op"));
+        for (Map.Entry<String, Benchmark> e : benchmarks().entrySet()) {
+            if (filter != null && !e.getKey().contains(filter)) continue;
+            Result r = fork ? measureForked(e.getKey()) : measure(e.getKey(), e.getValue());
+            results.add(r);
+            System.out.println(String.format(java.util.Locale.ROOT, "%-32s %12.2f %10.2f %12.1f",
+                    r.name, r.nsPerOp, r.error, r.bytesPerOp));
+        }
+
+        if (writeFile != null) {
+            writeResults(writeFile, results);
+        }
+
+        if (baselineFile != null) {
+            Map<String, double[]> baseline = readBaseline(baselineFile);
+            boolean regressed = false;
+            System.out.println();
+            System.out.println("Compared to " + baselineFile + " (threshold " + threshold + "%):");
+            for (Result r : results) {
+                double[] base = baseline.get(r.name);
+                if (base == null || base[0] <= 0) {
+                    System.out.println(String.format("  %-32s (no baseline)", r.name));
+                    continue;
+                }
+                double deltaPct = (r.nsPerOp - base[0]) / base[0] * 100.0;
+                // Slow only if even the fast end of this run is past the slow end of the baseline plus the threshold
+                double lowPct = (r.nsPerOp - r.error - (base[0] + base[1])) / base[0] * 100.0;
+                boolean slow = deltaPct > threshold && lowPct > threshold;
+                regressed |= slow;
+                System.out.println(String.format(java.util.Locale.ROOT, "  %-32s %+8.1f%%%s",
+                        r.name, deltaPct, slow ? "  REGRESSION" : deltaPct > threshold ? "  (within error)" : ""));
+            }
+            if (regressed) System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum DATALOAD_DUPLICATE_HANDLING {
+    DATALOAD_MERGE, DATALOAD_REPLACE, DATALOAD_ACCUMULATE
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum DATALOAD_FILE_FORMAT {
+    DATALOAD_FILE_FORMAT_NATIVE
+}
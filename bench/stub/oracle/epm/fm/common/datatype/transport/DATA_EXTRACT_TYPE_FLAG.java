@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum DATA_EXTRACT_TYPE_FLAG {
+    EA_EXTRACT_TYPE_FLATFILE, EA_EXTRACT_TYPE_FLATFILE_NOHEADER, EA_EXTRACT_TYPE_ESSBASE, EA_EXTRACT_TYPE_WAREHOUSE
+}
@@ -0,0 +1,17 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public class DataExtractOptions {
+    public void setDelimiter(String value) { }
+    public void setMetadataSlice(String value) { }
+    public void setIncludeCalculatedData(boolean value) { }
+    public void setIncludeDerivedData(boolean value) { }
+    public void setIncludeDynamicAccounts(boolean value) { }
+    public void setIncludeData(boolean value) { }
+    public void setExtractFormat(DATA_EXTRACT_TYPE_FLAG value) { }
+    public void setDSN(String value) { }
+    public void setTablePrefix(String value) { }
+}
@@ -0,0 +1,21 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public class DataLoadOptions {
+    public boolean loadCalculated;
+
+    public void setDelimiter(String value) { }
+    public void setAccumulateWithinFile(boolean value) { }
+    public void setAppendToLogFile(boolean value) { }
+    public void setContainSharesData(boolean value) { }
+    public void setContainSubmissionPhaseData(boolean value) { }
+    public void setDecimalChar(String value) { }
+    public void setThousandsChar(String value) { }
+    public void setDuplicates(DATALOAD_DUPLICATE_HANDLING value) { }
+    public void setMode(LOAD_MODE value) { }
+    public void setFileFormat(DATALOAD_FILE_FORMAT value) { }
+    public void setUserFileName(String value) { }
+}
@@ -0,0 +1,24 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+import java.util.List;
+
+public class JournalExtractOptions {
+    private String pov;
+    private List<String> labels;
+    private List<String> groups;
+
+    public void setDelimiter(String value) { }
+    public void setRegular(boolean value) { }
+    public void setStandard(boolean value) { }
+    public void setRecurring(boolean value) { }
+    public void setPov(String value) { pov = value; }
+    public String getPov() { return pov; }
+    public void setLabels(List<String> value) { labels = value; }
+    public List<String> getLabels() { return labels; }
+    public void setGroups(List<String> value) { groups = value; }
+    public List<String> getGroups() { return groups; }
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum METADATA_FILE_FORMAT_ENUM {
+    METADATA_FILE_FORMAT_NATIVE, METADATA_FILE_FORMAT_XML
+}
@@ -0,0 +1,23 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public class MetadataExtractOptions {
+    public void setDelimiter(String value) { }
+    public void setAccounts(boolean value) { }
+    public void setEntities(boolean value) { }
+    public void setScenarios(boolean value) { }
+    public void setCurrencies(boolean value) { }
+    public void setValues(boolean value) { }
+    public void setICPs(boolean value) { }
+    public void setAppSettings(boolean value) { }
+    public void setConsolMethods(boolean value) { }
+    public void setCellTxtLabels(boolean value) { }
+    public void setSystemAccounts(boolean value) { }
+    public void setYears(boolean value) { }
+    public void setPeriods(boolean value) { }
+    public void setViews(boolean value) { }
+    public void setFileFormat(METADATA_FILE_FORMAT_ENUM value) { }
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum RULESEXTRACT_FILE_FORMAT {
+    RULESEXTRACT_FILE_FORMAT_RLE, RULESEXTRACT_FILE_FORMAT_XML
+}
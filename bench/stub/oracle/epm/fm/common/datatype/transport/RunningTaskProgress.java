@@ -0,0 +1,12 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public class RunningTaskProgress {
+    public int getTaskID() { return 0; }
+    public String getDescription() { return ""; }
+    public int getPrecentCompleted() { return 0; }
+    public USERACTIVITYSTATUS getTaskStatus() { return null; }
+}
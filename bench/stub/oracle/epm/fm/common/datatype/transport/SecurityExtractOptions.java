@@ -0,0 +1,14 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public class SecurityExtractOptions {
+    public void setDelimiter(String value) { }
+    public void setUsers(boolean value) { }
+    public void setSecurityClasses(boolean value) { }
+    public void setRoleAccess(boolean value) { }
+    public void setSecurityClassAccess(boolean value) { }
+    public void setFileFormat(SECURITYEXTRACT_FILEFORMAT value) { }
+}
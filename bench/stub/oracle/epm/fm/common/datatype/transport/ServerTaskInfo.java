@@ -0,0 +1,11 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+import java.util.List;
+
+public class ServerTaskInfo {
+    public List<Integer> getTaskIDs() { return null; }
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum USERACTIVITYSTATUS {
+    USERACTIVITYSTATUS_NOT_RUNNING, USERACTIVITYSTATUS_SCHEDULED_START, USERACTIVITYSTATUS_STARTING, USERACTIVITYSTATUS_RUNNING, USERACTIVITYSTATUS_SCHEDULED_STOP, USERACTIVITYSTATUS_STOPPED, USERACTIVITYSTATUS_ABORTED, USERACTIVITYSTATUS_COMPLETED
+}
@@ -0,0 +1,9 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.common.datatype.transport;
+
+public enum WEBOMDATAGRIDTASKMASKENUM {
+    WEBOM_DATAGRID_TASK_CONSOLIDATE, WEBOM_DATAGRID_TASK_CONSOLIDATEALL, WEBOM_DATAGRID_TASK_CONSOLIDATEALLWITHDATA, WEBOM_DATAGRID_TASK_FORCECALCULATE, WEBOM_DATAGRID_TASK_TRANSLATE, WEBOM_DATAGRID_TASK_FORCETRANSLATE
+}
@@ -0,0 +1,18 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.domainobject.administration;
+
+import java.util.List;
+
+import oracle.epm.fm.common.datatype.transport.RunningTaskProgress;
+import oracle.epm.fm.common.datatype.transport.SessionInfo;
+
+public class AdministrationOM {
+    public AdministrationOM(SessionInfo session) { }
+
+    public List<RunningTaskProgress> getCurrentTaskProgress(List<Integer> taskIds) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.domainobject.application;
+
+import java.util.Locale;
+
+import oracle.epm.fm.common.datatype.transport.SessionInfo;
+
+public class SessionOM {
+    public SessionInfo createSession(String ssoToken, Locale locale, String cluster, String application) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public void closeSession(SessionInfo session) throws Exception { }
+}
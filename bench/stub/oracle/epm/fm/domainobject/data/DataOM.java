@@ -0,0 +1,19 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.domainobject.data;
+
+import java.util.List;
+
+import oracle.epm.fm.common.datatype.transport.ServerTaskInfo;
+import oracle.epm.fm.common.datatype.transport.SessionInfo;
+import oracle.epm.fm.common.datatype.transport.WEBOMDATAGRIDTASKMASKENUM;
+
+public class DataOM {
+    public DataOM(SessionInfo session) { }
+
+    public ServerTaskInfo executeServerTask(WEBOMDATAGRIDTASKMASKENUM type, List<String> povs) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.domainobject.loadextract;
+
+import java.util.List;
+
+import oracle.epm.fm.common.datatype.transport.*;
+
+// The extract calls return LoadExtractInfo in the real API; callers only read it reflectively
+public class LoadExtractOM {
+    public LoadExtractOM(SessionInfo session) { }
+
+    public List<Integer> loadData(List<String> files, List<DataLoadOptions> options) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public int extractData(DataExtractOptions options) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public Object extractMetadata(MetadataExtractOptions options) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public Object extractRules(RULESEXTRACT_FILE_FORMAT format) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public Object extractMemberLists() throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public Object extractSecurity(SecurityExtractOptions options) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+
+    public Object extractJournals(JournalExtractOptions options) throws Exception {
+        throw new UnsupportedOperationException("HFM API stub");
+    }
+}
@@ -0,0 +1,11 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.domainobject.metadata;
+
+import oracle.epm.fm.common.datatype.transport.SessionInfo;
+
+public class MetadataOM {
+    public MetadataOM(SessionInfo session) { }
+}
@@ -0,0 +1,17 @@
+/*
+ * Compile-only stub of the HFM Java API (see bench/HfmBench.java); not the real class.
+ */
+
+package oracle.epm.fm.hssservice;
+
+public class HSSUtilManager {
+    public static SecurityManager getSecurityManager() {
+        return new SecurityManager();
+    }
+
+    public static class SecurityManager {
+        public String authenticateUser(String username, String password) throws Exception {
+            throw new UnsupportedOperationException("HFM API stub");
+        }
+    }
+}
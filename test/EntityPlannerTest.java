@@ -0,0 +1,131 @@
+/*
+ * EntityPlannerTest.java - Coverage checks for EntityPlanner on small hierarchies
+ *
+ * For each case the plan must cover every parent entity under the targets
+ * exactly once with the requested consolidation type (bottom level) and
+ * leave the levels above only Impacted roll-ups:
+ *
+ *   - bottom units' subtrees do not overlap and hold no other unit
+ *   - every parent child of a unit above the bottom level is a unit
+ *   - every target is a unit or lies inside a unit's subtree
+ *
+ * Usage:
+ *   javac -d out *.java test/*.java   (or against bench/stub, see bench/HfmBench.java)
+ *   java -cp out:<epm jars> project1.EntityPlannerTest
+ *
+ * Exit code 1 when any check fails.
+ */
+
+package project1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class EntityPlannerTest {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        // World -> EU, US -> two countries each -> two base entities each
+        String[] world = {
+            "World;EU", "World;US", "EU;DE", "EU;FR", "US;NY", "US;CA",
+            "DE;DE1", "DE;DE2", "FR;FR1", "FR;FR2", "NY;NY1", "NY;NY2", "CA;CA1", "CA;CA2"
+        };
+        check("single target split", world, Arrays.asList("World"), 4);
+        check("single target unsplit", world, Arrays.asList("World"), 1);
+        check("nested targets", world, Arrays.asList("World", "EU", "DE1"), 1);
+
+        // P1 and P2 share S; P1 also has a base child A1
+        String[] shared = {
+            "Top;P1", "Top;P2", "P1;A1", "P1;S", "P2;S", "P2;B1",
+            "S;S1", "S;S2", "S1;x1", "S1;x2", "S2;y1", "S2;y2"
+        };
+        check("shared subtree", shared, Arrays.asList("P1", "P2"), 1);
+        check("base child of target", shared, Arrays.asList("P1", "A1"), 1);
+
+        // The shared node sits below an unshared parent X, next to another parent Q
+        String[] deep = {
+            "P1;X", "P1;Q", "X;S", "X;B1", "Q;B2", "P2;S", "P2;B3", "S;S1", "S1;B4"
+        };
+        check("shared node below unshared parent", deep, Arrays.asList("P1", "P2"), 1);
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void check(String name, String[] edges, List<String> targets, int width) {
+        int failuresBefore = failures;
+        EntityPlanner planner = new EntityPlanner();
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        for (String edge : edges) {
+            String[] f = edge.split(";");
+            planner.add(f[0], f[1]);
+            List<String> list = children.get(f[0]);
+            if (list == null) children.put(f[0], list = new ArrayList<String>());
+            list.add(f[1]);
+        }
+        EntityPlanner.Plan plan = planner.plan(targets, width);
+
+        Set<String> units = new HashSet<String>();
+        for (List<String> level : plan.levels) units.addAll(level);
+        List<String> bottom = plan.levels.get(0);
+
+        // Parents consolidated with the requested type: each bottom unit's subtree
+        Map<String, String> doneBy = new HashMap<String, String>();
+        for (String u : bottom) {
+            for (String d : subtree(u, children)) {
+                if (!children.containsKey(d)) continue;
+                if (!d.equals(u) && units.contains(d)) fail(name, d + " is a unit inside bottom unit " + u);
+                String other = doneBy.put(d, u);
+                if (other != null) fail(name, d + " consolidated by both " + other + " and " + u);
+            }
+        }
+        for (int l = 1; l < plan.levels.size(); l++) {
+            for (String u : plan.levels.get(l)) {
+                for (String c : children.get(u)) {
+                    if (children.containsKey(c) && !units.contains(c)) {
+                        fail(name, "parent " + c + " under upper-level unit " + u + " is not a unit");
+                    }
+                }
+            }
+        }
+        // Every parent under a target is done at the bottom or is itself an upper-level unit
+        for (String t : targets) {
+            for (String d : subtree(t, children)) {
+                if (children.containsKey(d) && !doneBy.containsKey(d) && !units.contains(d)) {
+                    fail(name, "parent " + d + " under target " + t + " is not covered");
+                }
+            }
+            boolean covered = units.contains(t);
+            for (String u : units) covered |= subtree(u, children).contains(t);
+            if (!covered) fail(name, "target " + t + " is not covered");
+        }
+        System.out.println((failures == failuresBefore ? "ok   " : "     ") + name + ": " + plan.toJson());
+    }
+
+    private static Set<String> subtree(String root, Map<String, List<String>> children) {
+        Set<String> out = new HashSet<String>();
+        List<String> stack = new ArrayList<String>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            String e = stack.remove(stack.size() - 1);
+            if (!out.add(e)) continue;
+            List<String> list = children.get(e);
+            if (list != null) stack.addAll(list);
+        }
+        return out;
+    }
+
+    private static void fail(String name, String message) {
+        failures++;
+        System.out.println("FAIL " + name + ": " + message);
+    }
+}